@@ -312,6 +312,39 @@ public class StreamingServer implements Runnable {
             return responseProtocol.endsWith("/1.0");
         }
 
+        // the first and last byte of the requested range, e.g. "Range: bytes=0-123", "bytes=123-" or "bytes=-123",
+        // clamped to the content length; null if the range cannot be satisfied. A malformed range, such as one whose
+        // last byte precedes its first, is ignored as RFC 7233 requires: the result is empty and the whole content is
+        // served. Only the first of several ranges is served. Offsets are 64 bit, so large content streams from any position.
+        public long[] getRange(long length) {
+            long head = 0, tail = length - 1;
+            String spec = requestRange.substring(requestRange.indexOf('=') + 1).trim();
+            int comma = spec.indexOf(',');
+            if (comma >= 0)
+                spec = spec.substring(0, comma).trim();
+            int dash = spec.indexOf('-');
+            try {
+                String first = dash < 0 ? spec : spec.substring(0, dash).trim();
+                String last = dash < 0 ? "" : spec.substring(dash + 1).trim();
+                if (dash < 0 || (first.length() == 0 && last.length() == 0))
+                    return new long[0];
+                if (first.length() > 0) {
+                    head = Long.parseLong(first);
+                    if (last.length() > 0) {
+                        long lastByte = Long.parseLong(last);
+                        if (lastByte < head)
+                            return new long[0];
+                        tail = Math.min(tail, lastByte);
+                    }
+                } else {
+                    head = Math.max(0, length - Long.parseLong(last)); // suffix of the content
+                }
+            } catch (NumberFormatException fault) {
+                return new long[0];
+            }
+            return head > tail ? null : new long[] { head, tail };
+        }
+
         public Throwable fault = null; // null = no error
 
         public HTTP_REQUEST_TYPE requestType = HTTP_REQUEST_TYPE.RT_UNKNOWN;
@@ -461,6 +494,21 @@ public class StreamingServer implements Runnable {
                     e.printStackTrace();
                 }
 
+            // return 416 Requested Range Not Satisfiable whenever the range lies beyond the end of the file,
+            // and the whole content when the range is malformed
+            long unsatisfiableLength = -1;
+            if (request.responseType == HTTP_RESPONSE_TYPE.RT_206_PARTIAL_CONTENT)
+                try {
+                    long[] range = request.getRange(token.object.size());
+                    if (range == null) {
+                        request.responseType = HTTP_RESPONSE_TYPE.RT_416_REQUESTED_RANGE_NOT_SATISFIABLE;
+                        unsatisfiableLength = token.object.size();
+                    } else if (range.length == 0)
+                        request.responseType = HTTP_RESPONSE_TYPE.RT_200_OK;
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                }
+
             if (request.responseType == HTTP_RESPONSE_TYPE.RT_200_OK || request.responseType == HTTP_RESPONSE_TYPE.RT_206_PARTIAL_CONTENT) {
                 synchronized (token) {
                     try {
@@ -476,18 +524,11 @@ public class StreamingServer implements Runnable {
                         byte[] buf = new byte[BUFFER_SIZE + 16];
 
                         // process byte range request
-                        if (request.requestRange.length() > 0) {
-                            String[] range = request.requestRange.split("[\\x3d\\x2d]"); // e.g.: "Range: bytes=0-123" splits as range[0] = "Range: bytes" : range[1] = "0" : range[2] = "123"
-                            try {
-                                head = Integer.valueOf(range[1]);
-                            } catch (Throwable fault) {
-                                head = 0;
-                            }
-                            try {
-                                tail = Integer.valueOf(range[2]);
-                            } catch (Throwable fault) {
-                                tail = inRealFileLen;
-                            }
+                        boolean isRange = request.responseType == HTTP_RESPONSE_TYPE.RT_206_PARTIAL_CONTENT;
+                        if (isRange) {
+                            long[] range = request.getRange(inRealFileLen);
+                            head = range[0];
+                            tail = range[1];
                             inFileLen = tail - head + 1;
                         }
 
@@ -498,7 +539,7 @@ public class StreamingServer implements Runnable {
                         response.addHeader(new BasicHeader(HTTP.CONTENT_LEN, Long.toString(inFileLen)));
                         response.addHeader(new BasicHeader(HTTP.CONTENT_TYPE, request.responseMIME));
 
-                        if (request.requestRange.length() > 0) {
+                        if (isRange) {
                             response.addHeader(new BasicHeader("Content-Range", "bytes " + head + "-" + tail + "/" + inRealFileLen));
                             response.addHeader(new BasicHeader("Accept-Ranges", "bytes"));
                         }
@@ -594,6 +635,8 @@ public class StreamingServer implements Runnable {
                 HttpResponse response = new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 0), request.responseType.getResponseCode(), responseStatus);
                 response.addHeader(new BasicHeader(HTTP.CONTENT_TYPE, "text/html"));
                 response.addHeader(new BasicHeader(HTTP.CONTENT_LEN, Integer.toString(responseStatus.length())));
+                if (unsatisfiableLength >= 0)
+                    response.addHeader(new BasicHeader("Content-Range", "bytes */" + unsatisfiableLength));
 
                 try {
                     outStream.write(response.getStatusLine().toString().getBytes());
@@ -29,6 +29,7 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Environment;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.StatFs;
@@ -71,6 +72,12 @@ public class UntenCacheService extends Service {
     static HashMap<String, HashMap<String, UntenCacheObject>> sObjects = new HashMap<String, HashMap<String, UntenCacheObject>>();
     private static HashMap<String, HashMap<String, Properties>> sObjectProperties = new HashMap<String, HashMap<String, Properties>>();
     private static long sObjectCount = 0;
+
+    // data shared by copyObject lives in SHARED_FOLDER; the metadata of each object sharing it names it under
+    // SHARED_DATA_KEY, a property hidden from clients, and sSharedData counts the objects sharing each data file
+    private static final String SHARED_FOLDER = ".shared";
+    private static final String SHARED_DATA_KEY = "UNTEN_SHARED_DATA";
+    private static HashMap<String, Integer> sSharedData = new HashMap<String, Integer>();
     
     private static Properties sProperties = new Properties();
     private static File sMetaFile = null;
@@ -326,6 +333,71 @@ public class UntenCacheService extends Service {
             }
         }
 
+        @Override
+        public IContentObject copyObject(String sourceName, String targetName) throws RemoteException {
+            String callingOrigin = getCallingOrigin();
+            String[] source = splitName(sourceName, callingOrigin);
+            String[] target = splitName(targetName, callingOrigin);
+            if (source == null || target == null) {
+                return null;
+            } else if (!su() && !(source[0].equals(callingOrigin) && target[0].equals(callingOrigin))) {
+                return null;
+            } else if (source[0].equals(target[0]) && normalize(source[1]).equals(normalize(target[1]))) {
+                return null; // creating the target would remove the source
+            }
+
+            // the external storage file system has no links, so the two objects refer to one data file in
+            // SHARED_FOLDER instead; an object gets a data file of its own again when it is opened for writing.
+            // Objects are opened under the same lock, so a source that is not locked by a writer cannot be
+            // opened for writing while its data is shared
+            synchronized (sObjects) {
+                UntenCacheObject targetObject = null;
+                try {
+                    if (!getObjects(source[0]).containsKey(normalize(source[1]))) {
+                        return null;
+                    }
+                    UntenCacheObject sourceObject = new UntenCacheObject(source[1], source[0]);
+                    if (!sourceObject.isValidObject()) {
+                        return null;
+                    } else if ("true".equals(sourceObject.mProperties.getProperty(VSDProperties.SProperty.S_LOCKED.name()))) {
+                        Log.w(sTag, "copyObject: " + sourceName + " is locked by someone else");
+                        return null;
+                    }
+                    targetObject = (UntenCacheObject) createObject(target[1], target[0]);
+                    if (targetObject == null) {
+                        return null;
+                    }
+
+                    String sharedData = sourceObject.shareData();
+                    if (sharedData != null && targetObject.referSharedData(sharedData)) {
+                        return targetObject;
+                    }
+                    Log.e(sTag, "copyObject: cannot copy " + sourceName + " to " + targetName);
+                    targetObject.remove();
+                } catch (NullPointerException e) {
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    Log.e(sTag, "copyObject: cannot share " + sourceName + ", fault: " + e);
+                    targetObject.remove();
+                }
+                return null;
+            }
+        }
+
+        // the origin and name of an object name of the form "origin:/name" or "name"; null if it is malformed
+        private String[] splitName(String name, String callingOrigin) {
+            if (name == null) {
+                return null;
+            }
+            String elements[] = name.split(":/");
+            if (elements.length == 2) {
+                return elements;
+            } else if (elements.length == 1) {
+                return new String[] { callingOrigin, elements[0] };
+            }
+            return null;
+        }
+
         @Override
         public String[] getPropertyKeys() throws RemoteException {
             ArrayList<String> arrayList = new ArrayList<String>();
@@ -496,6 +568,7 @@ public class UntenCacheService extends Service {
         private File mMetaFile = null;
         private FileLock mLock = null;
         private RandomAccessFile mAccessor = null;
+        private String mMode = null;
         private Properties mProperties = null;
 
         /**
@@ -559,6 +632,11 @@ public class UntenCacheService extends Service {
                     return;
                 }
                 mProperties.put(VSDProperties.SProperty.S_LOCKED.name(), "false");
+                String sharedData = mProperties.getProperty(SHARED_DATA_KEY);
+                if (sharedData != null) {
+                    Integer count = sSharedData.get(sharedData);
+                    sSharedData.put(sharedData, count == null ? 1 : count + 1);
+                }
                 String _origin = mProperties.getProperty(VSDProperties.SProperty.S_ORIGIN.name());
                 if (_origin == null) {
                     mProperties.put(VSDProperties.SProperty.S_ORIGIN.name(), origin);
@@ -580,6 +658,92 @@ public class UntenCacheService extends Service {
         private boolean isValidObject() {
             return (mDataFile != null && mMetaFile != null && mProperties != null);
         }
+
+        // the data of the object: its own data file, or the one it shares with other objects
+        private File getDataFile() {
+            String sharedData = mProperties.getProperty(SHARED_DATA_KEY);
+            return sharedData == null ? mDataFile : new File(sRoot, sharedData);
+        }
+
+        // moves the data of the object to SHARED_FOLDER, unless it is shared already, and returns its name there;
+        // the data file of the object stays behind empty, so that the object is still found by doLoadObjects
+        private String shareData() throws IOException {
+            synchronized (sObjects) {
+                String sharedData = mProperties.getProperty(SHARED_DATA_KEY);
+                if (sharedData != null) {
+                    return sharedData;
+                }
+
+                File sharedFolder = new File(sRoot, SHARED_FOLDER);
+                if (!sharedFolder.exists() && !sharedFolder.mkdirs()) {
+                    return null;
+                }
+                File sharedFile = File.createTempFile("data", ".data", sharedFolder);
+                if (!sharedFile.delete() || !mDataFile.renameTo(sharedFile)) {
+                    return null;
+                }
+                mDataFile.createNewFile();
+
+                sharedData = SHARED_FOLDER + "/" + sharedFile.getName();
+                mProperties.put(SHARED_DATA_KEY, sharedData);
+                doSaveProperties(mMetaFile, mProperties);
+                sSharedData.put(sharedData, 1);
+                return sharedData;
+            }
+        }
+
+        private boolean referSharedData(String sharedData) {
+            synchronized (sObjects) {
+                mProperties.put(SHARED_DATA_KEY, sharedData);
+                if (!doSaveProperties(mMetaFile, mProperties)) {
+                    mProperties.remove(SHARED_DATA_KEY);
+                    return false;
+                }
+                Integer count = sSharedData.get(sharedData);
+                sSharedData.put(sharedData, count == null ? 1 : count + 1);
+                return true;
+            }
+        }
+
+        // gives the object a data file of its own before it is written: the last object sharing the data takes
+        // the shared data file over, any other gets a copy of it
+        private boolean unshareData() {
+            synchronized (sObjects) {
+                String sharedData = mProperties.getProperty(SHARED_DATA_KEY);
+                if (sharedData == null) {
+                    return true;
+                }
+
+                File sharedFile = new File(sRoot, sharedData);
+                Integer count = sSharedData.get(sharedData);
+                boolean owned = (count == null || count <= 1) && mDataFile.delete() && sharedFile.renameTo(mDataFile);
+                if (!owned) {
+                    FileInputStream fis = null;
+                    try {
+                        fis = new FileInputStream(sharedFile);
+                        owned = doCopyData(fis.getChannel(), mDataFile);
+                    } catch (FileNotFoundException e) {
+                        Log.e(sTag, "unshareData: shared data file not found");
+                    } finally {
+                        try {
+                            if (fis != null) {
+                                fis.close();
+                            }
+                        } catch (IOException e) {
+                            Log.e(sTag, "unshareData: shared data file close failed, fault: " + e);
+                        }
+                    }
+                }
+                if (!owned) {
+                    return false;
+                }
+
+                mProperties.remove(SHARED_DATA_KEY);
+                doSaveProperties(mMetaFile, mProperties);
+                releaseSharedData(sharedData);
+                return true;
+            }
+        }
         
         /*
          * (non-Javadoc)
@@ -589,8 +753,8 @@ public class UntenCacheService extends Service {
         public Property[] properties() throws RemoteException {
             try {
                 synchronized (mProperties) {
-                    Property[] propertyArray = new Property[mProperties.size()];
                     String[] keys = getPropertyKeys();
+                    Property[] propertyArray = new Property[keys.length];
                     for (int i = 0; i < keys.length; i++) {
                         propertyArray[i] = new Property(keys[i], mProperties.getProperty(keys[i]));
                     }
@@ -616,7 +780,13 @@ public class UntenCacheService extends Service {
         public String[] getPropertyKeys() throws RemoteException {
             try {
                 synchronized (mProperties) {
-                    return mProperties.keySet().toArray(EMPTY_STRINGS);
+                    ArrayList<String> keys = new ArrayList<String>();
+                    for (Object key : mProperties.keySet()) {
+                        if (!SHARED_DATA_KEY.equals(key)) {
+                            keys.add((String) key);
+                        }
+                    }
+                    return keys.toArray(EMPTY_STRINGS);
                 }
             } catch (NullPointerException e) {
                 Log.e(sTag, "propertyKeys: invalid object");
@@ -632,7 +802,9 @@ public class UntenCacheService extends Service {
         public String getProperty(String key) throws RemoteException {
             try {
                 synchronized (mProperties) {
-                    if (key.equals(VSDProperties.OptionalProperty.S_REDOWNLOAD_URI.name())) {
+                    if (key.equals(SHARED_DATA_KEY)) {
+                        return null;
+                    } else if (key.equals(VSDProperties.OptionalProperty.S_REDOWNLOAD_URI.name())) {
                         if (!mProperties.containsKey(VSDProperties.OptionalProperty.S_REDOWNLOAD_URI.name()))
                             return mProperties.getProperty(VSDProperties.SProperty.S_SOURCEURI.name());
                     }
@@ -659,6 +831,8 @@ public class UntenCacheService extends Service {
                     return HqmeError.ERR_PERMISSION_DENIED.getCode();
                 } else if (key.equals(VSDProperties.SProperty.S_ORIGIN.name())) {
                     return HqmeError.ERR_PERMISSION_DENIED.getCode();
+                } else if (key.equals(SHARED_DATA_KEY)) {
+                    return HqmeError.ERR_PERMISSION_DENIED.getCode();
                 } 
                 
                 synchronized (mProperties) {
@@ -690,6 +864,8 @@ public class UntenCacheService extends Service {
                     return HqmeError.ERR_PERMISSION_DENIED.getCode();
                 } else if (key.equals(VSDProperties.SProperty.S_ORIGIN.name())) {
                     return HqmeError.ERR_PERMISSION_DENIED.getCode();
+                } else if (key.equals(SHARED_DATA_KEY)) {
+                    return HqmeError.ERR_PERMISSION_DENIED.getCode();
                 } 
                 
                 synchronized (mProperties) {
@@ -718,9 +894,10 @@ public class UntenCacheService extends Service {
                 if (!isGranted()) {
                     return HqmeError.ERR_PERMISSION_DENIED.getCode();
                 }
-                long size = mDataFile.length();
+                File dataFile = getDataFile();
+                long size = dataFile.length();
                 if (size == 0) {
-                    if (!mDataFile.exists()) {
+                    if (!dataFile.exists()) {
                         return HqmeError.ERR_NOT_FOUND.getCode();
                     }
                 }
@@ -772,7 +949,7 @@ public class UntenCacheService extends Service {
                 if (origin == VSDProperties.SEEK_ORIGIN.SEEK_CUR.ordinal()) {
                     position += mAccessor.getFilePointer(); // offset by current position
                 } else if (origin == VSDProperties.SEEK_ORIGIN.SEEK_END.ordinal()) {
-                    position += mDataFile.length(); // offset by file size
+                    position += getDataFile().length(); // offset by file size
                 }
                 mAccessor.seek(position);
                 return position;
@@ -794,27 +971,34 @@ public class UntenCacheService extends Service {
                 if (!isGranted()) {
                     return HqmeError.ERR_PERMISSION_DENIED.getCode();
                 }
-                if (mAccessor == null) {
-                    mAccessor = new RandomAccessFile(mDataFile, mode);
-                    if (mode == null) {
-                        return HqmeError.ERR_INVALID_ARGUMENT.getCode();
-                    } else if (mProperties.get(VSDProperties.SProperty.S_LOCKED.name()).equals("true")) {
-                        return HqmeError.ERR_PERMISSION_DENIED.getCode();
-                    }
+                // under the lock copyObject shares data under, so that no data is shared while it is written
+                synchronized (sObjects) {
+                    if (mAccessor == null) {
+                        if (mode != null && mode.startsWith("rw") && !unshareData()) {
+                            return HqmeError.ERR_IO.getCode();
+                        }
+                        mAccessor = new RandomAccessFile(getDataFile(), mode);
+                        mMode = mode;
+                        if (mode == null) {
+                            return HqmeError.ERR_INVALID_ARGUMENT.getCode();
+                        } else if (mProperties.get(VSDProperties.SProperty.S_LOCKED.name()).equals("true")) {
+                            return HqmeError.ERR_PERMISSION_DENIED.getCode();
+                        }
                     
-                    if (lock) {
-                        FileChannel channel = mAccessor.getChannel();
-                        try {
-                            mLock = channel.tryLock();
-                            if (mLock != null && mLock.isValid()) {
-                                mProperties.put(VSDProperties.SProperty.S_LOCKED.name(), "true");
+                        if (lock) {
+                            FileChannel channel = mAccessor.getChannel();
+                            try {
+                                mLock = channel.tryLock();
+                                if (mLock != null && mLock.isValid()) {
+                                    mProperties.put(VSDProperties.SProperty.S_LOCKED.name(), "true");
+                                }
+                            } catch (OverlappingFileLockException e) {
+                                Log.w(sTag, "open: Already locked by someone else");
+                                return HqmeError.ERR_IO.getCode();
+                            } catch (NonWritableChannelException e) {
+                                Log.w(sTag, "open: Cannot acquire lock for read only files. mode: " + mode + " lock: " + lock);
+                                return HqmeError.ERR_GENERAL.getCode();
                             }
-                        } catch (OverlappingFileLockException e) {
-                            Log.w(sTag, "open: Already locked by someone else");
-                            return HqmeError.ERR_IO.getCode();
-                        } catch (NonWritableChannelException e) {
-                            Log.w(sTag, "open: Cannot acquire lock for read only files. mode: " + mode + " lock: " + lock);
-                            return HqmeError.ERR_GENERAL.getCode();
                         }
                     }
                 }
@@ -856,6 +1040,7 @@ public class UntenCacheService extends Service {
                     }
                     mAccessor.close();
                     mAccessor = null;
+                    mMode = null;
                 }
                 return HqmeError.STATUS_SUCCESS.getCode();
             } catch (NullPointerException e) {
@@ -878,6 +1063,10 @@ public class UntenCacheService extends Service {
                 
                 close(); // prevents resource leaks
                 
+                String sharedData = mProperties.getProperty(SHARED_DATA_KEY);
+                if (sharedData != null) {
+                    releaseSharedData(sharedData);
+                }
                 boolean res = true;
                 if (mDataFile.exists()) {
                     res = mDataFile.delete();
@@ -977,6 +1166,29 @@ public class UntenCacheService extends Service {
             }
         }
 
+        /*
+         * (non-Javadoc)
+         * @see com.hqme.cm.IContentObject#getFileDescriptor()
+         */
+        @Override
+        public ParcelFileDescriptor getFileDescriptor() throws RemoteException {
+            try {
+                if (!isGranted() || mAccessor == null) {
+                    return null;
+                }
+                
+                // the descriptor may write only if the object was opened for writing
+                int mode = mMode.startsWith("rw") ? ParcelFileDescriptor.MODE_READ_WRITE
+                        : ParcelFileDescriptor.MODE_READ_ONLY;
+                return ParcelFileDescriptor.open(getDataFile(), mode);
+            } catch (NullPointerException e) {
+                return null;
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
         /*
          * (non-Javadoc)
          * @see com.hqme.cm.IContentObject#getStreamingUri()
@@ -984,7 +1196,8 @@ public class UntenCacheService extends Service {
         @Override
         public String getStreamingUri() throws RemoteException {
             try {
-                if (!mDataFile.exists() || !mDataFile.isFile() || !isGranted()) {
+                File dataFile = getDataFile();
+                if (!dataFile.exists() || !dataFile.isFile() || !isGranted()) {
                     return null;
                 } else {
                     //String uri = "file://" + mDataFile.getAbsolutePath();
@@ -1023,6 +1236,19 @@ public class UntenCacheService extends Service {
         }
     }
     
+    // one object less shares the data file; the last one to go deletes it
+    private static void releaseSharedData(String sharedData) {
+        synchronized (sObjects) {
+            Integer count = sSharedData.get(sharedData);
+            if (count != null && count > 1) {
+                sSharedData.put(sharedData, count - 1);
+            } else {
+                sSharedData.remove(sharedData);
+                new File(sRoot, sharedData).delete();
+            }
+        }
+    }
+
     private static final String normalize(String path) {
         String _path = path.toLowerCase();
         if (_path.startsWith("/")) {
@@ -1126,6 +1352,7 @@ public class UntenCacheService extends Service {
         sProperties.clear();
         sObjects.clear();
         sObjectProperties.clear();
+        sSharedData.clear();
         sLoaded = false;
     }
     
@@ -1179,7 +1406,7 @@ public class UntenCacheService extends Service {
         if (dir.isDirectory()) {
             FilenameFilter filter = new FilenameFilter() {
                 public boolean accept(File dir, String name) {
-                    return !name.endsWith(".meta");
+                    return !name.endsWith(".meta") && !name.equals(SHARED_FOLDER);
                 }
             };
             String[] children = dir.list(filter);
@@ -1250,6 +1477,40 @@ public class UntenCacheService extends Service {
         return false;
     }
     
+    private static boolean doCopyData(FileChannel source, File targetFile) {
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(targetFile);
+            FileChannel target = fos.getChannel();
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = source.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            target.force(true);
+            return position == size;
+        } catch (FileNotFoundException e) {
+            Log.e(sTag, "doCopyData: data file not found");
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(sTag, "doCopyData: data file copy failed, fault: " + e);
+        } finally {
+            try {
+                if (fos != null) {
+                    fos.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                Log.e(sTag, "doCopyData: data file close failed, fault: " + e);
+            }
+        }
+        return false;
+    }
+    
     public IBinder onBind(Intent intent) {
 //        if (IVSD.class.getName().equals(intent.getAction())) {
 //            return sUntenCacheProxy;
@@ -44,6 +44,7 @@ public enum HqmeError
     ERR_INVALID_POLICY       		(-13, "This error is encountered when one or more rules comprising the Policy was not recognized or a property value could not be parsed properly."),
     ERR_INVALID_PROPERTY     		(-14, "This error is encountered when a property key is not recognized or property value could not be parsed properly."),
     ERR_GENERAL             		(-15, "An unidentified error occurred when attempting to execute the method.  This could be a database error, out of memory condition, or other general system failure."),
+    ERR_QUOTA_EXCEEDED       		(-16, "The QueueRequest was not accepted because the calling application already has the maximum number of QueueRequests, or of bytes to download, in the request queue."),
     
     ERR_UNKNOWN                     (-1234567890, "This error code is undefined.");
 
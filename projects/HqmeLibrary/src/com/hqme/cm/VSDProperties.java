@@ -51,6 +51,8 @@ public class VSDProperties {
         S_CONTENTPROFILE,			// String
         S_RIGHTSCHECK,              // Boolean
         S_VALIDITYCHECK,            // Boolean
+        S_ENTITY_TAG,               // String, validator of the fetched content
+        S_LAST_MODIFIED,            // Date, validator of the fetched content
     };
 
     public static enum SEEK_ORIGIN {
@@ -0,0 +1,211 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import com.hqme.cm.util.CmClientUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Bounded ring of reusable buffers between a reader thread, which fills them from an input stream,
+ * and the thread that drains them, so that waiting for the network and waiting for storage overlap.
+ *
+ * The ring starts with two buffers. It grows, up to MAX_BUFFERS, to hold as much data as the
+ * network delivers during one storage write, as measured by the reader and by the time the
+ * drainer reports for each buffer. A buffer returned while the ring is larger than needed is
+ * dropped.
+ *
+ * The reader pays for what it has read with tokens from the bucket, if one is given, so that
+ * reading is paced to its rate.
+ */
+class BufferRing {
+    // ==================================================================================================================================
+    private static final int MIN_BUFFERS = 2;
+
+    private static final int MAX_BUFFERS = 8;
+
+    // weight of the newest sample in the moving averages, in 1/8ths
+    private static final int SAMPLE_WEIGHT = 2;
+
+    static class Chunk {
+        final byte[] mBuffer;
+
+        int mCount;
+
+        private Chunk(int bufferSize) {
+            mBuffer = new byte[bufferSize];
+        }
+    }
+
+    // marks the end of the stream in the queue of filled chunks
+    private static final Chunk END_OF_STREAM = new Chunk(0);
+
+    private final InputStream mSource;
+
+    private final int mBufferSize;
+
+    private final TokenBucket mThrottle;
+
+    private final LinkedBlockingQueue<Chunk> mFreeChunks = new LinkedBlockingQueue<Chunk>();
+
+    private final LinkedBlockingQueue<Chunk> mFilledChunks = new LinkedBlockingQueue<Chunk>();
+
+    private final Thread mReader;
+
+    private volatile boolean mClosed = false;
+
+    private volatile Throwable mFault = null;
+
+    private int mAllocatedChunks = 0;
+
+    private int mTargetChunks = MIN_BUFFERS;
+
+    // moving averages of the network rate, in bytes per millisecond, and of the time to write one chunk
+    private double mReadRate = 0.0;
+
+    private double mWriteMillis = 0.0;
+
+    BufferRing(InputStream source, int bufferSize, String name, TokenBucket throttle) {
+        mSource = source;
+        mBufferSize = bufferSize;
+        mThrottle = throttle;
+        mReader = new Thread(new Runnable() {
+            public void run() {
+                fill();
+            }
+        }, name);
+        mReader.setDaemon(true);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void start() {
+        mReader.start();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the next filled chunk, waiting for the reader if necessary; null at the end of the stream.
+    // A failure of the reader is thrown here.
+    //
+    public Chunk take() throws IOException, InterruptedException {
+        Chunk chunk = mFilledChunks.take();
+        if (chunk == END_OF_STREAM) {
+            mFilledChunks.put(END_OF_STREAM); // later calls see the end of the stream as well
+            if (mFault instanceof IOException)
+                throw (IOException) mFault;
+            if (mFault != null)
+                throw new IOException(mFault.toString());
+            return null;
+        }
+        return chunk;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // hand a drained chunk back to the reader, with the time it took to write it out
+    //
+    public void recycle(Chunk chunk, long writeMillis) {
+        synchronized (this) {
+            mWriteMillis = average(mWriteMillis, writeMillis);
+            mTargetChunks = targetChunks();
+            if (mAllocatedChunks > mTargetChunks) {
+                mAllocatedChunks--;
+                return;
+            }
+        }
+        mFreeChunks.offer(chunk);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // stop the reader; it leaves a blocking read once the underlying stream is closed
+    //
+    public void close() {
+        mClosed = true;
+        mReader.interrupt();
+    }
+
+    // ==================================================================================================================================
+    private void fill() {
+        final String tag_LogLocal = "fill";
+        try {
+            while (!mClosed) {
+                Chunk chunk = obtainChunk();
+
+                long started = System.currentTimeMillis();
+                int count = mSource.read(chunk.mBuffer, 0, chunk.mBuffer.length);
+                if (count <= 0)
+                    break;
+
+                synchronized (this) {
+                    long elapsed = Math.max(1, System.currentTimeMillis() - started);
+                    mReadRate = average(mReadRate, (double) count / elapsed);
+                }
+
+                chunk.mCount = count;
+                mFilledChunks.put(chunk);
+
+                if (mThrottle != null)
+                    mThrottle.acquire(count);
+            }
+        } catch (InterruptedException fault) {
+            // closed
+        } catch (Throwable fault) {
+            if (!mClosed) {
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+                mFault = fault;
+            }
+        } finally {
+            mFilledChunks.offer(END_OF_STREAM);
+        }
+    }
+
+    private Chunk obtainChunk() throws InterruptedException {
+        Chunk chunk = mFreeChunks.poll();
+        if (chunk != null)
+            return chunk;
+
+        synchronized (this) {
+            if (mAllocatedChunks < mTargetChunks)
+                try {
+                    chunk = new Chunk(mBufferSize);
+                    mAllocatedChunks++;
+                    return chunk;
+                } catch (OutOfMemoryError fault) {
+                    // make do with the buffers there are
+                    mTargetChunks = Math.max(1, mAllocatedChunks);
+                    if (mAllocatedChunks == 0)
+                        throw fault;
+                }
+        }
+        return mFreeChunks.take();
+    }
+
+    // enough chunks to take in what the network delivers while one chunk is written, plus the one being written
+    private int targetChunks() {
+        double inFlight = mReadRate * mWriteMillis / mBufferSize;
+        return Math.max(MIN_BUFFERS, Math.min(MAX_BUFFERS, 1 + (int) Math.ceil(inFlight)));
+    }
+
+    private static double average(double average, double sample) {
+        return average == 0.0 ? sample : (average * (8 - SAMPLE_WEIGHT) + sample * SAMPLE_WEIGHT) / 8;
+    }
+}
@@ -0,0 +1,43 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * ChannelProtocolHandler is implemented by protocol handlers that can expose the body of a started
+ * transfer as a channel, so the caller can hand it to FileChannel.transferFrom instead of reading
+ * it chunk by chunk. This saves the caller its own buffers and reader thread; it is not a
+ * zero-copy path. Unless the returned channel is backed by the socket itself, the platform still
+ * copies the content through a buffer of its own.
+ *
+ */
+public interface ChannelProtocolHandler extends ProtocolHandler {
+
+    /** Returns the remaining content of the started transfer as a blocking channel.
+     * 
+     * Reading from the channel and calling readData on the same transfer must not be mixed.
+     * 
+     * @return the channel, or null if the transfer has not been started.
+     * @throws ProtocolException  Thrown if the channel cannot be obtained.
+     */
+    public ReadableByteChannel getContentChannel() throws ProtocolException;
+}
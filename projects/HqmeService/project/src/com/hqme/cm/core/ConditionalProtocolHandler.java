@@ -0,0 +1,60 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import java.util.Date;
+
+/**
+ * ConditionalProtocolHandler is implemented by protocol handlers that can make a transfer conditional
+ * on the content having changed since a previous fetch. It allows a content object to be revalidated
+ * instead of being downloaded again.
+ *
+ */
+public interface ConditionalProtocolHandler extends ProtocolHandler {
+
+    /** Returned by the conditional startTransfer when the content has not changed; no content is transferred. */
+    public static final int TRANSFER_NOT_MODIFIED = 1;
+
+    /** Starts transfer of the whole content only if it no longer matches the validators of a previous fetch.
+     * 
+     * @param entityTag the entity tag of the previous fetch, or null if there is none.
+     * @param modifiedSince the modification date of the previous fetch, or null if there is none.
+     * @return 0 if the transfer was started, TRANSFER_NOT_MODIFIED if the content has not changed.
+     * @throws ProtocolException  Thrown if an unrecoverable error occurs.
+     */
+    public int startTransfer(String entityTag, Date modifiedSince) throws ProtocolException;
+
+    /** Asks for the response headers of the whole, unencoded content without transferring it. The validators 
+     * and the content length are then those reported for the content; no content can be read.
+     * 
+     * @return 0 on success.
+     * @throws ProtocolException  Thrown if an unrecoverable error occurs.
+     */
+    public int queryHeaders() throws ProtocolException;
+
+    /** Returns the entity tag of the content, as reported when the transfer was started.
+     * 
+     * @return the entity tag, or null if the remote party did not report one.
+     * @throws ProtocolException
+     */
+    public String getEntityTag() throws ProtocolException;
+}
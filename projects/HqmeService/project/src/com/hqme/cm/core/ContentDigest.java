@@ -0,0 +1,469 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+/**
+ * Incremental digest of downloaded content whose running state can be saved and restored.
+ *
+ * The platform MessageDigest cannot export its state, so a download resumed after the service
+ * was restarted would have to read back what it had already written. These implementations of
+ * MD5, SHA-1, SHA-256 and CRC32C keep their state in a few words that are stored with the
+ * progress of the package, as "ALGORITHM:length:words:pending" in hexadecimal.
+ *
+ * An expected value is written as "ALGORITHM:digest", e.g. "SHA-256:9f86d0...".
+ */
+abstract class ContentDigest {
+    // ==================================================================================================================================
+    static final String MD5 = "MD5";
+
+    static final String SHA_1 = "SHA-1";
+
+    static final String SHA_256 = "SHA-256";
+
+    static final String CRC32C = "CRC32C";
+
+    private final String mAlgorithm;
+
+    // the number of bytes hashed so far
+    protected long mLength = 0;
+
+    protected ContentDigest(String algorithm) {
+        mAlgorithm = algorithm;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // a new digest for the algorithm, or null if it is not supported
+    //
+    static ContentDigest getInstance(String algorithm) {
+        if (MD5.equalsIgnoreCase(algorithm))
+            return new Md5();
+        if (SHA_1.equalsIgnoreCase(algorithm))
+            return new Sha1();
+        if (SHA_256.equalsIgnoreCase(algorithm))
+            return new Sha256();
+        if (CRC32C.equalsIgnoreCase(algorithm))
+            return new Crc32c();
+        return null;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // a new digest for the algorithm of the expected value, or null if it names no supported algorithm
+    //
+    static ContentDigest forExpectedValue(String expectedValue) {
+        int separator = expectedValue == null ? -1 : expectedValue.indexOf(':');
+        return separator <= 0 ? null : getInstance(expectedValue.substring(0, separator).trim());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the digest as saved by getState, or null if the state cannot be read
+    //
+    static ContentDigest fromState(String state) {
+        try {
+            String[] parts = state.split(":", -1);
+            if (parts.length != 4)
+                return null;
+
+            ContentDigest digest = getInstance(parts[0]);
+            if (digest == null || !digest.setState(Long.parseLong(parts[1], 16), parts[2], fromHex(parts[3])))
+                return null;
+            return digest;
+        } catch (Exception fault) {
+            return null;
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public String getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public void update(byte[] buffer, int offset, int count) {
+        mLength += count;
+        engineUpdate(buffer, offset, count);
+    }
+
+    // the digest of the bytes hashed so far; hashing may continue afterwards
+    public abstract byte[] digest();
+
+    public String getState() {
+        return mAlgorithm + ":" + Long.toHexString(mLength) + ":" + getWords() + ":" + toHex(getPending());
+    }
+
+    // true if the digest of the bytes hashed so far is the expected value
+    public boolean matches(String expectedValue) {
+        int separator = expectedValue.indexOf(':');
+        return separator > 0 && mAlgorithm.equalsIgnoreCase(expectedValue.substring(0, separator).trim())
+                && toHex(digest()).equalsIgnoreCase(expectedValue.substring(separator + 1).trim());
+    }
+
+    protected abstract void engineUpdate(byte[] buffer, int offset, int count);
+
+    protected abstract String getWords();
+
+    protected abstract byte[] getPending();
+
+    protected abstract boolean setState(long length, String words, byte[] pending);
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >>> 4) & 0x0f, 16)).append(Character.forDigit(b & 0x0f, 16));
+        return hex.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+
+    // ==================================================================================================================================
+    // Merkle-Damgard hashes over 64 byte blocks
+    //
+    private static abstract class BlockDigest extends ContentDigest {
+        protected final int[] mWords;
+
+        private final boolean mLittleEndian;
+
+        private byte[] mBlock = new byte[64];
+
+        private int mBlockCount = 0;
+
+        protected BlockDigest(String algorithm, int[] initialWords, boolean littleEndian) {
+            super(algorithm);
+            mWords = initialWords.clone();
+            mLittleEndian = littleEndian;
+        }
+
+        protected abstract void compress(byte[] block);
+
+        @Override
+        protected void engineUpdate(byte[] buffer, int offset, int count) {
+            while (count > 0) {
+                int n = Math.min(count, 64 - mBlockCount);
+                System.arraycopy(buffer, offset, mBlock, mBlockCount, n);
+                mBlockCount += n;
+                offset += n;
+                count -= n;
+                if (mBlockCount == 64) {
+                    compress(mBlock);
+                    mBlockCount = 0;
+                }
+            }
+        }
+
+        @Override
+        public byte[] digest() {
+            int[] words = mWords.clone();
+            byte[] block = mBlock.clone();
+            int blockCount = mBlockCount;
+            long length = mLength;
+
+            // padding: a one bit, zeros, then the length in bits
+            byte[] padding = new byte[(blockCount < 56 ? 56 : 120) - blockCount + 8];
+            padding[0] = (byte) 0x80;
+            long bits = length << 3;
+            for (int i = 0; i < 8; i++)
+                padding[padding.length - 8 + i] = (byte) (mLittleEndian ? bits >>> (8 * i) : bits >>> (56 - 8 * i));
+            engineUpdate(padding, 0, padding.length);
+
+            byte[] result = new byte[mWords.length * 4];
+            for (int i = 0; i < result.length; i++)
+                result[i] = (byte) (mLittleEndian ? mWords[i / 4] >>> (8 * (i % 4)) : mWords[i / 4] >>> (24 - 8 * (i % 4)));
+
+            System.arraycopy(words, 0, mWords, 0, words.length);
+            mBlock = block;
+            mBlockCount = blockCount;
+            return result;
+        }
+
+        protected int getWord(byte[] block, int i) {
+            return mLittleEndian
+                    ? (block[4 * i] & 0xff) | (block[4 * i + 1] & 0xff) << 8 | (block[4 * i + 2] & 0xff) << 16 | block[4 * i + 3] << 24
+                    : block[4 * i] << 24 | (block[4 * i + 1] & 0xff) << 16 | (block[4 * i + 2] & 0xff) << 8 | (block[4 * i + 3] & 0xff);
+        }
+
+        @Override
+        protected String getWords() {
+            StringBuilder words = new StringBuilder();
+            for (int word : mWords)
+                words.append(String.format("%08x", word));
+            return words.toString();
+        }
+
+        @Override
+        protected byte[] getPending() {
+            byte[] pending = new byte[mBlockCount];
+            System.arraycopy(mBlock, 0, pending, 0, mBlockCount);
+            return pending;
+        }
+
+        @Override
+        protected boolean setState(long length, String words, byte[] pending) {
+            if (words.length() != mWords.length * 8 || pending.length != (int) (length % 64))
+                return false;
+            for (int i = 0; i < mWords.length; i++)
+                mWords[i] = (int) Long.parseLong(words.substring(8 * i, 8 * i + 8), 16);
+            System.arraycopy(pending, 0, mBlock, 0, pending.length);
+            mBlockCount = pending.length;
+            mLength = length;
+            return true;
+        }
+    }
+
+    // ==================================================================================================================================
+    private static final class Md5 extends BlockDigest {
+        private static final int[] K = {
+            0xd76aa478, 0xe8c7b756, 0x242070db, 0xc1bdceee, 0xf57c0faf, 0x4787c62a, 0xa8304613, 0xfd469501,
+            0x698098d8, 0x8b44f7af, 0xffff5bb1, 0x895cd7be, 0x6b901122, 0xfd987193, 0xa679438e, 0x49b40821,
+            0xf61e2562, 0xc040b340, 0x265e5a51, 0xe9b6c7aa, 0xd62f105d, 0x02441453, 0xd8a1e681, 0xe7d3fbc8,
+            0x21e1cde6, 0xc33707d6, 0xf4d50d87, 0x455a14ed, 0xa9e3e905, 0xfcefa3f8, 0x676f02d9, 0x8d2a4c8a,
+            0xfffa3942, 0x8771f681, 0x6d9d6122, 0xfde5380c, 0xa4beea44, 0x4bdecfa9, 0xf6bb4b60, 0xbebfbc70,
+            0x289b7ec6, 0xeaa127fa, 0xd4ef3085, 0x04881d05, 0xd9d4d039, 0xe6db99e5, 0x1fa27cf8, 0xc4ac5665,
+            0xf4292244, 0x432aff97, 0xab9423a7, 0xfc93a039, 0x655b59c3, 0x8f0ccc92, 0xffeff47d, 0x85845dd1,
+            0x6fa87e4f, 0xfe2ce6e0, 0xa3014314, 0x4e0811a1, 0xf7537e82, 0xbd3af235, 0x2ad7d2bb, 0xeb86d391
+        };
+
+        private static final int[] S = {
+            7, 12, 17, 22, 5, 9, 14, 20, 4, 11, 16, 23, 6, 10, 15, 21
+        };
+
+        private final int[] mBlockWords = new int[16];
+
+        Md5() {
+            super(MD5, new int[] {
+                0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476
+            }, true);
+        }
+
+        @Override
+        protected void compress(byte[] block) {
+            int[] m = mBlockWords;
+            for (int i = 0; i < 16; i++)
+                m[i] = getWord(block, i);
+
+            int a = mWords[0], b = mWords[1], c = mWords[2], d = mWords[3];
+            for (int i = 0; i < 64; i++) {
+                int f, g;
+                switch (i >> 4) {
+                    case 0:
+                        f = (b & c) | (~b & d);
+                        g = i;
+                        break;
+                    case 1:
+                        f = (d & b) | (~d & c);
+                        g = (5 * i + 1) & 15;
+                        break;
+                    case 2:
+                        f = b ^ c ^ d;
+                        g = (3 * i + 5) & 15;
+                        break;
+                    default:
+                        f = c ^ (b | ~d);
+                        g = (7 * i) & 15;
+                        break;
+                }
+                int temp = d;
+                d = c;
+                c = b;
+                b = b + Integer.rotateLeft(a + f + K[i] + m[g], S[((i >> 4) << 2) | (i & 3)]);
+                a = temp;
+            }
+            mWords[0] += a;
+            mWords[1] += b;
+            mWords[2] += c;
+            mWords[3] += d;
+        }
+    }
+
+    // ==================================================================================================================================
+    private static final class Sha1 extends BlockDigest {
+        private final int[] mSchedule = new int[80];
+
+        Sha1() {
+            super(SHA_1, new int[] {
+                0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476, 0xc3d2e1f0
+            }, false);
+        }
+
+        @Override
+        protected void compress(byte[] block) {
+            int[] w = mSchedule;
+            for (int t = 0; t < 16; t++)
+                w[t] = getWord(block, t);
+            for (int t = 16; t < 80; t++)
+                w[t] = Integer.rotateLeft(w[t - 3] ^ w[t - 8] ^ w[t - 14] ^ w[t - 16], 1);
+
+            int a = mWords[0], b = mWords[1], c = mWords[2], d = mWords[3], e = mWords[4];
+            for (int t = 0; t < 80; t++) {
+                int f, k;
+                if (t < 20) {
+                    f = (b & c) | (~b & d);
+                    k = 0x5a827999;
+                } else if (t < 40) {
+                    f = b ^ c ^ d;
+                    k = 0x6ed9eba1;
+                } else if (t < 60) {
+                    f = (b & c) | (b & d) | (c & d);
+                    k = 0x8f1bbcdc;
+                } else {
+                    f = b ^ c ^ d;
+                    k = 0xca62c1d6;
+                }
+                int temp = Integer.rotateLeft(a, 5) + f + e + k + w[t];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+            mWords[0] += a;
+            mWords[1] += b;
+            mWords[2] += c;
+            mWords[3] += d;
+            mWords[4] += e;
+        }
+    }
+
+    // ==================================================================================================================================
+    private static final class Sha256 extends BlockDigest {
+        private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+        };
+
+        private final int[] mSchedule = new int[64];
+
+        Sha256() {
+            super(SHA_256, new int[] {
+                0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+            }, false);
+        }
+
+        @Override
+        protected void compress(byte[] block) {
+            int[] w = mSchedule;
+            for (int t = 0; t < 16; t++)
+                w[t] = getWord(block, t);
+            for (int t = 16; t < 64; t++) {
+                int s0 = Integer.rotateRight(w[t - 15], 7) ^ Integer.rotateRight(w[t - 15], 18) ^ (w[t - 15] >>> 3);
+                int s1 = Integer.rotateRight(w[t - 2], 17) ^ Integer.rotateRight(w[t - 2], 19) ^ (w[t - 2] >>> 10);
+                w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+            }
+
+            int a = mWords[0], b = mWords[1], c = mWords[2], d = mWords[3];
+            int e = mWords[4], f = mWords[5], g = mWords[6], h = mWords[7];
+            for (int t = 0; t < 64; t++) {
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int temp1 = h + s1 + ch + K[t] + w[t];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                int temp2 = s0 + maj;
+                h = g;
+                g = f;
+                f = e;
+                e = d + temp1;
+                d = c;
+                c = b;
+                b = a;
+                a = temp1 + temp2;
+            }
+            mWords[0] += a;
+            mWords[1] += b;
+            mWords[2] += c;
+            mWords[3] += d;
+            mWords[4] += e;
+            mWords[5] += f;
+            mWords[6] += g;
+            mWords[7] += h;
+        }
+    }
+
+    // ==================================================================================================================================
+    // CRC-32C (Castagnoli), as used by iSCSI and SCTP
+    //
+    private static final class Crc32c extends ContentDigest {
+        private static final int[] TABLE = new int[256];
+        static {
+            for (int n = 0; n < 256; n++) {
+                int crc = n;
+                for (int k = 0; k < 8; k++)
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82f63b78 : crc >>> 1;
+                TABLE[n] = crc;
+            }
+        }
+
+        private int mCrc = 0xffffffff;
+
+        Crc32c() {
+            super(CRC32C);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] buffer, int offset, int count) {
+            int crc = mCrc;
+            for (int i = offset; i < offset + count; i++)
+                crc = TABLE[(crc ^ buffer[i]) & 0xff] ^ (crc >>> 8);
+            mCrc = crc;
+        }
+
+        @Override
+        public byte[] digest() {
+            int crc = ~mCrc;
+            return new byte[] {
+                (byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc
+            };
+        }
+
+        @Override
+        protected String getWords() {
+            return String.format("%08x", mCrc);
+        }
+
+        @Override
+        protected byte[] getPending() {
+            return new byte[0];
+        }
+
+        @Override
+        protected boolean setState(long length, String words, byte[] pending) {
+            if (words.length() != 8 || pending.length != 0)
+                return false;
+            mCrc = (int) Long.parseLong(words, 16);
+            mLength = length;
+            return true;
+        }
+    }
+}
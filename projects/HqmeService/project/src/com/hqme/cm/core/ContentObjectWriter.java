@@ -0,0 +1,291 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+import com.hqme.cm.HqmeError;
+import com.hqme.cm.IContentObject;
+import com.hqme.cm.util.CmClientUtil;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Writes downloaded data into an open content object at explicit offsets.
+ *
+ * When the VSD hands out a file descriptor for the data of the object, buffers are written
+ * straight to the file through a FileChannel, so a download costs no Binder transaction per
+ * chunk; otherwise every buffer goes through IContentObject.seek and write.
+ * Positional writes let several threads share one writer, as the segments of a segmented
+ * download do.
+ *
+ * A direct writer can also move data from a source channel into the file with
+ * FileChannel.transferFrom. The platform then does the copy, through its own buffer unless the
+ * source is a channel it can transfer from directly.
+ *
+ * How often written data is flushed to the storage device follows the Durability the writer is
+ * opened with. Without a file descriptor there is no way to flush, so such a writer always
+ * writes synchronously.
+ */
+class ContentObjectWriter {
+    // ==================================================================================================================================
+    private final IContentObject mTargetObject;
+
+    private Durability mDurability;
+
+    private ParcelFileDescriptor mDescriptor = null;
+
+    private FileChannel mChannel = null;
+
+    // bytes written since the last flush, and the time of that flush
+    private long mUnsyncedBytes = 0;
+
+    private long mLastSyncTime = System.currentTimeMillis();
+
+    // a failed flush may have dropped the data it was to flush, so no later flush can vouch for what was written
+    private volatile boolean mIsSyncFailed = false;
+
+    private ContentObjectWriter(IContentObject targetObject, Durability durability) {
+        mTargetObject = targetObject;
+        mDurability = durability;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // open and lock the content object for writing with the given durability; returns null if the VSD refuses
+    //
+    static ContentObjectWriter open(IContentObject targetObject, Durability durability) throws RemoteException {
+        final String tag_LogLocal = "open";
+
+        if (!open(targetObject, durability.getOpenMode()))
+            return null;
+
+        ContentObjectWriter writer = new ContentObjectWriter(targetObject, durability);
+        try {
+            // getFileDescriptor is the last method of IContentObject: a VSD built against an older version of the
+            // interface does not know its transaction code, which leaves the reply empty and the descriptor null
+            ParcelFileDescriptor descriptor = targetObject.getFileDescriptor();
+            if (descriptor != null) {
+                writer.mDescriptor = descriptor;
+                writer.mChannel = new FileOutputStream(descriptor.getFileDescriptor()).getChannel();
+            }
+        } catch (Exception fault) {
+            CmClientUtil.debugLog(ContentObjectWriter.class, tag_LogLocal, fault);
+        }
+
+        if (writer.mChannel == null && durability.mMode != Durability.Mode.SYNCHRONOUS) {
+            // nothing could flush the data later on, so have the VSD write it through
+            CmClientUtil.debugLog(ContentObjectWriter.class, tag_LogLocal,
+                    "No file descriptor; writing synchronously instead of %s", durability);
+            targetObject.close();
+            if (!open(targetObject, Durability.SYNCHRONOUS.getOpenMode()))
+                return null;
+            writer.mDurability = Durability.SYNCHRONOUS;
+        }
+        return writer;
+    }
+
+    private static boolean open(IContentObject targetObject, String mode) throws RemoteException {
+        int result = targetObject.open(mode, true);
+        if (result != HqmeError.STATUS_SUCCESS.getCode()) {
+            CmClientUtil.debugLog(ContentObjectWriter.class, "open",
+                    "Unable to open the content object (%s)", HqmeError.fromInt(result));
+            return false;
+        }
+        return true;
+    }
+
+    boolean isDirect() {
+        return mChannel != null;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // write count bytes of the buffer at the given offset of the content object; returns the number
+    // of bytes written, or a negative HqmeError code
+    //
+    int write(long position, byte[] buffer, int count) throws RemoteException {
+        if (mChannel != null)
+            try {
+                ByteBuffer source = ByteBuffer.wrap(buffer, 0, count);
+                while (source.hasRemaining())
+                    position += mChannel.write(source, position);
+                written(count);
+                return count;
+            } catch (IOException fault) {
+                CmClientUtil.debugLog(getClass(), "write", fault);
+                return HqmeError.ERR_IO.getCode();
+            }
+
+        // the offset of the content object is shared by all threads writing to it
+        synchronized (mTargetObject) {
+            if (mTargetObject.seek(position, 0) != position)
+                return HqmeError.ERR_IO.getCode();
+            return mTargetObject.write(buffer, count);
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // move at most count bytes from the source channel to the given offset of the content object; only
+    // for a direct writer. Returns the number of bytes moved, 0 at the end of the source, or a negative
+    // HqmeError code if the content object cannot be written. A fault reading the source is thrown, so
+    // that the caller can tell a failing host from a failing storage device
+    //
+    long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+        if (mChannel == null)
+            return HqmeError.ERR_NOT_SUPPORTED.getCode();
+
+        SourceChannel sourceChannel = new SourceChannel(source);
+        try {
+            long transferred = mChannel.transferFrom(sourceChannel, position, count);
+            if (transferred > 0)
+                written(transferred);
+            return transferred;
+        } catch (IOException fault) {
+            if (sourceChannel.mFault != null)
+                throw sourceChannel.mFault;
+            CmClientUtil.debugLog(getClass(), "transferFrom", fault);
+            return HqmeError.ERR_IO.getCode();
+        }
+    }
+
+    // keeps the fault of the source, which FileChannel.transferFrom does not tell apart from its own
+    private static class SourceChannel implements ReadableByteChannel {
+        private final ReadableByteChannel mSource;
+
+        private IOException mFault = null;
+
+        SourceChannel(ReadableByteChannel source) {
+            mSource = source;
+        }
+
+        public int read(ByteBuffer buffer) throws IOException {
+            try {
+                return mSource.read(buffer);
+            } catch (IOException fault) {
+                mFault = fault;
+                throw fault;
+            }
+        }
+
+        public boolean isOpen() {
+            return mSource.isOpen();
+        }
+
+        public void close() throws IOException {
+            mSource.close();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // flush the written data if the durability calls for it now; returns true if everything written
+    // before the call is on the storage device
+    //
+    boolean checkpoint() {
+        synchronized (this) {
+            if (mIsSyncFailed)
+                return false;
+            if (mUnsyncedBytes == 0)
+                return true;
+            if (mDurability.mMode != Durability.Mode.CHECKPOINT
+                    || mUnsyncedBytes < mDurability.mCheckpointBytes
+                    && System.currentTimeMillis() - mLastSyncTime < mDurability.mCheckpointMillis)
+                return false;
+        }
+        return sync();
+    }
+
+    // flush the written data to the storage device; returns false if it could not be flushed
+    boolean sync() {
+        long unsyncedBytes;
+        synchronized (this) {
+            unsyncedBytes = mUnsyncedBytes;
+        }
+        if (mIsSyncFailed)
+            return false;
+        if (unsyncedBytes == 0)
+            return true;
+
+        try {
+            mChannel.force(true);
+        } catch (IOException fault) {
+            mIsSyncFailed = true;
+            CmClientUtil.debugLog(getClass(), "sync", fault);
+            return false;
+        }
+
+        synchronized (this) {
+            // bytes written by other threads during the flush may or may not have been flushed with it
+            mUnsyncedBytes -= unsyncedBytes;
+            mLastSyncTime = System.currentTimeMillis();
+            return mUnsyncedBytes == 0;
+        }
+    }
+
+    // true once a flush has failed; nothing written since the writer was opened is then known to be stored
+    boolean isSyncFailed() {
+        return mIsSyncFailed;
+    }
+
+    private void written(long count) throws IOException {
+        if (mDurability.mMode == Durability.Mode.SYNCHRONOUS)
+            try {
+                mChannel.force(true);
+            } catch (IOException fault) {
+                mIsSyncFailed = true;
+                throw fault;
+            }
+        else
+            synchronized (this) {
+                mUnsyncedBytes += count;
+            }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // flush the written data, release the file descriptor, then close (and unlock) the content object;
+    // returns true if everything written is on the storage device
+    //
+    boolean close() {
+        final String tag_LogLocal = "close";
+
+        boolean synced = mDescriptor == null || sync();
+        if (mDescriptor != null)
+            try {
+                mDescriptor.close();
+            } catch (IOException fault) {
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+            } finally {
+                mDescriptor = null;
+                mChannel = null;
+            }
+
+        try {
+            mTargetObject.close();
+        } catch (RemoteException fault) {
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+        }
+        return synced;
+    }
+}
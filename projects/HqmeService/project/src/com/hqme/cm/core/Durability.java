@@ -0,0 +1,102 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import com.hqme.cm.util.CmNumber;
+
+/**
+ * How much of a download must have reached the storage device before its progress is recorded.
+ *
+ * SYNCHRONOUS writes every buffer through to the device, CHECKPOINT flushes the content object
+ * every so many bytes or seconds, and CLOSE flushes it only when the content object is closed.
+ * Progress beyond the last flush is not recorded, so a resumed download restarts from data that
+ * is known to be on the device.
+ *
+ * A request selects a level with REQPROP_DURABILITY, otherwise the VS_DURABILITY property of the
+ * VSD applies. The value is the name of the mode, for CHECKPOINT optionally followed by the
+ * interval in bytes and in seconds, e.g. "CHECKPOINT 4194304 10".
+ */
+class Durability {
+    // ==================================================================================================================================
+    static enum Mode {
+        SYNCHRONOUS, CHECKPOINT, CLOSE
+    };
+
+    static final String VS_DURABILITY = "VS_DURABILITY";
+
+    static final long DEFAULT_CHECKPOINT_BYTES = 8L * 1024 * 1024;
+
+    static final long DEFAULT_CHECKPOINT_SECONDS = 30;
+
+    static final Durability SYNCHRONOUS = new Durability(Mode.SYNCHRONOUS, 0, 0);
+
+    final Mode mMode;
+
+    final long mCheckpointBytes;
+
+    final long mCheckpointMillis;
+
+    private Durability(Mode mode, long checkpointBytes, long checkpointMillis) {
+        mMode = mode;
+        mCheckpointBytes = checkpointBytes;
+        mCheckpointMillis = checkpointMillis;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the durability described by the value, or null if it is empty or not understood
+    //
+    static Durability valueOf(String value) {
+        if (value == null || value.trim().length() == 0)
+            return null;
+
+        String[] parts = value.trim().split("\\s+");
+        Mode mode;
+        try {
+            mode = Mode.valueOf(parts[0].toUpperCase());
+        } catch (IllegalArgumentException fault) {
+            return null;
+        }
+
+        switch (mode) {
+            case SYNCHRONOUS:
+                return SYNCHRONOUS;
+            case CHECKPOINT:
+                long checkpointBytes = parts.length > 1 ? CmNumber.parseLong(parts[1], -1L) : DEFAULT_CHECKPOINT_BYTES;
+                long checkpointSeconds = parts.length > 2 ? CmNumber.parseLong(parts[2], -1L) : DEFAULT_CHECKPOINT_SECONDS;
+                if (checkpointBytes <= 0 || checkpointSeconds <= 0)
+                    return null;
+                return new Durability(mode, checkpointBytes, checkpointSeconds * 1000);
+            default:
+                return new Durability(mode, 0, 0);
+        }
+    }
+
+    // the RandomAccessFile mode in which the content object is opened
+    String getOpenMode() {
+        return mMode == Mode.SYNCHRONOUS ? "rws" : "rw";
+    }
+
+    @Override
+    public String toString() {
+        return mMode == Mode.CHECKPOINT ? mMode + " " + mCheckpointBytes + " " + mCheckpointMillis / 1000 : mMode.name();
+    }
+}
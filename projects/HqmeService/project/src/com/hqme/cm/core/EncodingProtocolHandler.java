@@ -0,0 +1,53 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+/**
+ * EncodingProtocolHandler is implemented by protocol handlers that may receive content in a compressed 
+ * encoding and decode it as it is read. The decoded bytes are what readData returns and what is stored; 
+ * the received bytes are what the transfer costs on the network.
+ *
+ */
+public interface EncodingProtocolHandler extends ProtocolHandler {
+
+    /** Tells if the content of the started transfer arrives in an encoding that is decoded as it is read. 
+     * The content length of an encoded transfer is unknown.
+     * 
+     * @return true if the content is decoded.
+     * @throws ProtocolException
+     */
+    public boolean isContentEncoded() throws ProtocolException;
+
+    /** Returns the number of bytes received so far for the started transfer, before decoding.
+     * 
+     * @return bytes received.
+     * @throws ProtocolException
+     */
+    public long getReceivedBytes() throws ProtocolException;
+
+    /** Sets whether the transfers started from now on may ask for the content in a compressed encoding.
+     * A transfer that has to report the content length, such as a probe of the headers, asks for it unencoded.
+     * 
+     * @param isAccepted false to request the content unencoded; true by default.
+     */
+    public void setContentEncodingAccepted(boolean isAccepted);
+}
@@ -20,6 +20,9 @@
 
 package com.hqme.cm.core;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -27,8 +30,10 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 
 import com.hqme.cm.QueueRequestState;
+import com.hqme.cm.util.CmClientUtil;
 
 import java.util.ArrayList;
+import java.util.List;
 
 final public class HQME {
     
@@ -145,12 +150,57 @@ final public class HQME {
             
         }
         
+        // insert the work orders and their packages in a single transaction; returns the new woids
+        // in the order of the work orders, or null if nothing was inserted
+        public static Long[] insert(Context context, List<com.hqme.cm.core.WorkOrder> wos)
+        {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+            int[] woOperations = new int[wos.size()];
+            
+            int i = 0;
+            for(com.hqme.cm.core.WorkOrder wo : wos)
+            {
+                woOperations[i++] = operations.size();
+                operations.add(ContentProviderOperation.newInsert(CONTENT_URI).withValues(
+                        values(wo.getQueueRequestState().name(), wo.getClientUid().getBytes(), wo.getExpiration(), wo.toString(), wo.getUserPermissions(), wo.getGroupPermissions(), wo.getWorldPermissions(), wo.getGroupPropString()))
+                        .build());
+                
+                //insert packages, referring to the woid of the work order inserted above
+                for(com.hqme.cm.core.Package pack : wo.getPackages())
+                {
+                    operations.add(ContentProviderOperation.newInsert(Package.CONTENT_URI).withValues(
+                            Package.values(pack.getSourceUri().toString(), pack.getSourceLocalPath(), -1, null, pack.toString()))
+                            .withValueBackReference(Package.WOID, woOperations[i - 1])
+                            .build());
+                }
+            }
+            
+            try {
+                ContentProviderResult[] results = context.getContentResolver().applyBatch(AUTHORITY, operations);
+                
+                Long[] woids = new Long[woOperations.length];
+                for (i = 0; i < woOperations.length; i++)
+                    woids[i] = ContentUris.parseId(results[woOperations[i]].uri);
+                return woids;
+            } catch (Exception fault) {
+                CmClientUtil.debugLog(HQME.class, "insert", fault);
+                return null;
+            }
+        }
+        
         public static Long insert(Context context, String queueRequestState, String uuid, long expiration, String data, int userpermissions, int grouppermissions, int worldpermissions, String group)
+        {
+            Uri uri = context.getContentResolver().insert(CONTENT_URI, values(queueRequestState, uuid.getBytes(), expiration, data, userpermissions, grouppermissions, worldpermissions, group));
+            //will return the new woid
+            return new Long(uri.getPathSegments().get(1)).longValue();
+        }
+        
+        private static ContentValues values(String queueRequestState, byte[] uuid, long expiration, String data, int userpermissions, int grouppermissions, int worldpermissions, String group)
         {
             ContentValues values = new ContentValues();
             
             values.put(STATE, queueRequestState);
-            values.put(APP_UUID, uuid.getBytes());
+            values.put(APP_UUID, uuid);
             values.put(USERPERMISSIONS, userpermissions);
             values.put(GROUPPERMISSIONS, grouppermissions);
             values.put(WORLDPERMISSIONS, worldpermissions);
@@ -158,11 +208,7 @@ final public class HQME {
             values.put(EXPIRATION, expiration);
             values.put(DATA, data);
             
-            Uri uri = context.getContentResolver().insert(CONTENT_URI, values);
-            //will return the new woid
-            return new Long(uri.getPathSegments().get(1)).longValue();
-          
-           
+            return values;
         }
         
         public static int delete(Context context, Long id)
@@ -438,6 +484,10 @@ final public class HQME {
                 Package.update(context, woid, pack);
             }
             
+            // the record now holds the progress the journal kept for it
+            if (result > 0)
+                ProgressJournal.getInstance(context).commit(woid);
+            
             //TODO insert metadata
             
             return result;
@@ -496,21 +546,29 @@ final public class HQME {
         }
         
         public static Long insert(Context context, Long woid, String source_url, String name, int metadataid, byte[] permissions,String data)
+        {
+            ContentValues values = values(source_url, name, metadataid, permissions, data);
+            values.put(WOID, woid);
+            
+            Uri uri = context.getContentResolver().insert(CONTENT_URI, values);
+            
+            return new Long(uri.getPathSegments().get(1)).longValue();
+          
+           
+        }
+        
+        // the package columns other than the woid
+        static ContentValues values(String source_url, String name, int metadataid, byte[] permissions,String data)
         {
             ContentValues values = new ContentValues();
             
-            values.put(WOID, woid);
             values.put(SOURCE_URL, source_url);
             values.put(NAME, name);
             values.put(METADATAID, metadataid);
             values.put(PERMISSIONS, permissions);
             values.put(DATA, data);
             
-            Uri uri = context.getContentResolver().insert(CONTENT_URI, values);
-            
-            return new Long(uri.getPathSegments().get(1)).longValue();
-          
-           
+            return values;
         }
         
         public static int delete(Context context, Long id)
@@ -22,9 +22,12 @@ package com.hqme.cm.core;
 
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -396,9 +399,31 @@ private static final String TAG = "HQMEProvider";
         return count;
     }
     
-    private Long createWOID()
+    /* (non-Javadoc)
+     * @see android.content.ContentProvider#applyBatch(java.util.ArrayList)
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // all or nothing, and a single journal commit for the whole batch
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long sLastWOID = 0;
+
+    // the creation time in milliseconds, made unique for work orders inserted within the same millisecond
+    private static synchronized Long createWOID()
     {
-        return new Date().getTime();
+        sLastWOID = Math.max(new Date().getTime(), sLastWOID + 1);
+        return sLastWOID;
     }
     
    private Uri insertWO(Uri uri, ContentValues values) {
@@ -0,0 +1,184 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import com.hqme.cm.util.CmClientUtil;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Retry schedule of the hosts that packages are fetched from.
+ *
+ * Every consecutive failure of a host doubles its back-off, from BASE_BACKOFF_MILLIS up to
+ * MAX_BACKOFF_MILLIS, and the back-off is jittered so that the work orders waiting on a host do not
+ * all return at the same moment. After FAILURES_TO_OPEN consecutive failures the circuit of the host
+ * opens: once its back-off has passed, a single trial fetch is let through and the other work orders
+ * keep waiting until it succeeds, fails or TRIAL_MILLIS have passed. A success closes the circuit and
+ * clears the back-off. Hosts are keyed by scheme, host and port, as in MirrorSelector.
+ */
+class HostRetryScheduler {
+    // ==================================================================================================================================
+    private static final HostRetryScheduler sInstance = new HostRetryScheduler();
+
+    static final long BASE_BACKOFF_MILLIS = 15 * 1000;
+
+    static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+    static final int FAILURES_TO_OPEN = 4;
+
+    static final long TRIAL_MILLIS = 2 * 60 * 1000;
+
+    private static class Host {
+        int mFailures = 0;
+
+        long mRetryTime = 0;
+
+        long mTrialStarted = 0;
+
+        boolean isOpen() {
+            return mFailures >= FAILURES_TO_OPEN;
+        }
+
+        // the time from which the host may be tried again
+        long getRetryTime(long now) {
+            if (isOpen() && mTrialStarted > 0 && now - mTrialStarted < TRIAL_MILLIS)
+                return mTrialStarted + TRIAL_MILLIS;
+            return mRetryTime;
+        }
+    }
+
+    private final HashMap<String, Host> mHosts = new HashMap<String, Host>();
+
+    private final Random mJitter = new Random();
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public static HostRetryScheduler getInstance() {
+        return sInstance;
+    }
+
+    private static String getHostKey(String uri) {
+        try {
+            java.net.URI parsed = new java.net.URI(uri);
+            return (parsed.getScheme() + "://" + parsed.getHost() + ":" + parsed.getPort()).toLowerCase();
+        } catch (Exception fault) {
+            return uri;
+        }
+    }
+
+    // a failure that says the host is unreachable or overloaded, rather than that it refused the request
+    static boolean isHostFailure(Throwable fault) {
+        if (fault instanceof ProtocolException)
+            switch (((ProtocolException) fault).getError()) {
+                case ERR_UNKNOWN:
+                case ERR_HTTP_SERVICE_UNAVAILABLE:
+                    return true;
+                default:
+                    return false;
+            }
+        return fault instanceof IOException;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized void recordSuccess(String uri) {
+        Host host = mHosts.remove(getHostKey(uri));
+        if (host != null && host.isOpen())
+            CmClientUtil.debugLog(getClass(), "recordSuccess", "Circuit of %s closed", getHostKey(uri));
+    }
+
+    // the back-off grows with the consecutive failures and is jittered over its upper half
+    public void recordFailure(String uri) {
+        recordFailure(uri, System.currentTimeMillis());
+    }
+
+    synchronized void recordFailure(String uri, long now) {
+        String key = getHostKey(uri);
+        Host host = mHosts.get(key);
+        if (host == null) {
+            host = new Host();
+            mHosts.put(key, host);
+        }
+
+        host.mFailures++;
+        long backoff = BASE_BACKOFF_MILLIS << Math.min(host.mFailures - 1, 20);
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        backoff -= (long) (mJitter.nextDouble() * backoff / 2);
+
+        host.mRetryTime = now + backoff;
+        host.mTrialStarted = 0;
+
+        CmClientUtil.debugLog(getClass(), "recordFailure", "%s failed %d time(s)%s, retry in %d s", key,
+                host.mFailures, host.isOpen() ? ", circuit open" : "", backoff / 1000);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized long getRetryTime(String uri, long now) {
+        Host host = mHosts.get(getHostKey(uri));
+        if (host == null)
+            return -1;
+        long retryTime = host.getRetryTime(now);
+        return retryTime > now ? retryTime : -1;
+    }
+
+    // the earliest time at which one of the hosts may be tried again, or -1 if one of them may be tried now
+    public synchronized long getRetryTime(List<String> uris, long now) {
+        long earliest = -1;
+        for (String uri : uris) {
+            long retryTime = getRetryTime(uri, now);
+            if (retryTime < 0)
+                return -1;
+            if (earliest < 0 || retryTime < earliest)
+                earliest = retryTime;
+        }
+        return earliest;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // reserve the right to fetch from one of the hosts: true if one is healthy, or else if one has an open
+    // circuit whose back-off has passed, which then holds its trial
+    //
+    public boolean tryAcquire(List<String> uris) {
+        return tryAcquire(uris, System.currentTimeMillis());
+    }
+
+    synchronized boolean tryAcquire(List<String> uris, long now) {
+        Host trialHost = null;
+        for (String uri : uris) {
+            Host host = mHosts.get(getHostKey(uri));
+            if (host == null)
+                return true;
+            if (host.getRetryTime(now) > now)
+                continue;
+            if (!host.isOpen())
+                return true;
+            if (trialHost == null)
+                trialHost = host;
+        }
+
+        if (trialHost == null)
+            return false;
+        trialHost.mTrialStarted = now;
+        return true;
+    }
+}
@@ -0,0 +1,317 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import com.hqme.cm.util.CmClientUtil;
+import com.hqme.cm.util.CmDate;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Throughput of the hosts that packages are fetched from, for choosing among the mirrors of a package.
+ *
+ * Rates are moving averages fed by probes and by the transfers themselves, and are trusted for
+ * MEASUREMENT_TTL_MILLIS. A host whose transfer failed is passed over while other mirrors are
+ * available, until HostRetryScheduler lets it be tried again. Hosts are keyed by scheme, host and
+ * port, so the mirrors of many packages on the same server share their measurements.
+ */
+class MirrorSelector {
+    // ==================================================================================================================================
+    private static final MirrorSelector sInstance = new MirrorSelector();
+
+    // weight of the newest sample in the moving averages, in 1/8ths
+    private static final int SAMPLE_WEIGHT = 2;
+
+    private static final long MEASUREMENT_TTL_MILLIS = 10 * 60 * 1000;
+
+    // a probe fetches the first bytes of the content from each mirror that has no recent measurement
+    private static final int PROBE_BYTES = 64 * 1024;
+
+    private static final long PROBE_TIMEOUT_MILLIS = 10 * 1000;
+
+    // a transfer is measured over windows of this length, and moves to another mirror when it runs at less
+    // than SWITCH_RATIO of that mirror's rate for MIN_WINDOWS windows
+    private static final long WINDOW_MILLIS = 5 * 1000;
+
+    private static final double SWITCH_RATIO = 0.5;
+
+    private static final int MIN_WINDOWS = 2;
+
+    private static class Host {
+        double mRate = 0.0; // bytes per millisecond
+
+        long mMeasured = 0;
+    }
+
+    private final HashMap<String, Host> mHosts = new HashMap<String, Host>();
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public static MirrorSelector getInstance() {
+        return sInstance;
+    }
+
+    private static String getHostKey(String uri) {
+        try {
+            java.net.URI parsed = new java.net.URI(uri);
+            return (parsed.getScheme() + "://" + parsed.getHost() + ":" + parsed.getPort()).toLowerCase();
+        } catch (Exception fault) {
+            return uri;
+        }
+    }
+
+    private Host getHost(String uri) {
+        String key = getHostKey(uri);
+        Host host = mHosts.get(key);
+        if (host == null) {
+            host = new Host();
+            mHosts.put(key, host);
+        }
+        return host;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized void recordRate(String uri, long bytes, long millis) {
+        if (bytes <= 0 || millis <= 0)
+            return;
+        Host host = getHost(uri);
+        double rate = (double) bytes / millis;
+        long now = System.currentTimeMillis();
+        host.mRate = now - host.mMeasured > MEASUREMENT_TTL_MILLIS ? rate
+                : (host.mRate * (8 - SAMPLE_WEIGHT) + rate * SAMPLE_WEIGHT) / 8;
+        host.mMeasured = now;
+        HostRetryScheduler.getInstance().recordSuccess(uri);
+    }
+
+    public void recordFailure(String uri) {
+        HostRetryScheduler.getInstance().recordFailure(uri);
+    }
+
+    // the measured rate in bytes per millisecond, or 0 if there is no recent measurement
+    public synchronized double getRate(String uri) {
+        Host host = mHosts.get(getHostKey(uri));
+        if (host == null || System.currentTimeMillis() - host.mMeasured > MEASUREMENT_TTL_MILLIS)
+            return 0.0;
+        return host.mRate;
+    }
+
+    private static boolean isCoolingDown(String uri, long now) {
+        return HostRetryScheduler.getInstance().getRetryTime(uri, now) > 0;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the mirrors, fastest first: mirrors with a recent measurement by rate, then unmeasured ones in the order
+    // given, then those backing off after a failure
+    //
+    public ArrayList<String> rank(List<String> mirrors) {
+        final long now = System.currentTimeMillis();
+        final HashMap<String, Double> rates = new HashMap<String, Double>();
+        final HashMap<String, Boolean> coolingDown = new HashMap<String, Boolean>();
+        for (String mirror : mirrors) {
+            rates.put(mirror, getRate(mirror));
+            coolingDown.put(mirror, isCoolingDown(mirror, now));
+        }
+
+        ArrayList<String> ranked = new ArrayList<String>(mirrors);
+        Collections.sort(ranked, new Comparator<String>() { // stable, so that ties keep the order given
+            public int compare(String a, String b) {
+                int order = coolingDown.get(a).compareTo(coolingDown.get(b));
+                return order != 0 ? order : rates.get(b).compareTo(rates.get(a));
+            }
+        });
+        return ranked;
+    }
+
+    // the mirrors worth spreading the segments of a download over: the fastest, and those reaching SWITCH_RATIO
+    // of its rate
+    public ArrayList<String> rankForSegments(List<String> mirrors) {
+        ArrayList<String> ranked = rank(mirrors);
+        double fastest = getRate(ranked.get(0));
+        long now = System.currentTimeMillis();
+
+        ArrayList<String> selected = new ArrayList<String>();
+        selected.add(ranked.get(0));
+        for (int i = 1; i < ranked.size(); i++) {
+            String mirror = ranked.get(i);
+            double rate = getRate(mirror);
+            if (!isCoolingDown(mirror, now) && (rate == 0.0 ? fastest == 0.0 : rate >= fastest * SWITCH_RATIO))
+                selected.add(mirror);
+        }
+        return selected;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // measure the mirrors without a recent measurement, all at once; returns when every probe has finished
+    // or PROBE_TIMEOUT_MILLIS have passed. A probe that is merely slow stays unmeasured; only a failure
+    // that HostRetryScheduler.isHostFailure attributes to the host backs the host off
+    //
+    public void probe(List<String> mirrors) {
+        long now = System.currentTimeMillis();
+        ArrayList<Probe> probes = new ArrayList<Probe>();
+        for (String mirror : mirrors)
+            if (getRate(mirror) == 0.0 && !isCoolingDown(mirror, now)) {
+                Probe probe = new Probe(mirror);
+                probes.add(probe);
+                probe.start();
+            }
+
+        long deadline = now + PROBE_TIMEOUT_MILLIS;
+        try {
+            for (Probe probe : probes) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0)
+                    probe.join(remaining);
+            }
+        } catch (InterruptedException fault) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Probe probe : probes)
+            if (probe.isAlive()) {
+                CmClientUtil.debugLog(getClass(), "probe", "%s has not answered in time", probe.mMirror);
+                probe.abort();
+            }
+    }
+
+    private class Probe extends Thread {
+        private final String mMirror;
+
+        private volatile ProtocolHandler mHandler = null;
+
+        private volatile boolean mIsAborted = false;
+
+        Probe(String mirror) {
+            super("MirrorProbe");
+            setDaemon(true);
+            mMirror = mirror;
+        }
+
+        void abort() {
+            mIsAborted = true;
+            ProtocolHandler handler = mHandler;
+            if (handler != null)
+                handler.stopTransfer();
+        }
+
+        @Override
+        public void run() {
+            ProtocolHandler handler = null;
+            try {
+                handler = ProtocolManager.getInstance().getProtocolHandler(mMirror);
+                if (!(handler instanceof RangeProtocolHandler))
+                    return; // measured by the transfers instead
+                mHandler = handler;
+                handler.intitializeRequest(mMirror);
+
+                long started = System.currentTimeMillis();
+                ((RangeProtocolHandler) handler).startTransfer(0, PROBE_BYTES, CmDate.EPOCH);
+                InputStream responseStream = new ProtocolHandlerInputStream(handler);
+                byte[] buffer = new byte[16 * 1024];
+                long received = 0;
+                int count;
+                while (received < PROBE_BYTES && (count = responseStream.read(buffer, 0, buffer.length)) > 0)
+                    received += count;
+
+                recordRate(mMirror, received, Math.max(1, System.currentTimeMillis() - started));
+            } catch (Throwable fault) {
+                CmClientUtil.debugLog(getClass(), "run", fault);
+                // the fault of an aborted probe comes from closing its transfer
+                if (!mIsAborted && HostRetryScheduler.isHostFailure(fault))
+                    recordFailure(mMirror);
+            } finally {
+                if (handler != null)
+                    handler.stopTransfer();
+            }
+        }
+    }
+
+    // ==================================================================================================================================
+    // measures one transfer from a mirror, feeding its rate back as the transfer goes
+    //
+    public Meter newMeter(String mirror, List<String> mirrors, TokenBucket throttle) {
+        return new Meter(mirror, mirrors, throttle);
+    }
+
+    class Meter {
+        private final String mMirror;
+
+        private final List<String> mMirrors;
+
+        private final TokenBucket mThrottle;
+
+        private long mWindowStart = System.currentTimeMillis();
+
+        private long mWindowBytes = 0;
+
+        private int mSlowWindows = 0;
+
+        private boolean mIsSwitchRequested = false;
+
+        private Meter(String mirror, List<String> mirrors, TokenBucket throttle) {
+            mMirror = mirror;
+            mMirrors = mirrors;
+            mThrottle = throttle;
+        }
+
+        public String getMirror() {
+            return mMirror;
+        }
+
+        public boolean isSwitchRequested() {
+            return mIsSwitchRequested;
+        }
+
+        // count the bytes just received; returns true once another mirror has been consistently faster
+        public boolean add(long bytes) {
+            mWindowBytes += bytes;
+            long now = System.currentTimeMillis();
+            long elapsed = now - mWindowStart;
+            if (elapsed < WINDOW_MILLIS)
+                return mIsSwitchRequested;
+
+            // a paced transfer says nothing about the mirror, nor would another mirror be any faster
+            if (mThrottle == null || mThrottle.getRate() <= 0) {
+                recordRate(mMirror, mWindowBytes, elapsed);
+
+                double rate = (double) mWindowBytes / elapsed;
+                double alternative = 0.0;
+                for (String mirror : mMirrors)
+                    if (!getHostKey(mirror).equals(getHostKey(mMirror)) && !isCoolingDown(mirror, now))
+                        alternative = Math.max(alternative, getRate(mirror));
+
+                mSlowWindows = rate < alternative * SWITCH_RATIO ? mSlowWindows + 1 : 0;
+                if (mSlowWindows >= MIN_WINDOWS) {
+                    CmClientUtil.debugLog(getClass(), "add", "%s delivers %.1f KB/s, another mirror %.1f KB/s",
+                            mMirror, rate * 1000 / 1024, alternative * 1000 / 1024);
+                    mIsSwitchRequested = true;
+                }
+            }
+            mWindowStart = now;
+            mWindowBytes = 0;
+            return mIsSwitchRequested;
+        }
+    }
+}
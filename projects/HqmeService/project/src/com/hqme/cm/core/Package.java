@@ -20,11 +20,15 @@
 
 package com.hqme.cm.core;
 
+import com.hqme.cm.VSDProperties;
 import com.hqme.cm.util.CmDate;
 import com.hqme.cm.util.CmNumber;
 import com.hqme.cm.util.CmProperties;
 import com.hqme.cm.util.CmUri;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+
 /**
  * 
  * The Package class is used for internal representation of the item downloaded by QueueRequest.
@@ -49,6 +53,24 @@ public class Package {
 
     public static final String TAG_MODIFIED = QueueRequestProperties.TransientProperties.REQPROP_LAST_MODIFICATION_DATE.name();
 
+    public static final String TAG_COMPLETED = "PACKAGE_COMPLETED";
+
+    public static final String TAG_SEGMENTS = QueueRequestProperties.OptionalProperties.REQPROP_SEGMENTS.name();
+
+    public static final String TAG_SEGMENT_SIZE = "SEGMENT_SIZE";
+
+    public static final String TAG_SEGMENTS_COMPLETED = "SEGMENTS_COMPLETED";
+
+    public static final String TAG_DURABILITY = QueueRequestProperties.OptionalProperties.REQPROP_DURABILITY.name();
+
+    public static final String TAG_MIRROR_URIS = QueueRequestProperties.OptionalProperties.REQPROP_MIRROR_URIS.name();
+
+    public static final String TAG_VALIDITY_CHECK = VSDProperties.OptionalProperty.S_VALIDITYCHECK.name();
+
+    public static final String TAG_DIGEST_STATE = "DIGEST_STATE";
+
+    public static final String TAG_ENTITY_TAG = VSDProperties.OptionalProperty.S_ENTITY_TAG.name();
+
     public final CmProperties properties = new CmProperties(); 
     
     private long    dbIndex = 0;
@@ -118,8 +140,22 @@ public class Package {
     }
 
     // ----------------------------------------------------------------------------------------------------------------------------------
+    // the entity tag the remote party reported for the content; empty if it reported none
+    public String getEntityTag() {
+        return this.properties.get(TAG_ENTITY_TAG);
+    }
+
+    public String setEntityTag(String newEntityTag) {
+        return properties.set(TAG_ENTITY_TAG, newEntityTag);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // bytes written to the content object but not yet known to be on the storage device; they count as
+    // progress, but only the recorded progress bytes are stored, so a resumed download starts after durable data
+    private long mUnsyncedBytes = 0;
+
     public Long getProgressBytes() {
-        return CmNumber.parseLong(this.properties.get(TAG_PROGRESS_BYTES, 0L), 0L);
+        return CmNumber.parseLong(this.properties.get(TAG_PROGRESS_BYTES, 0L), 0L) + mUnsyncedBytes;
     }
 
     public Long setProgressBytes(Long newProgressBytes) {
@@ -129,9 +165,24 @@ public class Package {
     }
 
     public String setProgressBytes(String newProgressBytes) {
+        mUnsyncedBytes = 0;
         return properties.set(TAG_PROGRESS_BYTES, newProgressBytes);
     }
 
+    public void addUnsyncedBytes(long unsyncedBytes) {
+        mUnsyncedBytes += unsyncedBytes;
+    }
+
+    // record the unsynced bytes as progress, once they are on the storage device
+    public Long syncProgressBytes() {
+        return setProgressBytes(getProgressBytes());
+    }
+
+    // forget the unsynced bytes, when they could not be brought onto the storage device
+    public Long discardUnsyncedBytes() {
+        return setProgressBytes(getProgressBytes() - mUnsyncedBytes);
+    }
+
  // ----------------------------------------------------------------------------------------------------------------------------------
     public Long getMobileDownloadBytes() {
         return CmNumber.parseLong(this.properties.get(TAG_TRANSFER_BYTES_MOBILE, 0L), 0L);
@@ -161,5 +212,97 @@ public class Package {
     public String setContentSize(String newContentSize) {
         return properties.set(TAG_CONTENT_SIZE, newContentSize);
     }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // set once the package has been downloaded in full; packages of a work order may complete out of order
+    public Boolean getCompleted() {
+        return Boolean.valueOf(this.properties.get(TAG_COMPLETED, Boolean.FALSE));
+    }
+
+    public Boolean setCompleted(Boolean isCompleted) {
+        setCompleted(isCompleted == null ? (isCompleted = Boolean.FALSE).toString() : isCompleted.toString());
+        return isCompleted;
+    }
+
+    public String setCompleted(String isCompleted) {
+        return properties.set(TAG_COMPLETED, isCompleted);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // number of concurrent byte ranges requested for this package; 1 downloads it over a single stream
+    public int getSegments() {
+        return CmNumber.parseInt(this.properties.get(TAG_SEGMENTS, 1), 1);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // size of each byte range, fixed by the first segmented attempt so that resumed attempts use the same layout
+    public Long getSegmentSize() {
+        return CmNumber.parseLong(this.properties.get(TAG_SEGMENT_SIZE, 0L), 0L);
+    }
+
+    public Long setSegmentSize(Long newSegmentSize) {
+        setSegmentSize(newSegmentSize == null ? (newSegmentSize = 0L).toString() : newSegmentSize
+                .toString());
+        return newSegmentSize;
+    }
+
+    public String setSegmentSize(String newSegmentSize) {
+        return properties.set(TAG_SEGMENT_SIZE, newSegmentSize);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the URIs the content may be fetched from: the source URI, followed by the white-space separated mirrors of the
+    // request in their order of preference
+    public ArrayList<String> getMirrorUris() {
+        ArrayList<String> mirrorUris = new ArrayList<String>();
+        mirrorUris.add(getSourceUri().toString());
+        for (String mirrorUri : this.properties.get(TAG_MIRROR_URIS).trim().split("\\s+"))
+            if (mirrorUri.length() > 0 && !mirrorUris.contains(mirrorUri))
+                mirrorUris.add(mirrorUri);
+        return mirrorUris;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the durability requested for this package, see Durability; empty if the request does not select one
+    public String getDurability() {
+        return this.properties.get(TAG_DURABILITY);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the expected digest of the content, see ContentDigest; empty or "true"/"false" if there is none to compare with
+    public String getValidityCheck() {
+        return this.properties.get(TAG_VALIDITY_CHECK);
+    }
+
+    // the state of the digest over the first REQPROP_CURRENT_BYTES_TRANSFERRED bytes, so a resumed download continues it
+    public String getDigestState() {
+        return this.properties.get(TAG_DIGEST_STATE);
+    }
+
+    public String setDigestState(String newDigestState) {
+        return properties.set(TAG_DIGEST_STATE, newDigestState);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // indexes of the byte ranges already written to the content object, stored as a comma separated list
+    public BitSet getCompletedSegments() {
+        BitSet completedSegments = new BitSet();
+        for (String segment : this.properties.get(TAG_SEGMENTS_COMPLETED).split(",")) {
+            int index = CmNumber.parseInt(segment, -1);
+            if (index >= 0)
+                completedSegments.set(index);
+        }
+        return completedSegments;
+    }
+
+    public BitSet setCompletedSegments(BitSet newCompletedSegments) {
+        StringBuilder segments = new StringBuilder();
+        if (newCompletedSegments == null)
+            newCompletedSegments = new BitSet();
+        for (int i = newCompletedSegments.nextSetBit(0); i >= 0; i = newCompletedSegments.nextSetBit(i + 1))
+            segments.append(segments.length() == 0 ? "" : ",").append(i);
+        properties.set(TAG_SEGMENTS_COMPLETED, segments.toString());
+        return newCompletedSegments;
+    }
     // ----------------------------------------------------------------------------------------------------------------------------------
 }
@@ -42,6 +42,7 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 import java.util.regex.Pattern;
@@ -171,6 +172,36 @@ public class Policy extends Record {
             }
     }
 
+    // the keys of every Rule in the policy, for example RULE_POWER_LEVEL
+    HashSet<String> getRuleNames() {
+        HashSet<String> ruleNames = new HashSet<String>();
+
+        if (mRuleCollections != null)
+            for (Entry<String, RuleCollection> rc : mRuleCollections.entrySet()) {
+                if (rc.getValue().getRules() != null)
+                    for (Rule r : rc.getValue().getRules())
+                        if (r.getName() != null)
+                            ruleNames.add(r.getName());
+            }
+
+        return ruleNames;
+    }
+
+    // every Rule in the policy with the specified key
+    ArrayList<Rule> getRules(String ruleName) {
+        ArrayList<Rule> rules = new ArrayList<Rule>();
+
+        if (mRuleCollections != null)
+            for (Entry<String, RuleCollection> rc : mRuleCollections.entrySet()) {
+                if (rc.getValue().getRules() != null)
+                    for (Rule r : rc.getValue().getRules())
+                        if (ruleName.equals(r.getName()))
+                            rules.add(r);
+            }
+
+        return rules;
+    }
+
     boolean isValid() {
 
         if (mRuleCollections != null)
@@ -0,0 +1,271 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import android.content.Context;
+
+import com.hqme.cm.util.CmClientUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the durable progress of downloads in flight.
+ *
+ * A work order stores its progress only when its record is written, which does not happen while
+ * a package is downloading. The journal fills the gap: every CHECKPOINT_INTERVAL bytes of durable
+ * progress it appends a small record of (work order, package index, offset), so that a download
+ * interrupted by the death of the service resumes close to where it stopped. Writing the record
+ * of a work order makes its journal records obsolete, which is noted with a commit record.
+ *
+ * At startup the remaining records are replayed into the work order records, after which the
+ * journal starts out empty. When the journal outgrows MAX_JOURNAL_SIZE, it is rewritten with the
+ * records that are still needed.
+ */
+class ProgressJournal {
+    // ==================================================================================================================================
+    private static final String JOURNAL_FILE = "progress.journal";
+
+    static final long CHECKPOINT_INTERVAL = 4L * 1024 * 1024;
+
+    private static final long MAX_JOURNAL_SIZE = 64 * 1024;
+
+    // work order index, package index, offset and checksum; a commit record has a package index of -1
+    private static final int RECORD_SIZE = 8 + 4 + 8 + 8;
+
+    private static final int COMMIT = -1;
+
+    private static ProgressJournal sInstance = null;
+
+    private final File mFile;
+
+    private FileOutputStream mOutput = null;
+
+    // the offsets recorded since each work order was last written
+    private final HashMap<Long, HashMap<Integer, Long>> mOffsets = new HashMap<Long, HashMap<Integer, Long>>();
+
+    private ProgressJournal(Context context) {
+        mFile = new File(context.getFilesDir(), JOURNAL_FILE);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public static synchronized ProgressJournal getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new ProgressJournal(context);
+        return sInstance;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // note the durable offset of a package; it is appended once it has advanced by CHECKPOINT_INTERVAL
+    // since the previous record, or when it has gone back
+    //
+    public synchronized void record(long workOrderIndex, int packageIndex, long offset) {
+        HashMap<Integer, Long> offsets = mOffsets.get(workOrderIndex);
+        Long previous = offsets == null ? null : offsets.get(packageIndex);
+        long recorded = previous == null ? 0 : previous;
+        if (offset >= recorded && offset - recorded < CHECKPOINT_INTERVAL)
+            return;
+
+        if (offsets == null) {
+            offsets = new HashMap<Integer, Long>();
+            mOffsets.put(workOrderIndex, offsets);
+        }
+        offsets.put(packageIndex, offset);
+        append(workOrderIndex, packageIndex, offset);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the work order record has been written, so its journal records are no longer needed
+    //
+    public synchronized void commit(long workOrderIndex) {
+        if (mOffsets.remove(workOrderIndex) != null)
+            append(workOrderIndex, COMMIT, 0);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // write the offsets left in the journal into their work order records, then empty the journal;
+    // returns the number of work orders updated
+    //
+    public synchronized int replay(Context context) {
+        final String tag_LogLocal = "replay";
+
+        int replayed = 0;
+        HashMap<Long, HashMap<Integer, Long>> offsets = read();
+        for (Map.Entry<Long, HashMap<Integer, Long>> entry : offsets.entrySet())
+            try {
+                WorkOrder workOrder = HQME.WorkOrder.getRecord(context, entry.getKey());
+                if (workOrder == null || WorkOrder.Action.COMPLETED.equals(workOrder.getOrderAction()))
+                    continue;
+
+                boolean updated = false;
+                for (Map.Entry<Integer, Long> offset : entry.getValue().entrySet()) {
+                    int packageIndex = offset.getKey();
+                    if (packageIndex < 0 || packageIndex >= workOrder.getPackages().size())
+                        continue;
+
+                    Package pkg = workOrder.getPackages().get(packageIndex);
+                    if (pkg.getCompleted() || !pkg.getCompletedSegments().isEmpty())
+                        continue;
+                    if (pkg.getProgressBytes().longValue() != offset.getValue().longValue()) {
+                        pkg.setProgressBytes(offset.getValue());
+                        updated = true;
+                    }
+                }
+
+                if (updated) {
+                    HQME.WorkOrder.update(context, workOrder);
+                    replayed++;
+                }
+            } catch (Exception fault) {
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+            }
+
+        if (replayed > 0)
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, "Restored the progress of %d work orders", replayed);
+
+        mOffsets.clear();
+        rewrite();
+        return replayed;
+    }
+
+    // ==================================================================================================================================
+    // the following are called while holding the lock
+    //
+    private void append(long workOrderIndex, int packageIndex, long offset) {
+        try {
+            if (mOutput == null)
+                mOutput = new FileOutputStream(mFile, true);
+            mOutput.write(encode(workOrderIndex, packageIndex, offset));
+            mOutput.getFD().sync();
+
+            if (mFile.length() > MAX_JOURNAL_SIZE)
+                rewrite();
+        } catch (IOException fault) {
+            CmClientUtil.debugLog(getClass(), "append", fault);
+        }
+    }
+
+    // replace the journal with the records that are still needed
+    private void rewrite() {
+        final String tag_LogLocal = "rewrite";
+
+        File temporary = new File(mFile.getPath() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temporary);
+            for (Map.Entry<Long, HashMap<Integer, Long>> entry : mOffsets.entrySet())
+                for (Map.Entry<Integer, Long> offset : entry.getValue().entrySet())
+                    output.write(encode(entry.getKey(), offset.getKey(), offset.getValue()));
+            output.getFD().sync();
+            output.close();
+            output = null;
+
+            if (mOutput != null) {
+                mOutput.close();
+                mOutput = null;
+            }
+            if (!temporary.renameTo(mFile))
+                throw new IOException("Unable to rename " + temporary);
+        } catch (IOException fault) {
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+        } finally {
+            if (output != null)
+                try {
+                    output.close();
+                } catch (IOException fault) {
+                    CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+                }
+        }
+    }
+
+    // the offsets of the journal that are not followed by a commit of their work order; reading stops
+    // at a record that was not completely written
+    private HashMap<Long, HashMap<Integer, Long>> read() {
+        HashMap<Long, HashMap<Integer, Long>> offsets = new HashMap<Long, HashMap<Integer, Long>>();
+        if (!mFile.exists())
+            return offsets;
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(mFile));
+            byte[] record = new byte[RECORD_SIZE];
+            while (true) {
+                input.readFully(record);
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+                long workOrderIndex = fields.readLong();
+                int packageIndex = fields.readInt();
+                long offset = fields.readLong();
+                if (fields.readLong() != checksum(record, RECORD_SIZE - 8))
+                    break;
+
+                if (packageIndex == COMMIT)
+                    offsets.remove(workOrderIndex);
+                else {
+                    HashMap<Integer, Long> packageOffsets = offsets.get(workOrderIndex);
+                    if (packageOffsets == null) {
+                        packageOffsets = new HashMap<Integer, Long>();
+                        offsets.put(workOrderIndex, packageOffsets);
+                    }
+                    packageOffsets.put(packageIndex, offset);
+                }
+            }
+        } catch (EOFException fault) {
+            // end of the journal
+        } catch (IOException fault) {
+            CmClientUtil.debugLog(getClass(), "read", fault);
+        } finally {
+            if (input != null)
+                try {
+                    input.close();
+                } catch (IOException fault) {
+                    CmClientUtil.debugLog(getClass(), "read", fault);
+                }
+        }
+        return offsets;
+    }
+
+    private static byte[] encode(long workOrderIndex, int packageIndex, long offset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_SIZE);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeLong(workOrderIndex);
+        record.writeInt(packageIndex);
+        record.writeLong(offset);
+        record.writeLong(checksum(bytes.toByteArray(), RECORD_SIZE - 8));
+        return bytes.toByteArray();
+    }
+
+    private static long checksum(byte[] record, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, length);
+        return crc.getValue();
+    }
+}
@@ -46,7 +46,9 @@ public class ProtocolException extends Exception {
         ERR_HTTP_GENERIC(-10),
         ERR_HTTP_REQUIRED_HEADER_MISSING(-11),
         ERR_HTTP_PRECONDITION_FAILED(-12),
-        ERR_HTTP_RANGE_NOT_SATISFIABLE(-13);
+        ERR_HTTP_RANGE_NOT_SATISFIABLE(-13),
+        ERR_HTTP_RANGE_IGNORED(-14),
+        ERR_HTTP_SERVICE_UNAVAILABLE(-15);
     
         private final int mErrCode;
         ProtocolError(int error) {
@@ -99,6 +101,13 @@ public class ProtocolException extends Exception {
         this(ProtocolError.ERR_UNKNOWN);
     }
     
+    /** Returns the predefined error code of this exception.
+     * @return Predefined error code, ERR_UNKNOWN for wrapped faults.
+     */
+    public ProtocolError getError() {
+        return mErr;
+    }
+
     @Override
     public String toString() {
         return "ProtocolException ( " + mErr.getErrorCode() + " ) : " + mMessage;
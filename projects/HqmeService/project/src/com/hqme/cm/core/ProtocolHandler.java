@@ -46,20 +46,20 @@ public interface ProtocolHandler {
     public int startTransfer() throws ProtocolException ;
     
     /** Starts transfer from offset.
-     * @param offset
+     * @param offset byte offset, which may lie beyond 2 GB
      * @return 0 on success. Error code otherwise.
      * @throws ProtocolException Thrown if an unrecoverable error occurs.
      */
-    public int startTransfer(int offset) throws ProtocolException ;
+    public int startTransfer(long offset) throws ProtocolException ;
     
     /** Starts transfer from offset only if the remote content is not modified since the given date.
      * 
-     * @param offset
+     * @param offset byte offset, which may lie beyond 2 GB
      * @param unmodifiedSince
      * @return 0 on success. Error code otherwise.
      * @throws ProtocolException  Thrown if an unrecoverable error occurs.
      */
-    public int startTransfer(int offset, Date unmodifiedSince) throws ProtocolException;
+    public int startTransfer(long offset, Date unmodifiedSince) throws ProtocolException;
     
     /** Pauses transfer
      * @return 0 on success. Error code otherwise.
@@ -49,7 +49,7 @@ public class ProtocolManager {
      * 
      * @return ProtocolManager instance.
      */
-    public static ProtocolManager getInstance() {
+    public static synchronized ProtocolManager getInstance() {
         if (mSingleProtocolManager == null)
         {
             mSingleProtocolManager = new ProtocolManager();
@@ -25,21 +25,103 @@ import com.hqme.cm.util.CmDate;
 import com.hqme.cm.util.CmUri;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Protocol Handler for HTTP and HTTPS schemes.
  *
  */
 public class ProtocolPluginHttp implements ProtocolPlugin {
+    // ==================================================================================================================================
+    // all handlers share one client, whose connection manager keeps connections alive per host across packages
+    // and work orders; a segmented download of one work order may use a connection per segment
+    private static final int MAX_CONNECTIONS_PER_HOST = 8;
 
+    private static final int MAX_CONNECTIONS = 3 * MAX_CONNECTIONS_PER_HOST;
+
+    // a request waits this long for a connection to its host before it fails and is retried as usual
+    private static final long CONNECTION_WAIT_MILLIS = 2 * 60 * 1000;
+
+    private static final long IDLE_CONNECTION_MILLIS = 30 * 1000;
+
+    // content codings offered for whole content; ranges are always requested unencoded
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private static final int DECODER_BUFFER_SIZE = 8 * 1024;
+
+    // the body of an error response is read to the end, so that the connection can be kept, only when it is this small
+    private static final long MAX_DISCARDED_BYTES = 16 * 1024;
+
+    private final ClientConnectionManager mConnectionManager;
+
+    private final DefaultHttpClient mHttpClient;
+
+    private final Timer mIdleConnectionTimer = new Timer("ProtocolPluginHttp.idleConnectionTimer", true);
+
+    public ProtocolPluginHttp() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+        ConnManagerParams.setTimeout(params, CONNECTION_WAIT_MILLIS);
+
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        mConnectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+        mHttpClient = new DefaultHttpClient(mConnectionManager, params);
+
+        mIdleConnectionTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    mConnectionManager.closeExpiredConnections();
+                    mConnectionManager.closeIdleConnections(IDLE_CONNECTION_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (Exception fault) {
+                    CmClientUtil.debugLog(getClass(), "idleConnectionTimer", fault);
+                }
+            }
+        }, IDLE_CONNECTION_MILLIS, IDLE_CONNECTION_MILLIS);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
     public boolean canHandleProtocol(String scheme) {
         if (scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))
             return true;
@@ -50,22 +132,32 @@ public class ProtocolPluginHttp implements ProtocolPlugin {
     public ProtocolHandler getNewProtocolHandler() {
         return new ProtocolHandlerHttp();
     }
-    
-    public class ProtocolHandlerHttp implements ProtocolHandler {
+
+    // statuses after which the request may succeed later, once the server has recovered
+    static boolean isServiceUnavailable(int statusCode) {
+        return statusCode >= 500 || statusCode == HttpStatus.SC_REQUEST_TIMEOUT || statusCode == 429;
+    }
+
+    public class ProtocolHandlerHttp implements RangeProtocolHandler, ChannelProtocolHandler, ConditionalProtocolHandler,
+            EncodingProtocolHandler {
         
         // ==================================================================================================================================
         // true for mirrored remote files (to ensure file has not changed since last
         // downloaded)
         // false is slightly more dangerous (requires a file accuracy verification
         // method, for example, MD5)
-        private boolean mIsRequiredHeader_IfUnmodifiedSince = false;
+        private boolean mIsRequiredHeader_IfUnmodifiedSince = true;
+        private boolean mIsContentEncodingAccepted = true;
         
-        private HttpGet mRequest = null;
-        private InputStream mResponseStream = null;
+        private HttpRequestBase mRequest = null;
+        private ResponseStream mResponseStream = null;
+        // the decoded content of the response, or the response stream itself if it is not encoded
+        private InputStream mContentStream = null;
         
         private CmUri mURI = null;
         private CmDate mLastModified = null;
         private Long mContentLength = null;
+        private String mEntityTag = null;
         
         public Long getContentLength() throws ProtocolException {
             return mContentLength;
@@ -75,28 +167,29 @@ public class ProtocolPluginHttp implements ProtocolPlugin {
             return mLastModified;
         }
 
-        public int finalizeRequest() {
-            final String tag_LogLocal = "ProtocolHandlerHttp_finalizeRequest";
-            if (mRequest != null)
-                try {
-                    mRequest.abort();
-                } catch (Exception fault) {
-                    CmClientUtil
-                            .debugLog(getClass(), tag_LogLocal + " @ mRequest.abort", fault);
-                } finally {
-                    mRequest = null;
-                }
+        public String getEntityTag() throws ProtocolException {
+            return mEntityTag;
+        }
 
-            if (mResponseStream != null)
-                try {
-                    mResponseStream.close();
-                } catch (Exception fault) {
-                    CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ responseStream.close",
-                            fault);
-                } finally {
-                    mResponseStream = null;
-                }
-            return 0;
+        public boolean isContentEncoded() throws ProtocolException {
+            return mContentStream != null && mContentStream != mResponseStream;
+        }
+
+        public long getReceivedBytes() throws ProtocolException {
+            ResponseStream responseStream = mResponseStream;
+            return responseStream == null ? 0 : responseStream.getReceivedBytes();
+        }
+
+        public void setContentEncodingAccepted(boolean isAccepted) {
+            mIsContentEncodingAccepted = isAccepted;
+        }
+
+        private String getAcceptedEncodings() {
+            return mIsContentEncodingAccepted ? ACCEPTED_ENCODINGS : "identity";
+        }
+
+        public int finalizeRequest() {
+            return stopTransfer();
         }
     
         public int intitializeRequest(String URI) {
@@ -110,12 +203,18 @@ public class ProtocolPluginHttp implements ProtocolPlugin {
     
         public int readData(byte[] buffer, int bufSize, int offset) throws ProtocolException {
             try {
-                return mResponseStream.read(buffer, offset, bufSize);
+                return mContentStream.read(buffer, offset, bufSize);
             } catch (IOException e) {
                 throw new ProtocolException(e);
             }
         }
     
+        // the entity stream is wrapped as it is, so transferFrom still reads it through a buffer of the platform;
+        // HttpClient does not expose the socket underneath
+        public ReadableByteChannel getContentChannel() throws ProtocolException {
+            return mContentStream == null ? null : Channels.newChannel(mContentStream);
+        }
+    
         public int resumeTransfer() throws ProtocolException{
             throw new ProtocolException(ProtocolException.ProtocolError.ERR_UNSUPPORTED_OPERATION);
         }
@@ -124,32 +223,74 @@ public class ProtocolPluginHttp implements ProtocolPlugin {
             return startTransfer(0);
         }
     
-        public int startTransfer(int offset) throws ProtocolException {
+        public int startTransfer(long offset) throws ProtocolException {
             return startTransfer(offset, CmDate.EPOCH);
         }
 
-        public int startTransfer(int offset, Date unmodifiedSince) throws ProtocolException {
-            final String tag_LogLocal = "ProtocolHandlerHttp_startTransfer";
-            
-            Long progressBytes = (long)offset;
+        public int startTransfer(long offset, Date unmodifiedSince) throws ProtocolException {
+            return startTransfer(offset, -1L, unmodifiedSince);
+        }
+
+        // a negative length requests everything from offset to the end of the content
+        public int startTransfer(long offset, long length, Date unmodifiedSince) throws ProtocolException {
+            Long progressBytes = offset;
             CmDate modifiedDate = new CmDate(unmodifiedSince);
+            boolean isBoundedRange = length > 0;
             
+            stopTransfer(); // a response still held by this handler returns its connection first
             mRequest = new HttpGet(mURI.toString());
             
-            if (progressBytes > 0) {
+            if (progressBytes > 0 || isBoundedRange) {
                 if (mIsRequiredHeader_IfUnmodifiedSince)
                     if (!CmDate.EPOCH.equals(modifiedDate))
                         mRequest.addHeader("If-Unmodified-Since", CmDate.HTTP_FORMATTER
                                 .format(modifiedDate));
 
-                mRequest.addHeader("Range", "bytes=" + progressBytes + "-");
-            }
+                mRequest.addHeader("Range", "bytes=" + progressBytes + "-"
+                        + (isBoundedRange ? String.valueOf(progressBytes + length - 1) : ""));
+                // a range counts in the bytes that are stored, which are those of the unencoded content
+                mRequest.addHeader("Accept-Encoding", "identity");
+            } else
+                mRequest.addHeader("Accept-Encoding", getAcceptedEncodings());
+            return execute(progressBytes > 0, isBoundedRange);
+        }
+
+        // the whole content, unless it still matches the validators of a previous fetch
+        public int startTransfer(String entityTag, Date modifiedSince) throws ProtocolException {
+            stopTransfer();
+            mRequest = new HttpGet(mURI.toString());
+
+            if (entityTag != null && entityTag.length() > 0)
+                mRequest.addHeader("If-None-Match", entityTag);
+            if (modifiedSince != null && !CmDate.EPOCH.equals(modifiedSince))
+                mRequest.addHeader("If-Modified-Since", CmDate.HTTP_FORMATTER.format(modifiedSince));
+            mRequest.addHeader("Accept-Encoding", getAcceptedEncodings());
+
+            return execute(false, false);
+        }
+
+        // a HEAD request; the length reported is that of the unencoded content
+        public int queryHeaders() throws ProtocolException {
+            stopTransfer();
+            mRequest = new HttpHead(mURI.toString());
+            mRequest.addHeader("Accept-Encoding", "identity");
+
+            return execute(false, false);
+        }
+
+        private int execute(boolean isResumed, boolean isBoundedRange) throws ProtocolException {
+            final String tag_LogLocal = "ProtocolHandlerHttp_execute";
+
             CmClientUtil.debugLog(getClass(), tag_LogLocal, "Downloading %s", mRequest
                     .getURI().toString());
             
+            // a context of its own per request, so that cookies are not shared through the pooled client
+            HttpContext context = new BasicHttpContext();
+            context.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
+
             HttpResponse response;
             try {
-                response = new DefaultHttpClient().execute(mRequest);
+                response = mHttpClient.execute(mRequest, context);
             } catch (Throwable fault) {
                 throw new ProtocolException(fault);
             }
@@ -173,58 +314,148 @@ public class ProtocolPluginHttp implements ProtocolPlugin {
             CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ " + statusMessage,
                     "Status = %d (0x%08x)", statusCode, statusCode);
 
+            Header entityTagHeader = response.getFirstHeader("ETag");
+            mEntityTag = entityTagHeader == null ? null : entityTagHeader.getValue();
+
             switch (statusCode) {
-                case HttpStatus.SC_PARTIAL_CONTENT:
+                case HttpStatus.SC_NOT_MODIFIED:
+                    Header validatorHeader = response.getFirstHeader("Last-Modified");
+                    if (validatorHeader != null)
+                        mLastModified = CmDate.valueOf(validatorHeader.getValue());
+                    discardResponse(response);
+                    return TRANSFER_NOT_MODIFIED;
+
                 case HttpStatus.SC_OK:
+                    // the whole content cannot stand in for a segment of it, nor be appended to a partial download
+                    if (isBoundedRange || isResumed) {
+                        discardResponse(response);
+                        throw new ProtocolException(ProtocolException.ProtocolError.ERR_HTTP_RANGE_IGNORED);
+                    }
+                    // --------------------------------------------------
+                    // NO BREAK
+                    // --------------------------------------------------
+                case HttpStatus.SC_PARTIAL_CONTENT:
                     Header lastModifiedHeader = response.getFirstHeader("Last-Modified");
                     // TODO: This code will fail if HTTP server does not send last-modified header.
                     if (lastModifiedHeader == null) {
                         CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ " + statusMessage,
                                 "Required header \"Last-Modified\" is missing.");
+                        discardResponse(response);
                         throw new ProtocolException(ProtocolException.ProtocolError.ERR_HTTP_REQUIRED_HEADER_MISSING);
                     }
                     mLastModified = CmDate.valueOf(lastModifiedHeader.getValue());
                     
+                    Header contentEncodingHeader = response.getFirstHeader("Content-Encoding");
+                    String contentEncoding = contentEncodingHeader == null ? "identity"
+                            : contentEncodingHeader.getValue().trim().toLowerCase();
+                    boolean isEncoded = !contentEncoding.equals("identity") && contentEncoding.length() > 0;
+                    if (isEncoded && (isBoundedRange || isResumed)) {
+                        // a range of the encoded content cannot be decoded on its own; the download starts over
+                        discardResponse(response);
+                        throw new ProtocolException(ProtocolException.ProtocolError.ERR_HTTP_RANGE_IGNORED,
+                                "Content-Encoding: " + contentEncoding);
+                    }
+
+                    // the length of encoded content says nothing about the length of the decoded content
                     Header contentLengthHeader = response.getFirstHeader("Content-Length");
-                    if (contentLengthHeader != null)
+                    if (isEncoded)
+                        mContentLength = null;
+                    else if (contentLengthHeader != null)
                         mContentLength = Long.valueOf(contentLengthHeader.getValue());
 
+                    if (mRequest instanceof HttpHead) {
+                        discardResponse(response); // there is no content
+                        return 0;
+                    }
+
                     try {
-                        mResponseStream = response.getEntity().getContent();
+                        HttpEntity entity = response.getEntity();
+                        mResponseStream = new ResponseStream(entity.getContent(), entity.getContentLength());
+                        mContentStream = isEncoded ? decode(mResponseStream, contentEncoding) : mResponseStream;
+                    } catch (ProtocolException fault) {
+                        throw fault; // the response is released by stopTransfer
                     } catch (Throwable fault) {
                         throw new ProtocolException(fault);
                     }
                     return 0; // SUCCESS
 
                 case HttpStatus.SC_PRECONDITION_FAILED:
+                    discardResponse(response);
                     throw new ProtocolException(ProtocolException.ProtocolError.ERR_HTTP_PRECONDITION_FAILED);
                 case HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE:
+                    discardResponse(response);
                     throw new ProtocolException(ProtocolException.ProtocolError.ERR_HTTP_RANGE_NOT_SATISFIABLE);
                 default:
+                    discardResponse(response);
+                    // the server is down, overloaded or timed out, as opposed to refusing the request
+                    if (isServiceUnavailable(statusCode))
+                        throw new ProtocolException(ProtocolException.ProtocolError.ERR_HTTP_SERVICE_UNAVAILABLE);
                     throw new ProtocolException(ProtocolException.ProtocolError.ERR_HTTP_GENERIC);
             }
         }
+
+        // the decoded content; deflate is meant to be zlib wrapped, but some servers send it raw
+        private InputStream decode(InputStream content, String contentEncoding) throws IOException, ProtocolException {
+            if (contentEncoding.equals("gzip") || contentEncoding.equals("x-gzip"))
+                return new GZIPInputStream(content, DECODER_BUFFER_SIZE);
+
+            if (contentEncoding.equals("deflate")) {
+                InputStream buffered = new BufferedInputStream(content, DECODER_BUFFER_SIZE);
+                buffered.mark(2);
+                int cmf = buffered.read();
+                int flg = buffered.read();
+                buffered.reset();
+                boolean isZlib = cmf >= 0 && flg >= 0 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+                return new InflaterInputStream(buffered, new Inflater(!isZlib), DECODER_BUFFER_SIZE);
+            }
+
+            throw new ProtocolException(ProtocolException.ProtocolError.ERR_HTTP_GENERIC, "Content-Encoding: "
+                    + contentEncoding);
+        }
+
+        // releases the connection of a response whose body is not wanted: a short body is read to the end so
+        // that the connection goes back to the pool, a longer one is cheaper to drop along with its connection
+        private void discardResponse(HttpResponse response) {
+            final String tag_LogLocal = "ProtocolHandlerHttp_discardResponse";
+            HttpEntity entity = response.getEntity();
+            try {
+                long length = entity == null ? 0 : entity.getContentLength();
+                if (length >= 0 && length <= MAX_DISCARDED_BYTES) {
+                    if (entity != null)
+                        entity.consumeContent();
+                } else
+                    mRequest.abort();
+            } catch (Exception fault) {
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+                mRequest.abort();
+            } finally {
+                mRequest = null;
+            }
+        }
         
         public int stopTransfer() {
             final String tag_LogLocal = "ProtocolHandlerHttp_stopTransfer";
-            if (mRequest != null)
+            // a response read to its end returns its connection to the pool when closed; anything else would
+            // have to be read to the end first, so the request is aborted and its connection dropped instead
+            if (mRequest != null && (mResponseStream == null || !mResponseStream.isDrained()))
                 try {
                     mRequest.abort();
                 } catch (Exception fault) {
                     CmClientUtil
                             .debugLog(getClass(), tag_LogLocal + " @ mRequest.abort", fault);
-                } finally {
-                    mRequest = null;
                 }
+            mRequest = null;
 
             if (mResponseStream != null)
                 try {
-                    mResponseStream.close();
+                    // closing the decoder closes the response stream beneath it
+                    (mContentStream != null ? mContentStream : mResponseStream).close();
                 } catch (Exception fault) {
                     CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ responseStream.close",
                             fault);
                 } finally {
                     mResponseStream = null;
+                    mContentStream = null;
                 }
             return 0;
         }
@@ -233,4 +464,63 @@ public class ProtocolPluginHttp implements ProtocolPlugin {
             throw new ProtocolException(ProtocolException.ProtocolError.ERR_UNSUPPORTED_OPERATION);
         }
     }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the content of a response as received, noting how much has been read and when it has been read to its end
+    //
+    private static class ResponseStream extends FilterInputStream {
+        private long mRemaining;
+
+        private volatile long mReceivedBytes = 0;
+
+        private boolean mIsDrained = false;
+
+        // a negative content length stands for an unknown one
+        ResponseStream(InputStream in, long contentLength) {
+            super(in);
+            mRemaining = contentLength;
+        }
+
+        boolean isDrained() {
+            return mIsDrained || mRemaining == 0;
+        }
+
+        long getReceivedBytes() {
+            return mReceivedBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            count(b < 0 ? -1 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (length > 0)
+                count(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            mReceivedBytes += count;
+            if (mRemaining > 0)
+                mRemaining -= count;
+            return count;
+        }
+
+        private void count(int count) {
+            if (count < 0) {
+                mIsDrained = true;
+                return;
+            }
+            mReceivedBytes += count;
+            if (mRemaining > 0)
+                mRemaining -= count;
+        }
+    }
 }
@@ -39,6 +39,7 @@ import org.xmlpull.v1.XmlSerializer;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Set;
 
 import javax.xml.parsers.SAXParser;
@@ -190,6 +191,11 @@ public class QueueRequestObject extends IQueueRequest.Stub {
                 // string for REQPROP_SOURCE_URI
                 java.net.URI uri = new java.net.URI(mProperties
                         .get(QueueRequestProperties.RequiredProperties.REQPROP_SOURCE_URI.name()));
+                // and so are the mirrors, if any
+                String mirrorUris = mProperties.get(QueueRequestProperties.OptionalProperties.REQPROP_MIRROR_URIS.name());
+                for (String mirrorUri : mirrorUris.trim().split("\\s+"))
+                    if (mirrorUri.length() > 0)
+                        new java.net.URI(mirrorUri);
                 retval = HqmeError.STATUS_SUCCESS.getCode();
             } catch (URISyntaxException fault) {
                 CmClientUtil.debugLog(getClass(), "isValid", fault);
@@ -248,6 +254,7 @@ public class QueueRequestObject extends IQueueRequest.Stub {
     // ==================================================================================================================================
     public static final String NAMESPACE = null;
 
+    public static final String TAG_QUEUE_REQUESTS = "QueueRequests";
     public static final String TAG_QUEUE_REQUEST = "QueueRequest";
     public static final String TAG_PROPERTY = "Property";
 
@@ -305,6 +312,78 @@ public class QueueRequestObject extends IQueueRequest.Stub {
             }
     }
 
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // parse a QueueRequests element holding any number of QueueRequest elements, in document order
+    //
+    public static ArrayList<QueueRequestObject> listFromString(String xmlContent) {
+        QueueRequestListParser parser = new QueueRequestListParser();
+        if (xmlContent != null && xmlContent.length() > 0)
+            try {
+                SAXParserFactory spf = SAXParserFactory.newInstance();
+                SAXParser sp = spf.newSAXParser();
+                XMLReader xr = sp.getXMLReader();
+                xr.setFeature("http://xml.org/sax/features/namespaces", false);
+                xr.setContentHandler(parser);
+                xr.parse(new InputSource(new StringReader(xmlContent)));
+            } catch (Exception fault) {
+                CmClientUtil.debugLog(QueueRequestObject.class, "listFromString", fault);
+                throw new IllegalArgumentException(fault);
+            }
+        return parser.mQueueRequests;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // hands each QueueRequest element to the parser of a new QueueRequestObject
+    private static class QueueRequestListParser extends DefaultHandler {
+        private final ArrayList<QueueRequestObject> mQueueRequests = new ArrayList<QueueRequestObject>();
+
+        private QueueRequestObjectParser mParser = null;
+
+        private int mLevel = -1;
+
+        // --------------------------------------------------
+        @Override
+        public void startElement(String namespaceURI, String localName, String qName,
+                Attributes atts) throws SAXException {
+
+            mLevel++;
+            if (mLevel == 0) {
+                if (!TAG_QUEUE_REQUESTS.equals(qName))
+                    throw new SAXException("Expected QueueRequests element here");
+                return;
+            }
+
+            if (mLevel == 1) {
+                if (!TAG_QUEUE_REQUEST.equals(qName))
+                    throw new SAXException("Expected QueueRequest element here");
+                QueueRequestObject queueRequest = new QueueRequestObject();
+                mQueueRequests.add(queueRequest);
+                mParser = queueRequest.new QueueRequestObjectParser();
+                mParser.startDocument();
+            }
+            mParser.startElement(namespaceURI, localName, qName, atts);
+        }
+
+        // --------------------------------------------------
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (mLevel-- > 0) {
+                mParser.endElement(uri, localName, qName);
+                if (mLevel == 0) {
+                    mParser.endDocument();
+                    mParser = null;
+                }
+            }
+        }
+
+        // --------------------------------------------------
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (mParser != null)
+                mParser.characters(ch, start, length);
+        }
+    }
+
     // ----------------------------------------------------------------------------------------------------------------------------------
     private class QueueRequestObjectParser extends DefaultHandler {
         private StringBuilder mContentBuilder;
@@ -30,7 +30,7 @@ public class QueueRequestProperties {
     };
 
     public static enum OptionalProperties {
-       REQPROP_POLICY, REQPROP_IMMEDIATE, REQPROP_PERMISSIONS_USER, REQPROP_PERMISSIONS_GROUP, REQPROP_PERMISSIONS_WORLD, REQPROP_GROUP, REQPROP_BROADCAST_INTENT
+       REQPROP_POLICY, REQPROP_IMMEDIATE, REQPROP_PERMISSIONS_USER, REQPROP_PERMISSIONS_GROUP, REQPROP_PERMISSIONS_WORLD, REQPROP_GROUP, REQPROP_BROADCAST_INTENT, REQPROP_SEGMENTS, REQPROP_DURABILITY, REQPROP_MIRROR_URIS
     };
 
     public static enum TransientProperties {
@@ -116,6 +116,9 @@ public class RULE_CONNECTION_TYPE extends RuleBase {
                 sMobileSession = false;               
             }
 
+            // a bandwidth limit only applies to mobile networks
+            WorkOrderManager.updateBandwidthThrottle();
+
             super.onReceive(arg0, arg1);
         } else if (ConnectivityManager.ACTION_BACKGROUND_DATA_SETTING_CHANGED.equals(arg1.getAction())) {
             sIsBackgroundDownloadEnabled = ((ConnectivityManager) arg0
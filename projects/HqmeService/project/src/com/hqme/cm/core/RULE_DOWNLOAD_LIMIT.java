@@ -53,7 +53,7 @@ public class RULE_DOWNLOAD_LIMIT extends RuleBase {
             // only care if the download would be over the mobile network
             try {
                 if (rule.getValue() != null) {                    
-                    Integer totalBytes = Integer.parseInt(rule.getValue());
+                    long totalBytes = Long.parseLong(rule.getValue());
                     return withinLimit(totalBytes, wo);
                 }
             } catch (Exception exec) {
@@ -64,7 +64,7 @@ public class RULE_DOWNLOAD_LIMIT extends RuleBase {
         return true;
     }
 
-    public boolean withinLimit(int bytes, WorkOrder wo) {
+    public boolean withinLimit(long bytes, WorkOrder wo) {
         try {            
             long mobileBytes = 0L;
             long bytesRemaining = 0L;
@@ -77,7 +77,7 @@ public class RULE_DOWNLOAD_LIMIT extends RuleBase {
                         - p.getProgressBytes();
             }
 
-            if ((long) (bytes) < (mobileBytes + bytesRemaining))
+            if (bytes < mobileBytes + bytesRemaining)
                 return false;
 
         } catch (Exception fault) {
@@ -102,7 +102,7 @@ public class RULE_DOWNLOAD_LIMIT extends RuleBase {
 
         boolean parsed = false;
         try {
-            Integer.parseInt(value);
+            Long.parseLong(value);
             parsed = true;
         } catch (NumberFormatException exec) {
             CmClientUtil.debugLog(getClass(), "A rule specified does not exist", exec);
@@ -3,7 +3,6 @@
 package com.hqme.cm.core;
 
 import android.content.Context;
-import android.content.Intent;
 
 import com.hqme.cm.util.CmClientUtil;
 import com.hqme.cm.util.CmDate;
@@ -70,14 +69,6 @@ public class RULE_MANDATORY_TIME extends RuleBase {
 
     }
     
-    @Override
-    public void onReceive(Context arg0, Intent arg1) {
-        if ((arg0.getPackageName() + ".MANDATORY_TIME_ALERT_START").equals(arg1.getAction()) || 
-                (arg0.getPackageName() + ".MANDATORY_TIME_ALERT_END").equals(arg1.getAction())) {
-            super.onReceive(arg0, arg1);
-        }
-    }
-
     // ----------------------------------------------------------------------------------------------------------------------------------
     public static RULE_MANDATORY_TIME getInstance() {
         return sRULE_MANDATORY_TIME;
@@ -285,21 +276,24 @@ public class RULE_MANDATORY_TIME extends RuleBase {
         return parsed;
     }
 
-    public static void createAlerts(String broadcastWindows, long woid ) {
-        
-        // multiple time periods per day may be specified
-        // if the current time lies within one of those, the rule overall is
-        // satisfied
-        if (broadcastWindows != null) {            
-            String periods[] = broadcastWindows.split("\\,");
-            int i=0;
-            for (String period : periods) {
-                // we know that the string is correctly formatted at this point
-                TimeWindow window = getInstance().new TimeWindow(period.trim());
-                WorkOrderManager.getInstance().broadcastMandatoryTimeAlert(window.startWindow,
-                        window.endWindow,i,woid);
-                i++;
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the next instant after now at which one of the windows in the rule value opens or closes,
+    // or -1 if every window has passed
+    //
+    public long getNextTransition(String value, long now) {
+        long next = -1;
+        if (value == null)
+            return next;
+
+        for (String period : value.split("\\,")) {
+            try {
+                TimeWindow window = new TimeWindow(period.trim());
+                next = earliestTransition(next, window.startWindow, now);
+                next = earliestTransition(next, window.endWindow, now);
+            } catch (Exception fault) {
+                CmClientUtil.debugLog(getClass(), "getNextTransition", fault);
             }
-        }        
+        }
+        return next;
     }
 }
\ No newline at end of file
@@ -45,13 +45,24 @@ public class RULE_TIME extends RuleBase {
 
     @Override
     public void onReceive(Context arg0, Intent arg1) {
-        if ((arg0.getPackageName() + ".UPDATE_TIME").equals(arg1.getAction())
-                | Intent.ACTION_TIMEZONE_CHANGED.equals(arg1.getAction())
+        final WorkOrderManager workOrderManager = WorkOrderManager.getInstance();
+        boolean isActive = workOrderManager != null && WorkOrderManager.isActive();
+
+        if ((arg0.getPackageName() + ".UPDATE_TIME").equals(arg1.getAction())) {
+            // the single time window alarm: only the work orders whose windows open or close now
+            // are evaluated again
+            if (isActive)
+                workOrderManager.onTimeWindowAlarm();
+            else
+                super.onReceive(arg0, arg1);
+        } else if (Intent.ACTION_TIMEZONE_CHANGED.equals(arg1.getAction())
                 | Intent.ACTION_TIME_CHANGED.equals(arg1.getAction())
                 | Intent.ACTION_DATE_CHANGED.equals(arg1.getAction())) {
-            super.onReceive(arg0, arg1);
-            
-            
+            // every scheduled transition has moved
+            if (isActive)
+                workOrderManager.onClockChanged();
+            else
+                super.onReceive(arg0, arg1);
         }
     }
 
@@ -180,6 +191,56 @@ public class RULE_TIME extends RuleBase {
     }
 
 
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the next instant after now at which one of the daily windows in the rule value opens or closes,
+    // or -1 if there is none (for example, when every window lasts the whole day)
+    //
+    public long getNextTransition(String value, long now) {
+        long next = -1;
+        if (value == null)
+            return next;
+
+        GregorianCalendar today = new GregorianCalendar();
+        today.setTimeInMillis(now);
+
+        for (String period : value.split("\\,")) {
+            String[] parts = period.trim().split("\\s+");
+            try {
+                int duration = parts.length > 1 ? duration(parts[1].trim()) : -1;
+                if (duration == sMaxDuration)
+                    continue;
+
+                GregorianCalendar startCal = CmDate.localizeTime(parts[0].trim());
+                startCal.set(Calendar.DATE, today.get(Calendar.DATE));
+                startCal.set(Calendar.MONTH, today.get(Calendar.MONTH));
+                startCal.set(Calendar.YEAR, today.get(Calendar.YEAR));
+
+                // yesterday's window may still be open; tomorrow's opens after today's has closed
+                for (int day = -1; day <= 1; day++) {
+                    GregorianCalendar windowCal = (GregorianCalendar) startCal.clone();
+                    windowCal.add(Calendar.DATE, day);
+                    long startWindow = windowCal.getTimeInMillis();
+
+                    if (duration >= 0)
+                        windowCal.add(Calendar.SECOND, duration);
+                    else {
+                        // the window ends at midnight, as in evaluateBetweenRule
+                        windowCal.set(Calendar.HOUR_OF_DAY, 0);
+                        windowCal.set(Calendar.MINUTE, 0);
+                        windowCal.add(Calendar.DATE, 1);
+                    }
+                    long endWindow = windowCal.getTimeInMillis();
+
+                    next = earliestTransition(next, startWindow, now);
+                    next = earliestTransition(next, endWindow, now);
+                }
+            } catch (Exception fault) {
+                CmClientUtil.debugLog(getClass(), "getNextTransition", fault);
+            }
+        }
+        return next;
+    }
+
     @Override
     public void init(Context context) {
         
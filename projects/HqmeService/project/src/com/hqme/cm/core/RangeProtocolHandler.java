@@ -0,0 +1,42 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import java.util.Date;
+
+/**
+ * RangeProtocolHandler is implemented by protocol handlers that can transfer a bounded byte range
+ * of the content. It allows a single package to be fetched as several concurrent segments.
+ *
+ */
+public interface RangeProtocolHandler extends ProtocolHandler {
+
+    /** Starts transfer of length bytes from offset only if the remote content is not modified since the given date.
+     * 
+     * @param offset
+     * @param length
+     * @param unmodifiedSince
+     * @return 0 on success. Error code otherwise.
+     * @throws ProtocolException  Thrown if an unrecoverable error occurs, or if the remote party ignores the range.
+     */
+    public int startTransfer(long offset, long length, Date unmodifiedSince) throws ProtocolException;
+}
@@ -59,7 +59,7 @@ abstract class RuleBase extends BroadcastReceiver {
         if (workOrderManager != null) {
             if (WorkOrderManager.isActive()) {
                 try {
-                    workOrderManager.mInciteHysteresisTask.resume(false);
+                    workOrderManager.notifyRuleChanged(this);
                 } catch (Exception fault) {
                     CmClientUtil.debugLog(getClass(), "onReceive", fault);
                 }
@@ -104,4 +104,17 @@ abstract class RuleBase extends BroadcastReceiver {
         return sInitialized;
     }
 
+    /**
+     * Helper for the time based rules, which report the next instant at which one of their
+     * windows opens or closes.
+     * 
+     * @return          the earlier of next and candidate, ignoring a candidate that is not after now
+     * and a next that is negative (none found yet)
+     */
+    protected static long earliestTransition(long next, long candidate, long now) {
+        if (candidate <= now)
+            return next;
+        return next < 0 || candidate < next ? candidate : next;
+    }
+
 }
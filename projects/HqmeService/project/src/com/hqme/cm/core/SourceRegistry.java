@@ -0,0 +1,126 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry of the sources being fetched and recently fetched by packages, keyed by source URI.
+ *
+ * A source is fetched by one package at a time; other packages that request it, of the same or of
+ * other work orders, wait for that download. Once it has completed, the content object it produced
+ * stands in for the source: a further package copies it within the VSD rather than downloading it
+ * again, as long as the Last-Modified and Content-Length of the remote content are unchanged.
+ */
+class SourceRegistry {
+    // ==================================================================================================================================
+    private static final SourceRegistry sInstance = new SourceRegistry();
+
+    // the most recently used completed sources that are remembered
+    private static final int MAX_COMPLETED_SOURCES = 256;
+
+    static class Source {
+        final int mStorageId;
+
+        final String mObjectName;
+
+        final long mLastModified;
+
+        final long mContentLength;
+
+        final String mValidityCheck;
+
+        Source(int storageId, String objectName, long lastModified, long contentLength, String validityCheck) {
+            mStorageId = storageId;
+            mObjectName = objectName;
+            mLastModified = lastModified;
+            mContentLength = contentLength;
+            mValidityCheck = validityCheck;
+        }
+
+        // whether the remote content, as described by its response headers, is the one that was fetched
+        boolean matches(Date lastModified, Long contentLength) {
+            return lastModified != null && lastModified.getTime() == mLastModified && contentLength != null
+                    && contentLength.longValue() == mContentLength;
+        }
+    }
+
+    private final HashMap<String, Package> mInFlight = new HashMap<String, Package>();
+
+    private final LinkedHashMap<String, Source> mCompleted = new LinkedHashMap<String, Source>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Source> eldest) {
+            return size() > MAX_COMPLETED_SOURCES;
+        }
+    };
+
+    private SourceRegistry() {
+    }
+
+    public static SourceRegistry getInstance() {
+        return sInstance;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // claim the source for the package; returns false while another package is fetching it
+    //
+    public synchronized boolean begin(String uri, Package pkg) {
+        Package fetchingPackage = mInFlight.get(uri);
+        if (fetchingPackage != null && fetchingPackage != pkg)
+            return false;
+
+        mInFlight.put(uri, pkg);
+        return true;
+    }
+
+    // release the claim of the package, remembering the content object it produced if the source was fetched
+    public synchronized void end(String uri, Package pkg, Source completed) {
+        if (mInFlight.get(uri) == pkg)
+            mInFlight.remove(uri);
+        if (completed != null)
+            mCompleted.put(uri, completed);
+        notifyAll();
+    }
+
+    // wait at most the given time for the source to be released; returns true if no package is fetching it
+    public synchronized boolean await(String uri, long millis) throws InterruptedException {
+        if (mInFlight.containsKey(uri))
+            wait(millis);
+        return !mInFlight.containsKey(uri);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized Source getCompleted(String uri) {
+        return mCompleted.get(uri);
+    }
+
+    // forget a completed source whose remote content has changed or whose content object cannot be copied
+    public synchronized void forget(String uri, Source source) {
+        if (mCompleted.get(uri) == source)
+            mCompleted.remove(uri);
+    }
+}
@@ -0,0 +1,215 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Hierarchical timer wheel of deadlines, keyed by work order database index.
+ *
+ * Four levels of 64 slots each cover about 194 days at a one second tick; later deadlines wait
+ * in an overflow set. Scheduling and cancelling are constant time, and advancing the wheel costs
+ * constant amortised time per tick and per deadline, since each deadline cascades down at most
+ * once per level. Each work order holds at most one deadline: its next time window transition, or
+ * the retry time of its hosts while it is parked, whichever is earlier.
+ */
+class TimerWheel {
+    // ==================================================================================================================================
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    private static class Timer {
+        final long mWorkOrderIndex;
+
+        final long mTick;
+
+        HashSet<Timer> mSlot;
+
+        Timer(long workOrderIndex, long tick) {
+            mWorkOrderIndex = workOrderIndex;
+            mTick = tick;
+        }
+    }
+
+    private final long mTickMillis;
+
+    private long mCurrentTick;
+
+    @SuppressWarnings("unchecked")
+    private final HashSet<Timer>[][] mWheel = new HashSet[LEVELS][SLOTS];
+
+    private final HashSet<Timer> mOverflow = new HashSet<Timer>();
+
+    private final HashMap<Long, Timer> mTimers = new HashMap<Long, Timer>();
+
+    TimerWheel(long tickMillis, long nowMillis) {
+        mTickMillis = tickMillis;
+        mCurrentTick = nowMillis / tickMillis;
+        for (int level = 0; level < LEVELS; level++)
+            for (int slot = 0; slot < SLOTS; slot++)
+                mWheel[level][slot] = new HashSet<Timer>();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // (re)schedule the deadline of the work order; returns false if the deadline has already passed,
+    // in which case the work order is not scheduled
+    //
+    public synchronized boolean schedule(long workOrderIndex, long deadlineMillis) {
+        cancel(workOrderIndex);
+
+        long tick = (deadlineMillis + mTickMillis - 1) / mTickMillis;
+        if (tick <= mCurrentTick)
+            return false;
+
+        Timer timer = new Timer(workOrderIndex, tick);
+        mTimers.put(workOrderIndex, timer);
+        insert(timer);
+        return true;
+    }
+
+    public synchronized boolean cancel(long workOrderIndex) {
+        Timer timer = mTimers.remove(workOrderIndex);
+        if (timer == null)
+            return false;
+        timer.mSlot.remove(timer);
+        return true;
+    }
+
+    public synchronized boolean isEmpty() {
+        return mTimers.isEmpty();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // forget every deadline and restart the wheel at the given time, for example after the clock was set
+    //
+    public synchronized void clear(long nowMillis) {
+        for (int level = 0; level < LEVELS; level++)
+            for (int slot = 0; slot < SLOTS; slot++)
+                mWheel[level][slot].clear();
+        mOverflow.clear();
+        mTimers.clear();
+        mCurrentTick = nowMillis / mTickMillis;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // advance the wheel to the given time, returning the work orders whose deadlines have passed
+    //
+    public synchronized ArrayList<Long> advance(long nowMillis) {
+        ArrayList<Long> expired = new ArrayList<Long>();
+        long nowTick = nowMillis / mTickMillis;
+
+        if (mTimers.isEmpty()) {
+            mCurrentTick = Math.max(mCurrentTick, nowTick);
+            return expired;
+        }
+
+        while (mCurrentTick < nowTick) {
+            mCurrentTick++;
+
+            // cascade the higher levels whose slot boundary has been reached, coarsest first
+            int level = 1;
+            while (level < LEVELS && (mCurrentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+                level++;
+            if (level == LEVELS)
+                cascade(mOverflow);
+            for (int l = level - 1; l > 0; l--)
+                cascade(mWheel[l][(int) (mCurrentTick >>> (SLOT_BITS * l)) & SLOT_MASK]);
+
+            HashSet<Timer> slot = mWheel[0][(int) mCurrentTick & SLOT_MASK];
+            for (Timer timer : slot) {
+                mTimers.remove(timer.mWorkOrderIndex);
+                expired.add(timer.mWorkOrderIndex);
+            }
+            slot.clear();
+
+            if (mTimers.isEmpty()) {
+                mCurrentTick = nowTick;
+                break;
+            }
+        }
+        return expired;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the earliest deadline in the wheel, or -1 if it is empty
+    //
+    public synchronized long getNextDeadline() {
+        if (mTimers.isEmpty())
+            return -1;
+
+        // within a level the slots are visited in time order, so only the first occupied slot of each
+        // level matters; a timer waiting to cascade may still be earlier than those of a lower level
+        long tick = earliest(mOverflow);
+        for (int level = 0; level < LEVELS; level++) {
+            long base = mCurrentTick >>> (SLOT_BITS * level);
+            for (int i = 1; i <= SLOTS; i++) {
+                HashSet<Timer> slot = mWheel[level][(int) (base + i) & SLOT_MASK];
+                if (!slot.isEmpty()) {
+                    tick = Math.min(tick, earliest(slot));
+                    break;
+                }
+            }
+        }
+        return tick * mTickMillis;
+    }
+
+    // ==================================================================================================================================
+    // the following are called while holding the lock
+    //
+    private void insert(Timer timer) {
+        // the finest level on which the deadline lies less than a full turn ahead, so that its
+        // slot is not cascaded before the deadline is reached
+        for (int level = 0; level < LEVELS; level++) {
+            long slotIndex = timer.mTick >>> (SLOT_BITS * level);
+            if (slotIndex - (mCurrentTick >>> (SLOT_BITS * level)) < SLOTS) {
+                timer.mSlot = mWheel[level][(int) slotIndex & SLOT_MASK];
+                timer.mSlot.add(timer);
+                return;
+            }
+        }
+        timer.mSlot = mOverflow;
+        mOverflow.add(timer);
+    }
+
+    private void cascade(HashSet<Timer> slot) {
+        if (slot.isEmpty())
+            return;
+        ArrayList<Timer> timers = new ArrayList<Timer>(slot);
+        slot.clear();
+        for (Timer timer : timers)
+            insert(timer);
+    }
+
+    private static long earliest(HashSet<Timer> slot) {
+        long tick = Long.MAX_VALUE;
+        for (Timer timer : slot)
+            tick = Math.min(tick, timer.mTick);
+        return tick;
+    }
+}
@@ -0,0 +1,87 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+/**
+ * Token bucket shared by the transfers it paces.
+ *
+ * Tokens accrue at the configured rate, in bytes per second, up to a burst of a quarter of a
+ * second. A transfer takes the tokens for the bytes it has just received and, if that leaves the
+ * bucket in debt, waits until the debt has been paid off. The transfers together therefore never
+ * exceed the rate by more than one burst, and each slows down smoothly instead of stopping. The
+ * rate can be changed at any time; waiting transfers pick up the new rate at once.
+ */
+class TokenBucket {
+    // ==================================================================================================================================
+    private static final long MIN_BURST = 4 * 1024;
+
+    // a rate of 0 or less leaves the transfers unpaced
+    private long mRate = 0;
+
+    private long mBurst = MIN_BURST;
+
+    private double mTokens = 0;
+
+    private long mRefillTime = System.nanoTime();
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized long getRate() {
+        return mRate;
+    }
+
+    public synchronized void setRate(long bytesPerSecond) {
+        if (bytesPerSecond == mRate)
+            return;
+
+        refill();
+        if (mRate <= 0)
+            mTokens = 0; // nothing was counted while unpaced
+        mRate = bytesPerSecond;
+        mBurst = Math.max(MIN_BURST, bytesPerSecond / 4);
+        mTokens = Math.min(mTokens, mBurst);
+        notifyAll();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // take the tokens for count bytes, waiting while the bucket is in debt
+    //
+    public synchronized void acquire(long count) throws InterruptedException {
+        if (mRate <= 0)
+            return;
+
+        refill();
+        mTokens -= count;
+        while (mRate > 0 && mTokens < 0) {
+            long waitMillis = (long) Math.ceil(-mTokens * 1000 / mRate);
+            wait(Math.max(1, waitMillis));
+            refill();
+        }
+    }
+
+    // ==================================================================================================================================
+    private void refill() {
+        long now = System.nanoTime();
+        if (mRate > 0)
+            mTokens = Math.min(mBurst, mTokens + (now - mRefillTime) * (double) mRate / 1000000000L);
+        mRefillTime = now;
+    }
+}
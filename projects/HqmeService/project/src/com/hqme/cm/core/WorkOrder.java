@@ -32,7 +32,6 @@ import com.hqme.cm.util.CmDate;
 import com.hqme.cm.util.CmNumber;
 import com.hqme.cm.util.CmProperties;
 
-import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -44,12 +43,18 @@ import org.xmlpull.v1.XmlSerializer;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -173,10 +178,9 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                 }
                 
                 // if RULE_MANDATORY_TIME has been set, use XPath to identify all instances 
-                // set an Alarm to be triggered at each of the start times
-                // set Mandatory is what gives this request a highest order priority - 
-                // not done if all periods have elapsed
-                setMandatory(issueMandatoryTimeAlerts(queueRequest.getProperty(QueueRequestObject.TAG_POLICY)));               
+                // set Mandatory is what gives this request a highest order priority; the
+                // WorkOrderManager schedules the opening and closing of the windows
+                setMandatory(hasMandatoryTimeRules(queueRequest.getProperty(QueueRequestObject.TAG_POLICY)));               
             } 
             catch (Exception exec) {
                 CmClientUtil
@@ -185,7 +189,7 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
         }
     }     
  
-    boolean issueMandatoryTimeAlerts(String policyString) {
+    boolean hasMandatoryTimeRules(String policyString) {
         if (policyString.length() == 0)
             return false;
         
@@ -200,70 +204,70 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
         XPathFactory factory = XPathFactory.newInstance();
         XPath xpath = factory.newXPath(); 
         XPathExpression expression = null;  
-        boolean alertsCreated = false;
+        boolean hasRules = false;
         try {
                                 
             expression = xpath.compile(expressionString);
             InputSource is2 = new InputSource(new StringReader(policyString)); 
             NodeList ruleNodes = (NodeList) expression.evaluate(is2,XPathConstants.NODESET);
-            if (ruleNodes.getLength() > 0) {
-                
-                for (int i = 0; i < ruleNodes.getLength(); i++) {
-                        Element element = (Element)ruleNodes.item(i);
-                        RULE_MANDATORY_TIME.createAlerts(element.getTextContent(),this.getDbIndex());
-                        alertsCreated = true;
-                }                               
-            } 
+            hasRules = ruleNodes.getLength() > 0;
         } catch (XPathExpressionException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
     
-        return alertsCreated;
+        return hasRules;
     }
 
-    void cancelMandatoryTimeAlerts() {
-        
-        if (mPolicy.toString().length() == 0)
-            return;
-        
-        // get the mProperties(REQPROP_POLICY) string
-        // use Xpath request for all defined Mandatory rules: 
-        // get NodeSet /Policy/Rule/Property[@name="RULE_MANDATORY_TIME"]
-        
-        // get the string corresponding to the value of that Property
-        
-        
-        String expressionString = "/Policy/Rule/Property[@key=\"RULE_MANDATORY_TIME\"]";
-        
-        // does it have a priority rule and what is the first priority value in that rule?
-        XPathFactory factory = XPathFactory.newInstance();
-        XPath xpath = factory.newXPath(); 
-        XPathExpression expression = null;  
-        try {
-                                
-            expression = xpath.compile(expressionString);
-            InputSource is2 = new InputSource(new StringReader(mPolicy.toString())); 
-            NodeList ruleNodes = (NodeList) expression.evaluate(is2,XPathConstants.NODESET);
-            if (ruleNodes.getLength() > 0) {                
-                for (int i = 0; i < ruleNodes.getLength(); i++) {
-                        // just cancel it
-                    WorkOrderManager.getInstance().cancelMandatoryTimeAlert(i, this.getDbIndex());
-                }                               
-            }
-        } catch (XPathExpressionException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the next instant after now at which one of the RULE_TIME or RULE_MANDATORY_TIME windows of
+    // the policy opens or closes, or -1 if there is none
+    //
+    long getNextTimeWindowTransition(long now) {
+        long next = -1;
+        if (mPolicy == null)
+            return next;
+
+        for (Rule rule : mPolicy.getRules(RULE_TIME.class.getSimpleName())) {
+            long transition = RULE_TIME.getInstance().getNextTransition(rule.getValue(), now);
+            if (transition > 0 && (next < 0 || transition < next))
+                next = transition;
         }
-            
+        for (Rule rule : mPolicy.getRules(RULE_MANDATORY_TIME.class.getSimpleName())) {
+            long transition = RULE_MANDATORY_TIME.getInstance().getNextTransition(rule.getValue(), now);
+            if (transition > 0 && (next < 0 || transition < next))
+                next = transition;
+        }
+        return next;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the work order is parked while every host of the next package to fetch is backing off, see HostRetryScheduler;
+    // returns the time at which one of them may be tried again, or -1 if one may be tried now
+    //
+    long getRetryTime(long now) {
+        Package pkg = getNextPackage();
+        return pkg == null ? -1 : HostRetryScheduler.getInstance().getRetryTime(pkg.getMirrorUris(), now);
+    }
+
+    // reserve a host of the next package to fetch; false if the work order has to be parked
+    private boolean acquireHosts() {
+        Package pkg = getNextPackage();
+        return pkg == null || HostRetryScheduler.getInstance().tryAcquire(pkg.getMirrorUris());
+    }
+
+    private Package getNextPackage() {
+        ArrayList<Package> packages = getPackages();
+        for (int i = Math.max(0, getPackagesIndex()); i < packages.size(); i++)
+            if (!packages.get(i).getCompleted())
+                return packages.get(i);
+        return null;
     }
 
     // ==================================================================================================================================
-    protected void processBegin(Application hostApp, PriorityBlockingQueue<WorkOrder> wo_queue) throws InterruptedException {
+    protected void processBegin(Application hostApp, WorkOrderQueue wo_queue) throws InterruptedException {
         final String tag_LogLocal = sTag_Log + ".processBegin";
 
-        WorkOrderManager.setDownloadRate(0L);
-        
         if (getDbIndex() > 0)
             switch (getOrderAction()) {
                 // --------------------------------------------------
@@ -304,6 +308,7 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                         CmClientUtil.debugLog(getClass(), tag_LogLocal,
                                 "DELETING work order # %d from the data base.", getDbIndex());
                         HQME.WorkOrder.delete(hostApp.getApplicationContext(), getDbIndex());
+                        WorkOrderManager.notifyWorkOrderDeleted(getDbIndex());
                     } catch (Exception fault) {
                         CmClientUtil.debugLog(getClass(), tag_LogLocal
                                 + " @ case CANCELING mWorkOrder_db.deleteRecord", fault);
@@ -354,6 +359,12 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                                     || WorkOrderManager.getInstance()
                                             .isHighestPriorityExecutableRequest(
                                                     getRelativePriority(), getClientUid())) {
+                                if (!acquireHosts()) {
+                                    // every host of the next package is backing off
+                                    setQueueRequestStateWithNotify(QueueRequestState.BLOCKED);
+                                    WorkOrderManager.parkWorkOrder(this);
+                                    return;
+                                }
                                 resume(); // synchronous blocking call, returns
                                           // only
                                 return;
@@ -412,15 +423,25 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
     }
     
     // ----------------------------------------------------------------------------------------------------------------------------------
-    private void processEnd(Application hostApp, PriorityBlockingQueue<WorkOrder> wo_queue) {
+    private void processEnd(Application hostApp, WorkOrderQueue wo_queue) {
         final String tag_LogLocal = sTag_Log + ".processEnd";
         final long workOrderIndex = getDbIndex();
 
-        WorkOrderManager.setDownloadRate(0L);
-        
         switch (getOrderAction()) {
             // --------------------------------------
             case EXECUTING:
+                // a failure of the hosts is not held against the work order: it is parked until they may be
+                // tried again, instead of being queued again at once
+                if (getRetryTime(System.currentTimeMillis()) > 0) {
+                    synchronized (wo_queue) {
+                        setStateWithNotify(Action.RESUMING,QueueRequestState.BLOCKED);
+                    }
+                    WorkOrderManager.parkWorkOrder(this);
+                    CmClientUtil.debugLog(getClass(), tag_LogLocal,
+                            "PARKED work order # %d until its hosts may be tried again.", workOrderIndex);
+                    break;
+                }
+
                 int attemptNumber = getAttemptNumber() + 1;
                 synchronized (wo_queue) {
                     if (attemptNumber > WorkOrderManager.MAX_EXECUTE_FAILURES)
@@ -441,9 +462,8 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                 
                 // this sends an optional broadcast intent to a receiver specified by the client application
                 WorkOrderManager.broadcastProgressUpdate(this);                
-                // Cancel Mandatory time alerts if any   
-                if (this.getMandatory())
-                    this.cancelMandatoryTimeAlerts();
+                // no time window transitions are of interest any more
+                WorkOrderManager.cancelTimeWindow(this);
                 
                 // if this work order had a relative priority, incite the queue
                 // to re-execute, in case there are pending work order blocked on the basis
@@ -523,6 +543,7 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
         int packagesIndex = -1;
         long workOrderIndex = -1;
         int progressPercent = -1;
+        boolean isBandwidthMonitored = false;
 
         synchronized (this) {
             isActive = true;
@@ -548,8 +569,8 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                         "Resuming work order # %d @ package # %d of %d", workOrderIndex,
                         packagesIndex + 1, packages.size());
 
-            //  bandwidth monitoring should be enabled if necessary
-            WorkOrderManager.enableBandwidthMonitor();
+            //  the transfers are paced if the policy limits the bandwidth
+            isBandwidthMonitored = WorkOrderManager.enableBandwidthThrottle(this);
             
         }
         // ------------------------------
@@ -557,32 +578,21 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
         // ------------------------------
         if (packagesIndex >= packages.size()) {            
             setStateWithNotify(Action.COMPLETED,QueueRequestState.COMPLETED);            
-        } else
-            while (packagesIndex < packages.size()
-                    && downloadPackage(packages.get(setPackagesIndex(packagesIndex++)))) {
-                if (packagesIndex == packages.size()) // ensures last element
-                // success = 100%
-                // completion (that is to say,
-                // downloads intentionally
-                // never exceed 99%
-                // complete)
-                {
-                    setProgressPercent(progressPercent = 100);                    
-                    setStateWithNotify(Action.COMPLETED,QueueRequestState.COMPLETED);
-                }
-                CmClientUtil.debugLog(getClass(), tag_LogLocal,
-                        "Downloaded %s : %d%% of work order # %d completed.", packages.get(
-                                packagesIndex - 1).getSourceLocalPath(), progressPercent,
-                        workOrderIndex);
-            }
+        } else if (downloadPackages(packages, packagesIndex)) {
+            // success = 100% completion (that is to say, downloads
+            // intentionally never exceed 99% complete)
+            setProgressPercent(progressPercent = 100);                    
+            setStateWithNotify(Action.COMPLETED,QueueRequestState.COMPLETED);
+        }
         // ------------------------------
         // Unsynchronized Section End
         // ------------------------------
         synchronized (this) {
             try {
                 isActive = false;          
-                //  bandwidth monitoring should be disabled if necessary
-                WorkOrderManager.disableBandwidthMonitor();                              
+                //  the pacing ends with the execution
+                if (isBandwidthMonitored)
+                    WorkOrderManager.disableBandwidthThrottle(this);                              
                 CmClientUtil.debugLog(getClass(), tag_LogLocal, "Leaving work order # %d",
                         workOrderIndex);
                 notifyAll();
@@ -613,8 +623,7 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                             "Suspended work order processing.");
                     return;
                 } catch (InterruptedException fault) {
-                    if (mHandler != null)
-                        mHandler.stopTransfer();
+                    stopTransfers();
 
                     CmClientUtil.debugLog(getClass(), tag_LogLocal + "("
                             + (abort ? "abort" : "save") + ")", fault);
@@ -646,8 +655,7 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                             "Disabled work order processing.");
                     return;
                 } catch (InterruptedException fault) {
-                    if (mHandler != null)
-                        mHandler.stopTransfer();
+                    stopTransfers();
 
                     CmClientUtil.debugLog(getClass(), tag_LogLocal + "("
                             + ("save") + ")", fault);
@@ -755,21 +763,157 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
         return mLastNotifyTime;
     }
 
-    private ProtocolHandler mHandler = null;
+    // handlers of the packages currently being downloaded, so that a suspend can abort all of them
+    private final CopyOnWriteArrayList<ProtocolHandler> mHandlers = new CopyOnWriteArrayList<ProtocolHandler>();
 
     private boolean isStopDownloadRequested() {
         // stop requested when isActive and order action changes
-        return isActive && (mHandler != null) && !Action.EXECUTING.equals(getOrderAction()); 
+        return isActive && !mHandlers.isEmpty() && !Action.EXECUTING.equals(getOrderAction()); 
+    }
+
+    private void stopTransfers() {
+        for (ProtocolHandler handler : mHandlers)
+            handler.stopTransfer();
+    }
+
+    // ==================================================================================================================================
+    // packages are downloaded through a bounded pipeline, so that the connection setup and content object creation
+    // of one package overlap the transfer of others. Packages may complete out of order: each is marked completed,
+    // and the packages index only advances past the completed prefix, so a resumed work order skips completed
+    // packages and restarts from the first incomplete one.
+    //
+    private static final int MAX_PIPELINED_PACKAGES = 3;
+
+    private boolean downloadPackages(final ArrayList<Package> packages, int packagesIndex) {
+        final String tag_LogLocal = "downloadPackages";
+
+        final AtomicInteger nextPackagesIndex = new AtomicInteger(packagesIndex);
+        final AtomicBoolean isFailed = new AtomicBoolean(false);
+
+        Runnable pipelineStage = new Runnable() {
+            public void run() {
+                int index;
+                while (!isFailed.get() && (index = nextPackagesIndex.getAndIncrement()) < packages.size()) {
+                    Package pkg = packages.get(index);
+                    if (pkg.getCompleted())
+                        continue;
+
+                    if (!downloadPackage(pkg)) {
+                        isFailed.set(true);
+                        break;
+                    }
+
+                    synchronized (WorkOrder.this) {
+                        pkg.setCompleted(true);
+                        int completedIndex = getPackagesIndex();
+                        while (completedIndex < packages.size() && packages.get(completedIndex).getCompleted())
+                            completedIndex++;
+                        setPackagesIndex(Math.min(completedIndex, packages.size() - 1));
+                    }
+                    CmClientUtil.debugLog(getClass(), tag_LogLocal,
+                            "Downloaded %s : %d%% of work order # %d completed.", pkg.getSourceLocalPath(),
+                            getProgressPercent(), getDbIndex());
+                }
+            }
+        };
+
+        int stages = Math.min(MAX_PIPELINED_PACKAGES, packages.size() - packagesIndex);
+        ArrayList<Future<?>> pipeline = new ArrayList<Future<?>>(stages);
+        for (int i = 1; i < stages; i++)
+            pipeline.add(WorkOrderManager.submitTransfer(pipelineStage));
+        // the calling thread is the first stage of the pipeline
+        pipelineStage.run();
+
+        for (Future<?> stage : pipeline)
+            awaitTransfer(stage);
+
+        if (isFailed.get())
+            return false;
+        for (int i = packagesIndex; i < packages.size(); i++)
+            if (!packages.get(i).getCompleted())
+                return false;
+        return true;
     }
 
+    // wait for a transfer submitted to WorkOrderManager; an interrupt means a suspend is pending, and the transfer
+    // stops as soon as it sees the action change, so the interrupt is only passed on once it has
+    private static void awaitTransfer(Future<?> transfer) {
+        boolean interrupted = false;
+        while (true)
+            try {
+                transfer.get();
+                break;
+            } catch (InterruptedException fault) {
+                interrupted = true;
+            } catch (ExecutionException fault) {
+                CmClientUtil.debugLog(WorkOrder.class, "awaitTransfer", fault.getCause());
+                break;
+            }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // ==================================================================================================================================
+    // a source is fetched by one package at a time: packages of this or other work orders that request the same URI
+    // wait for it, and a package whose source was fetched before copies that content object within the VSD
+    //
+    private static final long SOURCE_WAIT_MILLIS = 1000;
+
     protected boolean downloadPackage(Package pkg) {
         final String tag_LogLocal = "downloadPackage";
 
+        String sourceUri = pkg.getSourceUri().toString();
+        SourceRegistry sources = SourceRegistry.getInstance();
+        try {
+            while (!sources.begin(sourceUri, pkg)) {
+                if (!Action.EXECUTING.equals(getOrderAction())) {
+                    CmClientUtil.debugLog(getClass(), tag_LogLocal,
+                            "Cooperatively aborting download while %s is fetched by another package...", sourceUri);
+                    return false;
+                }
+                sources.await(sourceUri, SOURCE_WAIT_MILLIS);
+            }
+        } catch (InterruptedException fault) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        SourceRegistry.Source fetchedSource = null;
+        try {
+            if (!fetchPackage(pkg, sources.getCompleted(sourceUri)))
+                return false;
+            recordValidators(pkg);
+
+            // only content identified by both its modification time and its length can stand in for the source
+            if (!CmDate.EPOCH.equals(pkg.getModified()) && pkg.getContentSize() > 0)
+                fetchedSource = new SourceRegistry.Source(getStorageId(), getObjectName(pkg), pkg.getModified()
+                        .getTime(), pkg.getContentSize(), pkg.getValidityCheck());
+            return true;
+        } finally {
+            sources.end(sourceUri, pkg, fetchedSource);
+        }
+    }
+
+    private boolean fetchPackage(Package pkg, SourceRegistry.Source sharedSource) {
+        final String tag_LogLocal = "fetchPackage";
+
+        ProtocolHandler handler = null;
+
         InputStream responseStream = null;
 
         IContentObject targetObject = null;
 
-        int numRetries = 1; // maximum number of times to re-try the mRequest
+        // the mirrors of the package are tried fastest first; one that fails, or falls well behind another, gives way
+        // to the next, which resumes from the progress saved so far
+        ArrayList<String> mirrors = pkg.getMirrorUris();
+        MirrorSelector selector = MirrorSelector.getInstance();
+        if (mirrors.size() > 1)
+            selector.probe(mirrors);
+        String mirror = null;
+        ArrayList<String> failedMirrors = new ArrayList<String>();
+        int mirrorSwitches = 0;
+
+        int numRetries = Math.max(1, mirrors.size()); // maximum number of times to re-try the mRequest
         // before giving up
         
         while (numRetries-- >= 0) {
@@ -780,71 +924,116 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                     return false;
                 }
 
+                // once every host has failed, the work order waits for HostRetryScheduler rather than retrying at once
+                if (!failedMirrors.isEmpty()
+                        && HostRetryScheduler.getInstance().getRetryTime(mirrors, System.currentTimeMillis()) > 0) {
+                    CmClientUtil.debugLog(getClass(), tag_LogLocal, "Hosts of %s are backing off", pkg.getSourceUri());
+                    return false;
+                }
+
                 
                 // Implementation Note: Currently Uri is a required field, and selection of 
                 // the ProtocolHandler is based on this alone.
                 // Future implementations of the ProtocolManager will select a ProtocolHandler based on
                 // both the MIME type and, if-defined, the Uri of the Request.                 
-                mHandler = ProtocolManager.getInstance().getProtocolHandler(
-                        pkg.getSourceUri().toString());
-                mHandler.intitializeRequest(pkg.getSourceUri().toString());
+                ArrayList<String> ranked = selector.rank(mirrors);
+                ranked.removeAll(failedMirrors);
+                mirror = ranked.isEmpty() ? selector.rank(mirrors).get(0) : ranked.get(0);
+                handler = ProtocolManager.getInstance().getProtocolHandler(mirror);
+                handler.intitializeRequest(mirror);
+                mHandlers.add(handler);
+
+                boolean isStarted = false;
+                if (pkg.getProgressBytes() == 0 && pkg.getCompletedSegments().isEmpty()) {
+                    int status = revalidateTargetObject(pkg, handler);
+                    if (status == ConditionalProtocolHandler.TRANSFER_NOT_MODIFIED)
+                        return true;
+                    isStarted = status == 0;
 
+                    if (!isStarted && sharedSource != null) {
+                        if (copySharedSource(pkg, handler, sharedSource))
+                            return true;
+                        SourceRegistry.getInstance().forget(pkg.getSourceUri().toString(), sharedSource);
+                        sharedSource = null;
+                    }
+                }
+
+                if (isSegmentedDownload(pkg, handler)) {
+                    // the segments use their own handlers; this one only marks the download as active
+                    if (isStarted)
+                        handler.stopTransfer();
+                    targetObject = getTargetObject(pkg);
+                    return targetObject != null && downloadPackageSegments(pkg, targetObject, selector.rankForSegments(mirrors));
+                }
+
+                if (!pkg.getCompletedSegments().isEmpty()) {
+                    // the segment layout no longer applies; fetch the package again over a single stream
+                    pkg.setCompletedSegments(null);
+                    pkg.setProgressBytes(0L);
+                }
+
+                alignDigestState(pkg);
                 try {
-                    mHandler.startTransfer(pkg.getProgressBytes().intValue(), pkg.getModified());
+                    if (!isStarted)
+                        handler.startTransfer(pkg.getProgressBytes().longValue(), pkg.getModified());
                 } catch (ProtocolException e) {
-                    pkg.setProgressBytes(0L); // retry from the beginning
+                    failedMirrors.add(mirror);
+                    if (HostRetryScheduler.isHostFailure(e))
+                        selector.recordFailure(mirror);
+                    if (isContentChanged(e))
+                        pkg.setProgressBytes(0L); // retry from the beginning
                     CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ " + e.getMessage(),
                             "Restarting download (%s)", numRetries == 1 ? "final attempt"
                                     : numRetries + " attempts remaining");
                     continue;
                 }
 
-                if (mHandler.getLastModified() != null)
-                    pkg.setModified(CmDate.valueOf(mHandler.getLastModified()));
+                if (handler.getLastModified() != null)
+                    pkg.setModified(CmDate.valueOf(handler.getLastModified()));
 
                 // Obtain Content-Length ONLY on first-download mRequest (it's the REMAINING 
                 // mContent length for progressive byte-range downloads) 
                 if (pkg.getProgressBytes() == 0) 
                 {
-                    if (mHandler.getContentLength() != null)
-                        pkg.setContentSize(mHandler.getContentLength());
+                    if (handler.getContentLength() != null)
+                        pkg.setContentSize(handler.getContentLength());
+                    if (handler instanceof ConditionalProtocolHandler)
+                        pkg.setEntityTag(((ConditionalProtocolHandler) handler).getEntityTag());
                 }
 
-                responseStream = new ProtocolHandlerInputStream(mHandler);
+                responseStream = new ProtocolHandlerInputStream(handler);
 
-                IVSD store = null;
-                
-                // TODO: store to be indicated in work order - for first release we only support single store                
-                store = WorkOrderManager.getContentProxy() != null ? (WorkOrderManager
-                        .getContentProxy().VSDCount() > 0 ? WorkOrderManager
-                        .getContentProxy().getStorage(getStorageId()) : null) : null;
-                        
-                    
-                if (store == null) {
-                    CmClientUtil.debugLog(getClass(), tag_LogLocal,
-                    "Ohh - No VSD satisfying the function group and max size rules is available right now");
-                }  else {
-                    
-                    if (pkg.getProgressBytes() == 0) {
-                        // create new cache object and assign relevant QueueRequest properties to it 
-                        targetObject = store.createObject(this.getClientUid() + ":/" + pkg.getSourceLocalPath());                        
-                        assignObjectProperties(targetObject,pkg);
-                    } else {
-                        targetObject = store.getObject(this.getClientUid() + ":/" + pkg.getSourceLocalPath());
+                targetObject = getTargetObject(pkg);
+                if (targetObject != null) {
+                    MirrorSelector.Meter meter = selector.newMeter(mirror, mirrors, WorkOrderManager.getBandwidthThrottle());
+                    if (savePackage(pkg, handler, responseStream, targetObject, meter)) {
+                        HostRetryScheduler.getInstance().recordSuccess(mirror);
+                        return true;
                     }
-                    return savePackage(pkg, responseStream, targetObject);
+                    if (isStopDownloadRequested() || mirrors.size() == 1)
+                        return false;
+
+                    if (meter.isSwitchRequested()) {
+                        if (++mirrorSwitches > mirrors.size())
+                            return false;
+                        numRetries++; // moving to a faster mirror is not a failed attempt
+                    } else
+                        failedMirrors.add(mirror);
+                    CmClientUtil.debugLog(getClass(), tag_LogLocal, "Leaving %s at %d bytes", mirror,
+                            pkg.getProgressBytes());
                 }
             } catch (Throwable fault) {
                 CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
             } finally {
-                if (mHandler != null)
+                if (handler != null)
                     try {
-                        mHandler.stopTransfer();
+                        handler.stopTransfer();
                     } catch (Exception fault) {
                         CmClientUtil.debugLog(getClass(),
-                                tag_LogLocal + " @ mHandler.stopTransfer", fault);
+                                tag_LogLocal + " @ handler.stopTransfer", fault);
                     } finally {
-                        mHandler = null;
+                        mHandlers.remove(handler);
+                        handler = null;
                     }
 
                 if (responseStream != null)
@@ -873,6 +1062,204 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
         return false;
     }
 
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the content object the package is written to, created on the first attempt; null if no VSD is available
+    //
+    private IContentObject getTargetObject(Package pkg) throws RemoteException {
+        final String tag_LogLocal = "getTargetObject";
+
+        IVSD store = getStore();
+        if (store == null) {
+            CmClientUtil.debugLog(getClass(), tag_LogLocal,
+            "Ohh - No VSD satisfying the function group and max size rules is available right now");
+            return null;
+        }
+
+        IContentObject targetObject = null;
+        if (pkg.getProgressBytes() == 0 && pkg.getCompletedSegments().isEmpty()) {
+            // create new cache object and assign relevant QueueRequest properties to it 
+            targetObject = store.createObject(getObjectName(pkg));                        
+            assignObjectProperties(targetObject,pkg);
+        } else {
+            targetObject = store.getObject(getObjectName(pkg));
+        }
+        return targetObject;
+    }
+
+    private String getObjectName(Package pkg) {
+        return this.getClientUid() + ":/" + pkg.getSourceLocalPath();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // a fresh package whose content object holds a complete earlier fetch of the same source asks for the content only
+    // if it has changed since; returns TRANSFER_NOT_MODIFIED if the content object is current and is kept, 0 if the
+    // transfer of the changed content has started, and -1 if there is nothing to revalidate
+    //
+    private int revalidateTargetObject(Package pkg, ProtocolHandler handler) throws RemoteException, ProtocolException {
+        final String tag_LogLocal = "revalidateTargetObject";
+
+        if (!(handler instanceof ConditionalProtocolHandler))
+            return -1;
+        IVSD store = getStore();
+        IContentObject cachedObject = store == null ? null : store.getObject(getObjectName(pkg));
+        if (cachedObject == null)
+            return -1;
+
+        try {
+            // the validators are only recorded once the content object is complete
+            String entityTag = cachedObject.getProperty(VSDProperties.OptionalProperty.S_ENTITY_TAG.name());
+            String lastModified = cachedObject.getProperty(VSDProperties.OptionalProperty.S_LAST_MODIFIED.name());
+            if (entityTag == null && lastModified == null)
+                return -1;
+            if (!pkg.getSourceUri().toString().equals(cachedObject.getProperty(VSDProperties.SProperty.S_SOURCEURI.name())))
+                return -1;
+            String validityCheck = pkg.getValidityCheck();
+            if (ContentDigest.forExpectedValue(validityCheck) != null
+                    && !validityCheck.equals(cachedObject.getProperty(VSDProperties.OptionalProperty.S_VALIDITYCHECK.name())))
+                return -1;
+            long size = cachedObject.size();
+            if (size < 0)
+                return -1;
+
+            // a changed content continues as the download, and only its reported length lets it be shared once fetched
+            setContentEncodingAccepted(handler, false);
+            int status = ((ConditionalProtocolHandler) handler).startTransfer(entityTag,
+                    lastModified == null ? null : CmDate.valueOf(lastModified));
+            if (status != ConditionalProtocolHandler.TRANSFER_NOT_MODIFIED)
+                return status;
+
+            synchronized (pkg) {
+                if (lastModified != null)
+                    pkg.setModified(CmDate.valueOf(lastModified));
+                pkg.setEntityTag(entityTag);
+                pkg.setContentSize(size);
+                pkg.setProgressBytes(size);
+            }
+            assignObjectProperties(cachedObject, pkg);
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, "%s has not changed since it was fetched",
+                    pkg.getSourceLocalPath());
+            return status;
+        } finally {
+            cachedObject.close();
+        }
+    }
+
+    // the validators of a completed package are kept with its content object, so that a later request for the same
+    // object revalidates it rather than downloading it again
+    private void recordValidators(Package pkg) {
+        final String tag_LogLocal = "recordValidators";
+
+        IContentObject targetObject = null;
+        try {
+            IVSD store = getStore();
+            if (store == null || (targetObject = store.getObject(getObjectName(pkg))) == null)
+                return;
+
+            if (!"".equals(pkg.getEntityTag()))
+                targetObject.setProperty(VSDProperties.OptionalProperty.S_ENTITY_TAG.name(), pkg.getEntityTag());
+            if (!CmDate.EPOCH.equals(pkg.getModified()))
+                targetObject.setProperty(VSDProperties.OptionalProperty.S_LAST_MODIFIED.name(), pkg.getModified()
+                        .toString());
+        } catch (Throwable fault) {
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+        } finally {
+            if (targetObject != null)
+                try {
+                    targetObject.close();
+                } catch (Exception fault) {
+                    CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ targetObject.close", fault);
+                }
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // copy the content object of a source fetched before, if the response headers show that the remote content has
+    // not changed since; false if the package is to be downloaded instead. The VSD may share the stored data of the
+    // two content objects rather than copy it
+    //
+    private boolean copySharedSource(Package pkg, ProtocolHandler handler, SourceRegistry.Source source) {
+        final String tag_LogLocal = "copySharedSource";
+
+        // only the headers are needed to tell whether the source has changed
+        if (!(handler instanceof ConditionalProtocolHandler))
+            return false;
+        // the copy has to land on the VSD selected for this work order, and to have been checked as this package asks
+        if (source.mStorageId != getStorageId())
+            return false;
+        String validityCheck = pkg.getValidityCheck();
+        if (ContentDigest.forExpectedValue(validityCheck) != null && !validityCheck.equals(source.mValidityCheck))
+            return false;
+
+        IContentObject targetObject = null;
+        try {
+            ((ConditionalProtocolHandler) handler).queryHeaders();
+            if (!source.matches(handler.getLastModified(), handler.getContentLength())) {
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, "%s has changed since it was fetched",
+                        pkg.getSourceUri());
+                return false;
+            }
+
+            IVSD store = getStore();
+            if (store == null)
+                return false;
+            targetObject = store.copyObject(source.mObjectName, getObjectName(pkg));
+            if (targetObject == null) {
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, "Unable to copy %s", source.mObjectName);
+                return false;
+            }
+            long size = targetObject.size();
+            if (size != source.mContentLength) {
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, "%s holds %d of %d bytes", source.mObjectName,
+                        size, source.mContentLength);
+                return false;
+            }
+
+            synchronized (pkg) {
+                pkg.setModified(new CmDate(source.mLastModified));
+                pkg.setEntityTag(((ConditionalProtocolHandler) handler).getEntityTag());
+                pkg.setContentSize(size);
+                pkg.setProgressBytes(size);
+            }
+            assignObjectProperties(targetObject, pkg);
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, "Copied %s from %s instead of downloading it",
+                    pkg.getSourceLocalPath(), source.mObjectName);
+            return true;
+        } catch (Throwable fault) {
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+            return false;
+        } finally {
+            if (targetObject != null)
+                try {
+                    targetObject.close();
+                } catch (Exception fault) {
+                    CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ targetObject.close", fault);
+                }
+        }
+    }
+
+    private IVSD getStore() throws RemoteException {
+        // TODO: store to be indicated in work order - for first release we only support single store                
+        return WorkOrderManager.getContentProxy() != null ? (WorkOrderManager
+                .getContentProxy().VSDCount() > 0 ? WorkOrderManager
+                .getContentProxy().getStorage(getStorageId()) : null) : null;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the durability the request asks for, else the one configured for the VSD, else synchronous writes
+    //
+    private Durability getDurability(Package pkg) {
+        Durability durability = Durability.valueOf(pkg.getDurability());
+        if (durability == null)
+            try {
+                IVSD store = getStore();
+                if (store != null)
+                    durability = Durability.valueOf(store.getProperty(Durability.VS_DURABILITY));
+            } catch (RemoteException fault) {
+                CmClientUtil.debugLog(getClass(), "getDurability", fault);
+            }
+        return durability == null ? Durability.SYNCHRONOUS : durability;
+    }
+
     private void assignObjectProperties(IContentObject targetObject, Package pkg) throws RemoteException {
         
         targetObject.setProperty(VSDProperties.SProperty.S_NAME.name(), pkg.getSourceLocalPath());
@@ -914,57 +1301,424 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
             targetObject.setProperty(VSDProperties.OptionalProperty.S_RIGHTSCHECK.name(), pkg.properties.get(VSDProperties.OptionalProperty.S_RIGHTSCHECK.name()));                                                      
     }
 
-    private boolean savePackage(Package pkg, InputStream responseStream, IContentObject targetObject) {
+    // bytes moved per channel transfer, between which progress is published and a stop request is honoured
+    private static final long TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // a failed start that leaves the partial content useless: the remote content has changed, or the range cannot be served
+    //
+    private static boolean isContentChanged(ProtocolException fault) {
+        switch (fault.getError()) {
+            case ERR_HTTP_PRECONDITION_FAILED:
+            case ERR_HTTP_RANGE_NOT_SATISFIABLE:
+            case ERR_HTTP_RANGE_IGNORED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void setContentEncodingAccepted(ProtocolHandler handler, boolean isAccepted) {
+        if (handler instanceof EncodingProtocolHandler)
+            ((EncodingProtocolHandler) handler).setContentEncodingAccepted(isAccepted);
+    }
+
+    // the meter measures the mirror the content comes from; the save stops early once it asks to switch mirrors
+    private boolean savePackage(Package pkg, ProtocolHandler handler, InputStream responseStream, IContentObject targetObject,
+            MirrorSelector.Meter meter) {
         final String tag_LogLocal = "savePackage";
         boolean success = true;
+        ContentObjectWriter writer = null;
+        BufferRing ring = null;
+        long offset = pkg.getProgressBytes();
+
+        // the digest continues from the saved state, which alignDigestState has matched with the progress
+        String validityCheck = pkg.getValidityCheck();
+        ContentDigest digest = ContentDigest.forExpectedValue(validityCheck);
+        if (digest != null && offset > 0 && (digest = ContentDigest.fromState(pkg.getDigestState())) == null)
+            return false;
         try {
-            int count;
-            byte[] buffer = newPoliteBuffer(64 * 1024);
-            targetObject.open("rws", true);
-            long offset = pkg.getProgressBytes();
-            targetObject.seek(offset, 0);
-                                    
-            long cumulativeBytes = 0;         
-            while ((count = responseStream.read(buffer)) > 0) {
-                long written = (long) targetObject.write(buffer, count);
-                cumulativeBytes += written;
-                pkg.setProgressBytes(pkg.getProgressBytes() + written);
-                // for RULE_DOWNLOAD_LIMIT, need to record this
-                if (RULE_CONNECTION_TYPE.isMobileSession())
-                    pkg.setMobileDownloadBytes(pkg.getMobileDownloadBytes() + written);
+            writer = ContentObjectWriter.open(targetObject, getDurability(pkg));
+            if (writer == null)
+                return false;
+
+            // encoded content is paced and counted against RULE_DOWNLOAD_LIMIT by the bytes received, not by
+            // the decoded bytes that are stored
+            EncodingProtocolHandler encodingHandler = null;
+            if (handler instanceof EncodingProtocolHandler && ((EncodingProtocolHandler) handler).isContentEncoded())
+                encodingHandler = (EncodingProtocolHandler) handler;
+            long receivedBytes = encodingHandler == null ? 0 : encodingHandler.getReceivedBytes();
+
+            // when both ends are channels, the file channel pulls the response body itself, without the buffer ring
+            // and its reader thread; the platform still copies the body through a buffer of its own. The digest
+            // needs to see the bytes, so it keeps to the buffer ring
+            ReadableByteChannel responseChannel = null;
+            if (writer.isDirect() && handler instanceof ChannelProtocolHandler && digest == null)
+                responseChannel = ((ChannelProtocolHandler) handler).getContentChannel();
+
+            if (responseChannel != null) {
+                long transferred;
+                while ((transferred = writer.transferFrom(responseChannel, offset, TRANSFER_CHUNK_SIZE)) > 0) {
+                    long received = transferred;
+                    if (encodingHandler != null) {
+                        received = encodingHandler.getReceivedBytes() - receivedBytes;
+                        receivedBytes += received;
+                    }
+                    WorkOrderManager.getBandwidthThrottle().acquire(received);
+                    offset += transferred;
+                    updatePackageProgress(pkg, transferred, received);
+                    if (writer.checkpoint())
+                        syncPackageProgress(pkg, true, null);
+
+                    if (isStopDownloadRequested() || meter.add(received)) {
+                        success = false;
+                        CmClientUtil.debugLog(getClass(), tag_LogLocal,
+                                "Cooperatively aborting download...");
+                        break;
+                    }
+                }
+                if (transferred < 0)
+                    throw new Exception("Unable to transfer package (" + transferred + ")");
+                return success;
+            }
+
+            // a reader thread keeps receiving while this thread writes
+            ring = new BufferRing(responseStream, 64 * 1024, "PackageReader-" + getDbIndex(),
+                    encodingHandler == null ? WorkOrderManager.getBandwidthThrottle() : null);
+            ring.start();
+
+            BufferRing.Chunk chunk;
+            while ((chunk = ring.take()) != null) {
+                long started = System.currentTimeMillis();
+                int written = writer.write(offset, chunk.mBuffer, chunk.mCount);
+                if (written < 0)
+                    throw new Exception("Unable to write package (" + written + ")");
+                if (digest != null)
+                    digest.update(chunk.mBuffer, 0, written);
+                ring.recycle(chunk, System.currentTimeMillis() - started);
+
+                long received = written;
+                if (encodingHandler != null) {
+                    received = encodingHandler.getReceivedBytes() - receivedBytes;
+                    receivedBytes += received;
+                    WorkOrderManager.getBandwidthThrottle().acquire(received);
+                }
+                offset += written;
+                updatePackageProgress(pkg, written, received);
+                if (writer.checkpoint())
+                    syncPackageProgress(pkg, true, digest);
                 
-                if (isStopDownloadRequested()) {
+                if (isStopDownloadRequested() || meter.add(received)) {
                     success = false;
                     CmClientUtil.debugLog(getClass(), tag_LogLocal,
                             "Cooperatively aborting download...");
                     break;
                 }
+            }
+        } catch (Throwable fault) {
+            success = false;
+            if (HostRetryScheduler.isHostFailure(fault) && !isStopDownloadRequested())
+                MirrorSelector.getInstance().recordFailure(meter.getMirror());
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+        } finally {
+            if (ring != null)
+                ring.close();
+            if (writer != null)
+                syncPackageProgress(pkg, writer.close(), digest);
+        }
 
-                try {
-                    long now = new CmDate().getTime();
-                    if (now - mLastNotifyTime > 2 * 1000) {
-                        double packagesSize = getPackages().size();
-                        double contentSize = pkg.getContentSize();
-                        double progressPercent = contentSize == 0.0 ? 0.0 : pkg.getProgressBytes()
-                                / contentSize;
-                        progressPercent = ((double) getPackagesIndex() / packagesSize)
-                                + ((1.0 / packagesSize) * progressPercent);
-                        progressPercent = progressPercent > 0.99 ? 99.0 : 100.0 * progressPercent;
-                        setProgressPercent((int) progressPercent);
-              
-                        cumulativeBytes = 0;                                                
-                        mLastNotifyTime = now;
+        if (success && digest != null)
+            success = verifyDigest(pkg, digest, validityCheck, offset);
+        return success;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // record bytes written to the package, and publish the work order progress at most every 2 seconds;
+    // called concurrently by the pipelined packages and by the segments of a segmented download
+    //
+    private void updatePackageProgress(Package pkg, long written) {
+        updatePackageProgress(pkg, written, written);
+    }
+
+    // received differs from written for encoded content, which is decoded before it is written
+    private void updatePackageProgress(Package pkg, long written, long received) {
+        final String tag_LogLocal = "updatePackageProgress";
+
+        synchronized (pkg) {
+            pkg.addUnsyncedBytes(written);
+            // for RULE_DOWNLOAD_LIMIT, need to record this
+            if (RULE_CONNECTION_TYPE.isMobileSession())
+                pkg.setMobileDownloadBytes(pkg.getMobileDownloadBytes() + received);
+        }
+
+        synchronized (this) {
+            try {
+                long now = new CmDate().getTime();
+                if (now - mLastNotifyTime > 2 * 1000) {
+                    // several packages may be in flight, so sum the progress of each of them
+                    ArrayList<Package> packages = getPackages();
+                    double packagesSize = packages.size();
+                    double progressPercent = 0.0;
+                    for (Package packageItem : packages) {
+                        double contentSize = packageItem.getContentSize();
+                        progressPercent += packageItem.getCompleted() ? 1.0
+                                : (contentSize == 0.0 ? 0.0 : packageItem.getProgressBytes() / contentSize);
                     }
-                } catch (Throwable fault) {
-                    CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ read-write loop", fault);
+                    progressPercent = progressPercent / packagesSize;
+                    progressPercent = progressPercent > 0.99 ? 99.0 : 100.0 * progressPercent;
+                    setProgressPercent((int) progressPercent);
+
+                    mLastNotifyTime = now;
                 }
+            } catch (Throwable fault) {
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
             }
-            targetObject.close();
+        }
+    }
+
+    // record the progress written so far once it is on the storage device, or drop it if it could not be flushed;
+    // durable progress is journaled, so that it survives the death of the service
+    private void syncPackageProgress(Package pkg, boolean synced, ContentDigest digest) {
+        long progressBytes;
+        synchronized (pkg) {
+            progressBytes = synced ? pkg.syncProgressBytes() : pkg.discardUnsyncedBytes();
+            if (synced && digest != null)
+                pkg.setDigestState(digest.getState());
+        }
+        if (synced && getDbIndex() > 0)
+            ProgressJournal.getInstance(CmClientUtil.getServiceContext()).record(getDbIndex(),
+                    getPackages().indexOf(pkg), progressBytes);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // a package with an expected digest resumes where its saved digest state ends, which is never beyond
+    // the recorded progress; without a usable state it starts over
+    //
+    private void alignDigestState(Package pkg) {
+        if (ContentDigest.forExpectedValue(pkg.getValidityCheck()) == null)
+            return;
+
+        synchronized (pkg) {
+            long progressBytes = pkg.getProgressBytes();
+            ContentDigest digest = ContentDigest.fromState(pkg.getDigestState());
+            long digestBytes = digest == null || digest.getLength() > progressBytes ? 0 : digest.getLength();
+            if (digestBytes == progressBytes)
+                return;
+
+            CmClientUtil.debugLog(getClass(), "alignDigestState",
+                    "Resuming %s at %d instead of %d bytes", pkg.getSourceLocalPath(), digestBytes, progressBytes);
+            pkg.setProgressBytes(digestBytes);
+            if (digestBytes == 0)
+                pkg.setDigestState("");
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // compare the digest of a finished download with the expected value; content that does not match is
+    // fetched again from the beginning
+    //
+    private boolean verifyDigest(Package pkg, ContentDigest digest, String validityCheck, long offset) {
+        final String tag_LogLocal = "verifyDigest";
+
+        long contentSize = pkg.getContentSize();
+        if (contentSize > 0 && offset != contentSize) {
+            CmClientUtil.debugLog(getClass(), tag_LogLocal, "%s ended after %d of %d bytes",
+                    pkg.getSourceLocalPath(), offset, contentSize);
+            return false;
+        }
+
+        if (digest.matches(validityCheck))
+            return true;
+
+        CmClientUtil.debugLog(getClass(), tag_LogLocal, "%s digest %s does not match %s",
+                pkg.getSourceLocalPath(), ContentDigest.toHex(digest.digest()), validityCheck);
+        synchronized (pkg) {
+            pkg.setProgressBytes(0L);
+            pkg.setDigestState("");
+        }
+        return false;
+    }
+
+    // ==================================================================================================================================
+    // segmented download: a package of known size whose request asks for REQPROP_SEGMENTS > 1 is split into
+    // byte ranges that are fetched concurrently and written at their offsets into the content object.
+    // Completed ranges are recorded in the package, so a resumed download only fetches the missing ones.
+    //
+    private static final int MAX_SEGMENTS = 8;
+
+    private static final long MIN_SEGMENT_SIZE = 4L * 1024 * 1024;
+
+    private boolean isSegmentedDownload(Package pkg, ProtocolHandler handler) {
+        if (!(handler instanceof RangeProtocolHandler))
+            return false;
+        if (ContentDigest.forExpectedValue(pkg.getValidityCheck()) != null) // the digest needs the bytes in order
+            return false;
+        if (pkg.getSegmentSize() > 0) // an interrupted segmented download keeps its layout
+            return pkg.getContentSize() > 0;
+        return pkg.getSegments() > 1 && pkg.getContentSize() >= 2 * MIN_SEGMENT_SIZE;
+    }
+
+    // the segments are spread over the given mirrors in turn
+    private boolean downloadPackageSegments(Package pkg, IContentObject targetObject, ArrayList<String> mirrors) {
+        final String tag_LogLocal = "downloadPackageSegments";
+
+        long contentSize = pkg.getContentSize();
+        long segmentSize = pkg.getSegmentSize();
+        if (segmentSize <= 0) {
+            int segments = Math.min(pkg.getSegments(), MAX_SEGMENTS);
+            segmentSize = Math.max(MIN_SEGMENT_SIZE, (contentSize + segments - 1) / segments);
+            pkg.setSegmentSize(segmentSize);
+        }
+        int segmentCount = (int) ((contentSize + segmentSize - 1) / segmentSize);
+
+        BitSet completedSegments = pkg.getCompletedSegments();
+        BitSet newlyCompletedSegments = new BitSet();
+        ArrayList<SegmentTransfer> transfers = new ArrayList<SegmentTransfer>(segmentCount);
+        ArrayList<Future<?>> pendingTransfers = new ArrayList<Future<?>>(segmentCount);
+        ContentObjectWriter writer = null;
+        try {
+            writer = ContentObjectWriter.open(targetObject, getDurability(pkg));
+            if (writer == null)
+                return false;
+
+            // partially written ranges are fetched again, so progress restarts from the completed ones
+            long completedBytes = 0;
+            for (int i = completedSegments.nextSetBit(0); i >= 0 && i < segmentCount; i = completedSegments.nextSetBit(i + 1))
+                completedBytes += Math.min(segmentSize, contentSize - i * segmentSize);
+            pkg.setProgressBytes(completedBytes);
+
+            for (int i = completedSegments.nextClearBit(0); i < segmentCount; i = completedSegments.nextClearBit(i + 1)) {
+                long offset = i * segmentSize;
+                String mirror = mirrors.get(transfers.size() % mirrors.size());
+                SegmentTransfer transfer = new SegmentTransfer(pkg, writer, mirror, i, offset, Math.min(segmentSize, contentSize - offset));
+                transfers.add(transfer);
+                pendingTransfers.add(WorkOrderManager.submitTransfer(transfer));
+            }
+
+            CmClientUtil.debugLog(getClass(), tag_LogLocal,
+                    "Downloading %d of %d segments of %s", transfers.size(), segmentCount, pkg.getSourceLocalPath());
         } catch (Throwable fault) {
-            success = false;
             CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
         }
-        return success;
+
+        for (Future<?> pendingTransfer : pendingTransfers)
+            awaitTransfer(pendingTransfer);
+        for (SegmentTransfer transfer : transfers)
+            if (transfer.isComplete())
+                newlyCompletedSegments.set(transfer.mIndex);
+        // completed segments are only recorded once their data is on the storage device
+        if (writer != null && writer.close())
+            completedSegments.or(newlyCompletedSegments);
+
+        long completedBytes = 0;
+        for (int i = completedSegments.nextSetBit(0); i >= 0 && i < segmentCount; i = completedSegments.nextSetBit(i + 1))
+            completedBytes += Math.min(segmentSize, contentSize - i * segmentSize);
+
+        synchronized (pkg) {
+            pkg.setCompletedSegments(completedSegments);
+            pkg.setProgressBytes(completedBytes);
+        }
+        return completedSegments.nextClearBit(0) >= segmentCount;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // fetches one byte range over its own protocol handler
+    //
+    private class SegmentTransfer implements Runnable {
+        private final Package mPackage;
+
+        private final ContentObjectWriter mWriter;
+
+        private final String mMirror;
+
+        private final int mIndex;
+
+        private final long mOffset;
+
+        private final long mLength;
+
+        private volatile boolean isComplete = false;
+
+        SegmentTransfer(Package pkg, ContentObjectWriter writer, String mirror, int index, long offset, long length) {
+            mPackage = pkg;
+            mWriter = writer;
+            mMirror = mirror;
+            mIndex = index;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        boolean isComplete() {
+            return isComplete;
+        }
+
+        public void run() {
+            final String tag_LogLocal = "SegmentTransfer.run";
+
+            ProtocolHandler handler = null;
+            InputStream responseStream = null;
+            try {
+                handler = ProtocolManager.getInstance().getProtocolHandler(mMirror);
+                handler.intitializeRequest(mMirror);
+                mHandlers.add(handler); // so that a suspend aborts the segment too
+                long startMillis = System.currentTimeMillis();
+                ((RangeProtocolHandler) handler).startTransfer(mOffset, mLength, mPackage.getModified());
+
+                if (handler.getLastModified() != null)
+                    synchronized (mPackage) {
+                        mPackage.setModified(CmDate.valueOf(handler.getLastModified()));
+                    }
+
+                responseStream = new ProtocolHandlerInputStream(handler);
+                byte[] buffer = newPoliteBuffer(64 * 1024);
+                long position = mOffset;
+                long end = mOffset + mLength;
+                int count;
+                while (position < end
+                        && (count = responseStream.read(buffer, 0, (int) Math.min(buffer.length, end - position))) > 0) {
+                    WorkOrderManager.getBandwidthThrottle().acquire(count);
+                    int written = mWriter.write(position, buffer, count);
+                    if (written < 0)
+                        throw new Exception("Unable to write segment # " + mIndex + " (" + written + ")");
+
+                    position += written;
+                    updatePackageProgress(mPackage, written);
+                    if (!mWriter.checkpoint() && mWriter.isSyncFailed())
+                        throw new Exception("Unable to flush segment # " + mIndex);
+
+                    if (isStopDownloadRequested()) {
+                        CmClientUtil.debugLog(getClass(), tag_LogLocal,
+                                "Cooperatively aborting segment # %d...", mIndex);
+                        return;
+                    }
+                }
+                // the segment counts as complete only if no flush of the shared writer has failed so far;
+                // the final flush is checked when the writer is closed
+                isComplete = position == end && !mWriter.isSyncFailed();
+                if (isComplete)
+                    HostRetryScheduler.getInstance().recordSuccess(mMirror);
+
+                // a paced segment says nothing about the mirror
+                if (isComplete && WorkOrderManager.getBandwidthThrottle().getRate() <= 0)
+                    MirrorSelector.getInstance().recordRate(mMirror, mLength, System.currentTimeMillis() - startMillis);
+            } catch (Throwable fault) {
+                if (HostRetryScheduler.isHostFailure(fault) && !isStopDownloadRequested())
+                    MirrorSelector.getInstance().recordFailure(mMirror);
+                CmClientUtil.debugLog(getClass(), tag_LogLocal, fault);
+            } finally {
+                if (handler != null) {
+                    handler.stopTransfer();
+                    mHandlers.remove(handler);
+                }
+                if (responseStream != null)
+                    try {
+                        responseStream.close();
+                    } catch (Exception fault) {
+                        CmClientUtil.debugLog(getClass(), tag_LogLocal + " @ responseStream.close",
+                                fault);
+                    }
+            }
+        }
     }
 
     // ==================================================================================================================================
@@ -1083,6 +1837,14 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
         return setPackages(mPackageList);
     }
 
+    // the declared size, in bytes, of all packages of the work order
+    protected long getContentSize() {
+        long contentSize = 0;
+        for (Package pkg : getPackages())
+            contentSize += pkg.getContentSize();
+        return contentSize;
+    }
+
     protected ArrayList<Package> setPackages(ArrayList<Package> newPackages) {
         return mPackageList = newPackages == null ? new ArrayList<Package>(0) : newPackages;
     }
@@ -1170,18 +1932,23 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
                 newOrderAction);
 
         calculateWorkOrderExecutionPriority();
+        WorkOrderManager.notifyWorkOrderChanged(this);
         WorkOrderManager.notifyProgressUpdate(this);
         return newOrderAction;
     }
     
     public QueueRequestState setQueueRequestStateWithNotify(QueueRequestState newState) {
         newState = setQueueRequestState(newState);
+        WorkOrderManager.notifyWorkOrderChanged(this);
         WorkOrderManager.notifyProgressUpdate(this);
         return newState;
     }
       
     public String setQueueRequestState(String newState) {
-        return mProperties.set(QueueRequestProperties.TransientProperties.REQPROP_REQUEST_STATE.name(), newState);
+        newState = mProperties.set(QueueRequestProperties.TransientProperties.REQPROP_REQUEST_STATE.name(), newState);
+        if (getDbIndex() > 0)
+            WorkOrderManager.notifyWorkOrderStateChanged(this);
+        return newState;
     }
     
     public String setOrderAction(String newOrderAction) {
@@ -1524,6 +2291,7 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
 
         // the bounds of 0-100 on the value have already been checked
         setRelativePriority(relativePriority);
+        WorkOrderManager.notifyWorkOrderChanged(this);
         
     }
 
@@ -1589,8 +2357,9 @@ public class WorkOrder extends Record implements Comparable<WorkOrder> {
 
                             IContentObject contentObject = store.getObject(
                                     this.getClientUid() + ":/" + this.mPackageList.get(0).getSourceLocalPath());
+                            // data written after the last durable progress may have survived as well
                             if (contentObject != null && 
-                                contentObject.size() == this.mPackageList.get(0).getProgressBytes()) {
+                                contentObject.size() >= this.mPackageList.get(0).getProgressBytes()) {
                                 // this was the VSD we used previously!
                                 this.setStorageId(storageId);
                                 this.mStorageIdSet = true;
@@ -29,8 +29,6 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
-import android.net.TrafficStats;
-import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.IBinder;
@@ -59,14 +57,19 @@ import com.hqme.cm.ReqEvents;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.Map.Entry;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WorkOrderManager extends Service implements Runnable {
     // ==================================================================================================================================
@@ -82,19 +85,41 @@ public class WorkOrderManager extends Service implements Runnable {
 
     public static ComponentName sWorkOrderManagerComponentName = null;
 
-    private static Thread sWorkOrderWorker = null;
+    // pool of sWorkOrderWorker threads; each worker executes at most one work order at a time
+    private static final ArrayList<Thread> sWorkOrderWorkers = new ArrayList<Thread>();
+
+    protected static final int MAX_CONCURRENT_WORK_ORDERS = 3;
+
+    // the pipelined packages and the segments of the work orders being executed share a bounded pool of transfer
+    // threads; when all of them are busy, the worker submitting a transfer runs it itself. Idle threads exit.
+    private static final int MAX_TRANSFER_THREADS = 4 * MAX_CONCURRENT_WORK_ORDERS;
+
+    private static final long TRANSFER_THREAD_IDLE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sTransferExecutor = new ThreadPoolExecutor(0, MAX_TRANSFER_THREADS,
+            TRANSFER_THREAD_IDLE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mThreadCount = new AtomicInteger(0);
+
+                public Thread newThread(Runnable transfer) {
+                    Thread thread = new Thread(transfer, WorkOrderManager.class.getName() + ".transferWorker"
+                            + mThreadCount.getAndIncrement());
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static Future<?> submitTransfer(Runnable transfer) {
+        return sTransferExecutor.submit(transfer);
+    }
 
     private static boolean sReloadedDatabaseRequests = false;
     
     private static boolean sWorkOrderWorkerIsActive = false;
 
-    private static final String MANDATORY_START = "com.hqme.cm.core.MANDATORY_TIME_ALERT_START";
-    private static final String MANDATORY_END = "com.hqme.cm.core.MANDATORY_TIME_ALERT_END";
     private static final String UPDATE_TIME = "com.hqme.cm.core.UPDATE_TIME";
     private static int sUid;
     // store the available VSDs and their functiongroups
     static HashMap<Integer, ArrayList<Long>> sAvailableVSDs = new HashMap<Integer, ArrayList<Long>>();
-    static Set<PendingIntent> sMandatoryAlerts = new HashSet<PendingIntent>();
     
     private static boolean sPriorityBasedInciteRequired = false;
     public static boolean isPriorityBasedInciteRequired() {
@@ -118,6 +143,11 @@ public class WorkOrderManager extends Service implements Runnable {
         return sWorkOrderWorkerIsActive;
     }
 
+    // per-origin admission control at submission; zero or less means no limit
+    protected static final int MAX_QUEUED_WORK_ORDERS_PER_ORIGIN = 1000;
+
+    protected static final long MAX_QUEUED_BYTES_PER_ORIGIN = 0;
+
     // interface to the ConnectedMemory IContentStorageManager service
     private static IStorageManager sPluginManager = null;
 
@@ -217,9 +247,8 @@ public class WorkOrderManager extends Service implements Runnable {
             boolean superuser = (PackageManager.PERMISSION_GRANTED == checkCallingPermission("com.hqme.cm.core.SU"));
 
             int uid = getCallingUid();
-            HashSet<Long> existingIds = getVisibleWorkOrderIdsState(getPackageManager()
-                    .getNameForUid(uid), state, superuser);
-            return existingIds.size();
+            return getVisibleWorkOrderCountState(getPackageManager().getNameForUid(uid), state,
+                    superuser);
 
         }
 
@@ -282,6 +311,35 @@ public class WorkOrderManager extends Service implements Runnable {
             return insertQueueRequest((QueueRequestObject)queueRequest, getCallingUid());
         }
 
+        // --------------------------------------------------
+        // insert many QueueRequests at once: they are validated together, persisted in a single
+        // data base transaction and trigger a single re-prioritisation of the queue
+        public long[] submitRequests(List<IBinder> queueRequests) throws RemoteException {
+            ArrayList<QueueRequestObject> queueRequestObjects = new ArrayList<QueueRequestObject>();
+
+            if (queueRequests != null)
+                for (IBinder binder : queueRequests) {
+                    // only QueueRequests created by this service can be submitted
+                    IQueueRequest queueRequest = IQueueRequest.Stub.asInterface(binder);
+                    queueRequestObjects.add(queueRequest instanceof QueueRequestObject
+                            ? (QueueRequestObject) queueRequest : null);
+                }
+
+            return insertQueueRequests(queueRequestObjects, getCallingUid());
+        }
+
+        public long[] submitRequestsXml(String queueRequestsXml) throws RemoteException {
+            ArrayList<QueueRequestObject> queueRequestObjects = null;
+
+            try {
+                queueRequestObjects = QueueRequestObject.listFromString(queueRequestsXml);
+            } catch (Exception exec) {
+                return null;
+            }
+
+            return insertQueueRequests(queueRequestObjects, getCallingUid());
+        }
+
 
         // --------------------------------------------------
         public int cancelRequest(long workOrderID) throws RemoteException {
@@ -308,17 +366,14 @@ public class WorkOrderManager extends Service implements Runnable {
 
         private boolean cancelingCurrentWorkOrder(long workOrderID) {
             
-            if (mCurrentWorkOrder == null || mPendingWorkOrders == null) 
+            WorkOrder currentWorkOrder = findCurrentWorkOrder(workOrderID);
+            if (currentWorkOrder == null || mPendingWorkOrders == null) 
                 return false;
             
-            synchronized (mCurrentWorkOrder) {
-                long cbIndex = mCurrentWorkOrder.getDbIndex();
-                if (workOrderID == cbIndex) {
-                    cancelCurrentWorkOrder();
-                    return true;
-                }
+            synchronized (currentWorkOrder) {
+                cancelCurrentWorkOrder(currentWorkOrder);
+                return true;
             }
-            return false;
         }
 
         // --------------------------------------------------
@@ -348,17 +403,14 @@ public class WorkOrderManager extends Service implements Runnable {
 
         private boolean suspendingCurrentWorkOrder(long workOrderID) {
             
-            if (mCurrentWorkOrder == null || mPendingWorkOrders == null) 
+            WorkOrder currentWorkOrder = findCurrentWorkOrder(workOrderID);
+            if (currentWorkOrder == null || mPendingWorkOrders == null) 
                 return false;
             
-            synchronized (mCurrentWorkOrder) {
-                long cbIndex = mCurrentWorkOrder.getDbIndex();
-                if (workOrderID == cbIndex) {
-                    disableCurrentWorkOrder();
-                    return true;
-                }
+            synchronized (currentWorkOrder) {
+                disableCurrentWorkOrder(currentWorkOrder);
+                return true;
             }
-            return false;
         }
 
         // --------------------------------------------------
@@ -475,21 +527,18 @@ public class WorkOrderManager extends Service implements Runnable {
 
         private boolean modifyingCurrentWorkOrder(long workOrderID, int relativePriority) {
             
-            if (mCurrentWorkOrder == null || mPendingWorkOrders == null) 
+            WorkOrder currentWorkOrder = findCurrentWorkOrder(workOrderID);
+            if (currentWorkOrder == null || mPendingWorkOrders == null) 
                 return false;
             
-            synchronized (mCurrentWorkOrder) {
-                long cbIndex = mCurrentWorkOrder.getDbIndex();
-                if (workOrderID == cbIndex) {
-                    suspendCurrentWorkOrder();
-                    mCurrentWorkOrder.setPriority(relativePriority);
-                    HQME.WorkOrder.update(getApplicationContext(),
-                            mCurrentWorkOrder);
-                    resumeCurrentWorkOrder();
-                    return true;
-                }
+            synchronized (currentWorkOrder) {
+                suspendCurrentWorkOrder(currentWorkOrder);
+                currentWorkOrder.setPriority(relativePriority);
+                HQME.WorkOrder.update(getApplicationContext(),
+                        currentWorkOrder);
+                resumeCurrentWorkOrder();
+                return true;
             }
-            return false;
         }
 
         // ==================================================
@@ -503,59 +552,138 @@ public class WorkOrderManager extends Service implements Runnable {
         // explicit intent using the component name provided
         private long insertQueueRequest(QueueRequestObject queueRequest, int uid) {
 
-            if (queueRequest == null)
-                return HqmeError.ERR_INVALID_ARGUMENT.getCode();
+            ArrayList<QueueRequestObject> queueRequests = new ArrayList<QueueRequestObject>(1);
+            queueRequests.add(queueRequest);
 
-            // check validity of the object prior to insertion to the database
-            int validity = queueRequest.isValid();
-            if (validity != HqmeError.STATUS_SUCCESS.getCode())
-                return validity;
+            return insertQueueRequests(queueRequests, uid)[0];
+        }
 
-            // always re-insert, creating a new QueueRequest - this
-            // new QueueRequest discards perviously set transient properties
-            // cancelling old QueueRequest is up to the client application
-            return insertRequest(queueRequest,uid);
+        // --------------------------------------------------
+        // returns the request id of each inserted QueueRequest, or the error code for those that
+        // are invalid or could not be inserted
+        private long[] insertQueueRequests(List<QueueRequestObject> queueRequests, int uid) {
+            long[] requestIds = new long[queueRequests.size()];
+            ArrayList<WorkOrder> workOrders = new ArrayList<WorkOrder>(requestIds.length);
+            ArrayList<Integer> workOrderRequests = new ArrayList<Integer>(requestIds.length);
+            String callingUid = getPackageManager().getNameForUid(uid);
+
+            for (int i = 0; i < requestIds.length; i++) {
+                QueueRequestObject queueRequest = queueRequests.get(i);
+                if (queueRequest == null) {
+                    requestIds[i] = HqmeError.ERR_INVALID_ARGUMENT.getCode();
+                    continue;
+                }
 
-        }
-            
-        private long insertRequest(QueueRequestObject qro,int uid) {
-            // this is an entirely new work order
-            WorkOrder workOrder = null;
+                // check validity of the object prior to insertion to the database
+                int validity = queueRequest.isValid();
+                if (validity != HqmeError.STATUS_SUCCESS.getCode()) {
+                    requestIds[i] = validity;
+                    continue;
+                }
 
-            synchronized (mPendingWorkOrders) {
                 try {
-                    // if the notification target is not null and passed as
-                    // one
-                    // of the QueuRequest properties,
-                    // it is added to the workorder structure by this
-                    // constructor
-
-                    // this constructor creates a new qro with all but the transient properties
-                    QueueRequestObject qroNew = new QueueRequestObject(qro);
-                    qroNew.mProperties.set(QueueRequestProperties.TransientProperties.REQPROP_CALLING_UID
-                            .name(), getPackageManager().getNameForUid(uid));
-                    
-                    workOrder = new WorkOrder(qroNew);
-                    workOrder.setDbIndex(HQME.WorkOrder.insert(getApplicationContext(), workOrder));
-                    
-                    if (workOrder.getDbIndex() != -1) {                       
-                        workOrder.setQueueRequestState(QueueRequestState.QUEUED);
-                        workOrder.setOrderAction(Action.NEW);
-                        workOrder.calculateWorkOrderExecutionPriority();
-                        HQME.WorkOrder.update(getApplicationContext(), workOrder);
-                        mPendingWorkOrders.put(workOrder);
-                        // inserting the work order using this task prevents
-                        // excessive re-evaluation of work when several
-                        // incite triggers occur in quick succession
-                        mInciteHysteresisTask.resume(workOrder.getUrgent() || workOrder.getMandatory());
-                    } else 
-                        return (long)HqmeError.ERR_GENERAL.getCode();
+                    // always re-insert, creating a new QueueRequest - this
+                    // new QueueRequest discards perviously set transient properties
+                    // cancelling old QueueRequest is up to the client application
+                    workOrders.add(createWorkOrder(queueRequest, callingUid));
+                    workOrderRequests.add(i);
                 } catch (Exception fault) {
-                    CmClientUtil.debugLog(getClass(), "insertQueueRequest", fault);
+                    CmClientUtil.debugLog(getClass(), "insertQueueRequests", fault);
+                    requestIds[i] = HqmeError.ERR_GENERAL.getCode();
+                }
+            }
+
+            if (workOrders.isEmpty())
+                return requestIds;
+
+            synchronized (mPendingWorkOrders) {
+                admitWorkOrders(callingUid, workOrders, workOrderRequests, requestIds);
+                if (workOrders.isEmpty())
+                    return requestIds;
+
+                noteSubmission();
+                Long[] woids = HQME.WorkOrder.insert(getApplicationContext(), workOrders);
+                boolean urgent = false;
+
+                for (int j = 0; j < workOrders.size(); j++) {
+                    int i = workOrderRequests.get(j);
+                    if (woids == null) {
+                        requestIds[i] = HqmeError.ERR_GENERAL.getCode();
+                        continue;
+                    }
+
+                    WorkOrder workOrder = workOrders.get(j);
+                    workOrder.setDbIndex(woids[j]);
+                    notifyWorkOrderStateChanged(workOrder);
+                    mPendingWorkOrders.put(workOrder);
+                    mWorkOrderIndex.update(workOrder);
+                    urgent |= workOrder.getUrgent() || workOrder.getMandatory();
+                    requestIds[i] = woids[j];
+                }
+
+                // inserting the work orders using this task prevents
+                // excessive re-evaluation of work when several
+                // incite triggers occur in quick succession
+                if (woids != null)
+                    mInciteHysteresisTask.resume(urgent);
+            }
+
+            return requestIds;
+        }
+
+        // --------------------------------------------------
+        // drop the work orders that would take the origin over its quota of queued work orders
+        // or bytes, in submission order; called while holding mPendingWorkOrders
+        private void admitWorkOrders(String origin, ArrayList<WorkOrder> workOrders,
+                ArrayList<Integer> workOrderRequests, long[] requestIds) {
+            int maxWorkOrders = MAX_QUEUED_WORK_ORDERS_PER_ORIGIN;
+            long maxBytes = MAX_QUEUED_BYTES_PER_ORIGIN;
+            if (maxWorkOrders <= 0 && maxBytes <= 0)
+                return;
+
+            if (!mWorkOrderIndex.isLoaded())
+                mWorkOrderIndex.load(getApplicationContext());
+
+            int queuedWorkOrders = mWorkOrderIndex.getOriginWorkOrderCount(origin);
+            long queuedBytes = mWorkOrderIndex.getOriginBytes(origin);
+
+            for (int j = 0; j < workOrders.size(); j++) {
+                long bytes = workOrders.get(j).getContentSize();
+
+                if ((maxWorkOrders > 0 && queuedWorkOrders + 1 > maxWorkOrders)
+                        || (maxBytes > 0 && queuedBytes + bytes > maxBytes)) {
+                    CmClientUtil.debugLog(getClass(), "admitWorkOrders",
+                            "%s is over its quota of %d work orders / %d bytes", origin,
+                            maxWorkOrders, maxBytes);
+                    requestIds[workOrderRequests.remove(j)] = HqmeError.ERR_QUOTA_EXCEEDED.getCode();
+                    workOrders.remove(j--);
+                    continue;
                 }
+
+                queuedWorkOrders++;
+                queuedBytes += bytes;
             }
+        }
 
-            return workOrder == null ? (long)HqmeError.ERR_GENERAL.getCode() : workOrder.getDbIndex();
+        // --------------------------------------------------
+        // this is an entirely new work order, ready to be inserted in the QUEUED state
+        private WorkOrder createWorkOrder(QueueRequestObject qro, String callingUid) {
+            // if the notification target is not null and passed as
+            // one
+            // of the QueuRequest properties,
+            // it is added to the workorder structure by this
+            // constructor
+
+            // this constructor creates a new qro with all but the transient properties
+            QueueRequestObject qroNew = new QueueRequestObject(qro);
+            qroNew.mProperties.set(QueueRequestProperties.TransientProperties.REQPROP_CALLING_UID
+                    .name(), callingUid);
+
+            WorkOrder workOrder = new WorkOrder(qroNew);
+            workOrder.setQueueRequestState(QueueRequestState.QUEUED);
+            workOrder.setOrderAction(Action.NEW);
+            workOrder.calculateWorkOrderExecutionPriority();
+            return workOrder;
         }
 
         // ==================================================
@@ -639,6 +767,179 @@ public class WorkOrderManager extends Service implements Runnable {
 
     }
 
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the state or relative priority of the work order has changed; it will be re-sorted by the
+    // next call to calculateWorkOrderPriorities
+    protected static void notifyWorkOrderChanged(WorkOrder workOrder) {
+        WorkOrderManager instance = sWorkOrderManagerInstance;
+        if (instance != null && workOrder.getDbIndex() > 0) {
+            instance.mWorkOrderIndex.update(workOrder);
+            // keep the queue ordered if this instance is queued
+            instance.mPendingWorkOrders.update(workOrder);
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // a rule has observed a change in device state: mark the work orders whose policies
+    // reference it for re-evaluation, then incite the queue only if there are any.
+    // RULE_CONNECTION_TYPE gates every download (see WorkOrder.attemptToExecute), so a
+    // connectivity change marks all work orders
+    //
+    protected void notifyRuleChanged(RuleBase rule) {
+        if (!mWorkOrderIndex.isLoaded()) {
+            mInciteHysteresisTask.resume(false);
+            return;
+        }
+
+        int affectedWorkOrders = rule instanceof RULE_CONNECTION_TYPE ? mWorkOrderIndex
+                .markAllChanged() : mWorkOrderIndex.markRuleChanged(rule.getClass().getSimpleName());
+
+        if (affectedWorkOrders > 0)
+            mInciteHysteresisTask.resume(false);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the UPDATE_TIME alarm has fired: re-evaluate only the work orders whose time windows have
+    // opened or closed since
+    protected void onTimeWindowAlarm() {
+        ArrayList<Long> expired;
+        synchronized (mTimeWindows) {
+            expired = mTimeWindows.advance(System.currentTimeMillis());
+            mTimeWindowAlarm = -1;
+        }
+
+        int affectedWorkOrders = 0;
+        for (Long workOrderIndex : expired)
+            if (mWorkOrderIndex.markChanged(workOrderIndex))
+                affectedWorkOrders++;
+
+        if (affectedWorkOrders > 0 || !mWorkOrderIndex.isLoaded())
+            mInciteHysteresisTask.resume(false);
+        else
+            rearmTimeWindowAlarm();
+    }
+
+    // the wall clock, time zone or date has changed, so every scheduled transition may have moved
+    protected void onClockChanged() {
+        mTimeWindows.clear(System.currentTimeMillis());
+
+        if (!mWorkOrderIndex.isLoaded()) {
+            mInciteHysteresisTask.resume(false);
+            return;
+        }
+
+        int affectedWorkOrders = mWorkOrderIndex.markRuleChanged(RULE_TIME.class.getSimpleName())
+                + mWorkOrderIndex.markRuleChanged(RULE_MANDATORY_TIME.class.getSimpleName());
+
+        // the parked work orders lost their retry deadlines with the rest of the wheel
+        ArrayList<Long> parkedWorkOrders;
+        synchronized (mParkedWorkOrders) {
+            parkedWorkOrders = new ArrayList<Long>(mParkedWorkOrders);
+        }
+        for (Long workOrderIndex : parkedWorkOrders)
+            if (mWorkOrderIndex.markChanged(workOrderIndex))
+                affectedWorkOrders++;
+
+        if (affectedWorkOrders > 0)
+            mInciteHysteresisTask.resume(false);
+        else
+            rearmTimeWindowAlarm();
+    }
+
+    protected static void cancelTimeWindow(WorkOrder workOrder) {
+        WorkOrderManager instance = sWorkOrderManagerInstance;
+        if (instance != null) {
+            instance.mTimeWindows.cancel(workOrder.getDbIndex());
+            synchronized (instance.mParkedWorkOrders) {
+                instance.mParkedWorkOrders.remove(workOrder.getDbIndex());
+            }
+        }
+    }
+
+    // the hosts of the work order are backing off: it is woken at its retry time, unless one of its time windows
+    // opens or closes before that
+    protected static void parkWorkOrder(WorkOrder workOrder) {
+        WorkOrderManager instance = sWorkOrderManagerInstance;
+        if (instance != null) {
+            instance.scheduleTimeWindow(workOrder);
+            instance.rearmTimeWindowAlarm();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the deadline of a work order is the earlier of its next time window transition and, while it is blocked, the
+    // retry time of its hosts
+    //
+    private void scheduleTimeWindow(WorkOrder workOrder) {
+        long workOrderIndex = workOrder.getDbIndex();
+        long now = System.currentTimeMillis();
+        long nextTransition = -1;
+        long retryTime = -1;
+        if (WorkOrderPriorityIndex.isSchedulable(workOrder)) {
+            nextTransition = workOrder.getNextTimeWindowTransition(now);
+            if (QueueRequestState.BLOCKED.equals(workOrder.getQueueRequestState()))
+                retryTime = workOrder.getRetryTime(now);
+        }
+
+        synchronized (mParkedWorkOrders) {
+            if (retryTime > 0)
+                mParkedWorkOrders.add(workOrderIndex);
+            else
+                mParkedWorkOrders.remove(workOrderIndex);
+        }
+
+        if (retryTime > 0 && (nextTransition < 0 || retryTime < nextTransition))
+            nextTransition = retryTime;
+        if (nextTransition < 0 || !mTimeWindows.schedule(workOrderIndex, nextTransition))
+            mTimeWindows.cancel(workOrderIndex);
+    }
+
+    // set, move or cancel the single UPDATE_TIME alarm so that it fires at the earliest scheduled transition
+    private void rearmTimeWindowAlarm() {
+        synchronized (mTimeWindows) {
+            long nextDeadline = mTimeWindows.getNextDeadline();
+            if (nextDeadline == mTimeWindowAlarm)
+                return;
+
+            Intent intent = new Intent(UPDATE_TIME, null, WorkOrderManager.this, RULE_TIME.class);
+            PendingIntent sender = PendingIntent.getBroadcast(this, 0, intent, 0);
+            AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
+
+            if (nextDeadline < 0)
+                am.cancel(sender);
+            else
+                am.set(AlarmManager.RTC_WAKEUP, nextDeadline, sender);
+            mTimeWindowAlarm = nextDeadline;
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // keep the per-state registry in step with the queue request state of the work order
+    protected static void notifyWorkOrderStateChanged(WorkOrder workOrder) {
+        WorkOrderManager instance = sWorkOrderManagerInstance;
+        if (instance != null)
+            instance.mWorkOrderStates.update(workOrder);
+    }
+
+    // a work order has been read from the data base; it is registered only if no in-memory state is known for it
+    protected static WorkOrder notifyWorkOrderLoaded(WorkOrder workOrder) {
+        WorkOrderManager instance = sWorkOrderManagerInstance;
+        if (instance == null)
+            return workOrder;
+
+        WorkOrder registeredWorkOrder = instance.mWorkOrderStates.get(workOrder.getDbIndex());
+        if (registeredWorkOrder != null)
+            return registeredWorkOrder;
+        instance.mWorkOrderStates.add(workOrder);
+        return workOrder;
+    }
+
+    protected static void notifyWorkOrderDeleted(long workOrderIndex) {
+        WorkOrderManager instance = sWorkOrderManagerInstance;
+        if (instance != null)
+            instance.mWorkOrderStates.remove(workOrderIndex);
+    }
+
     // ----------------------------------------------------------------------------------------------------------------------------------
     protected static void broadcastProgressUpdate(WorkOrder workOrder) {
         // Use the notification target of this work order to
@@ -660,21 +961,44 @@ public class WorkOrderManager extends Service implements Runnable {
     }
 
     // ==================================================================================================================================
-    protected WorkOrder mCurrentWorkOrder = null;
+    // work orders currently held by the sWorkOrderWorker threads, at most one per worker
+    protected final CopyOnWriteArrayList<WorkOrder> mCurrentWorkOrders = new CopyOnWriteArrayList<WorkOrder>();
+
+    // indexed by database index, so look-ups and re-keying do not scan the queue
+    protected final WorkOrderQueue mPendingWorkOrders = new WorkOrderQueue();
+
+    // active work orders by database index, with the set changed since the last re-sort
+    protected final WorkOrderPriorityIndex mWorkOrderIndex = new WorkOrderPriorityIndex();
+
+    // all work orders by queue request state, for the lock-free getRequestIdsState and requestCountState
+    protected final WorkOrderStateRegistry mWorkOrderStates = new WorkOrderStateRegistry();
+
+    // the next RULE_TIME / RULE_MANDATORY_TIME window transition of every active work order that has one, or the
+    // retry time of its hosts if it is parked and that is earlier, behind a single UPDATE_TIME alarm set for the
+    // earliest of them
+    protected final TimerWheel mTimeWindows = new TimerWheel(TIME_WINDOW_TICK, System.currentTimeMillis());
+
+    // the work orders whose deadline in mTimeWindows is the retry time of their hosts, see HostRetryScheduler
+    protected final HashSet<Long> mParkedWorkOrders = new HashSet<Long>();
 
-    protected final PriorityBlockingQueue<WorkOrder> mPendingWorkOrders = new PriorityBlockingQueue<WorkOrder>();
+    protected static final long TIME_WINDOW_TICK = 1000;
+
+    private long mTimeWindowAlarm = -1;
 
     protected InciteHysteresis mInciteHysteresisTask = new InciteHysteresis();
 
     protected class InciteHysteresis extends TimerTask {
         private Timer mTimer = null;
 
+        private boolean mUrgent = false;
+
         public synchronized void resume(boolean isUrgent) {
+            mUrgent |= isUrgent;
             if (this.mTimer == null) // activate hysteresis mTimer only when its
                 // inactive
                 try {
                     this.mTimer = new Timer(sTag_Log + ".inciteHysteresisTaskTimer", true);
-                    this.mTimer.schedule(mInciteHysteresisTask, isUrgent ? 1000 : 5 * 1000); // trigger
+                    this.mTimer.schedule(this, isUrgent ? 1000 : 5 * 1000); // trigger
                     // in
                     // 1
                     // second
@@ -690,8 +1014,20 @@ public class WorkOrderManager extends Service implements Runnable {
                 }
         }
 
+        // trigger once the current burst of submissions is over (see getSubmissionDeferral)
+        private synchronized void defer(long delay) {
+            try {
+                this.mTimer = new Timer(sTag_Log + ".inciteHysteresisTaskTimer", true);
+                this.mTimer.schedule(this, delay);
+            } catch (Exception fault) {
+                CmClientUtil.debugLog(getClass(), "defer", fault);
+            }
+        }
+
         @Override
         public synchronized void run() {
+            long deferral = mUrgent ? 0 : getSubmissionDeferral();
+
             mInciteHysteresisTask = new InciteHysteresis(); // NOTE: instances
             // of
             // TimerTask cannot
@@ -700,7 +1036,10 @@ public class WorkOrderManager extends Service implements Runnable {
             // to the way
             // TimerTask is
             // implemented
-            resumeCurrentWorkOrder();
+            if (deferral > 0)
+                mInciteHysteresisTask.defer(deferral);
+            else
+                resumeCurrentWorkOrder();
         }
 
         @Override
@@ -717,6 +1056,39 @@ public class WorkOrderManager extends Service implements Runnable {
         }
     }
 
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // queue-wide backpressure: submissions arriving less than SUBMISSION_BURST_GAP apart form a
+    // burst, and a non-urgent re-sort is deferred until the burst is over, but by no more than
+    // MAX_SUBMISSION_DEFERRAL after the burst began
+    //
+    private static final long SUBMISSION_BURST_GAP = 1000;
+
+    private static final long MAX_SUBMISSION_DEFERRAL = 30 * 1000;
+
+    private final Object mSubmissionBurst = new Object();
+
+    private long mSubmissionBurstStart = 0;
+
+    private long mLastSubmission = 0;
+
+    private void noteSubmission() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mSubmissionBurst) {
+            if (now - mLastSubmission > SUBMISSION_BURST_GAP)
+                mSubmissionBurstStart = now;
+            mLastSubmission = now;
+        }
+    }
+
+    private long getSubmissionDeferral() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mSubmissionBurst) {
+            long quiet = mLastSubmission + SUBMISSION_BURST_GAP - now;
+            long remaining = mSubmissionBurstStart + MAX_SUBMISSION_DEFERRAL - now;
+            return quiet <= 0 || remaining <= 0 ? 0 : Math.min(quiet, remaining);
+        }
+    }
+
     // ----------------------------------------------------------------------------------------------------------------------------------
     // Runnable interface main entry point for sWorkOrderWorker background
     // thread.
@@ -744,12 +1116,24 @@ public class WorkOrderManager extends Service implements Runnable {
         return false;
     }
 
+    // start sWorkOrderWorker threads until the pool holds MAX_CONCURRENT_WORK_ORDERS workers;
+    // the caller must hold the mPendingWorkOrders lock
+    private void startWorkOrderWorkers() {
+        while (sWorkOrderWorkers.size() < MAX_CONCURRENT_WORK_ORDERS) {
+            Thread workOrderWorker = new Thread(this, getClass().getName() + ".workOrderWorker"
+                    + sWorkOrderWorkers.size());
+            workOrderWorker.setPriority(Thread.MIN_PRIORITY);
+            sWorkOrderWorkers.add(workOrderWorker);
+            workOrderWorker.start();
+        }
+    }
+
     public void run() {
         Thread.setDefaultUncaughtExceptionHandler(sUncaughtExceptionHandler);
 
         synchronized (mPendingWorkOrders) {
             sWorkOrderWorkerIsActive = true;
-            CmClientUtil.debugLog(getClass(), "run", "Starting up...");
+            CmClientUtil.debugLog(getClass(), "run", "Starting up %s...", Thread.currentThread().getName());
 
             mLoginAttemptNumber = 0;
             enqueueExecutionState(State.LOGIN);
@@ -757,15 +1141,26 @@ public class WorkOrderManager extends Service implements Runnable {
             mPendingWorkOrders.notifyAll();
         }
         
-        
-        while (sWorkOrderWorkerIsActive)
+        while (sWorkOrderWorkerIsActive) {
+            WorkOrder currentWorkOrder = null;
             try {
-                mCurrentWorkOrder = mPendingWorkOrders.take();
+                currentWorkOrder = mPendingWorkOrders.take();
 
-                switch (mCurrentWorkOrder.getExecutionState()) {
+                synchronized (mPendingWorkOrders) {
+                    // another worker may already be executing a copy of this work order that was
+                    // reloaded from the database, in which case this copy is dropped
+                    if (currentWorkOrder.getDbIndex() != -1
+                            && findCurrentWorkOrder(currentWorkOrder.getDbIndex()) != null) {
+                        currentWorkOrder = null;
+                        continue;
+                    }
+                    mCurrentWorkOrders.add(currentWorkOrder);
+                }
+
+                switch (currentWorkOrder.getExecutionState()) {
                     // --------------------------------------------------
                     case PENDING:
-                        mCurrentWorkOrder.setExecutionStateWithNotify(State.LOGIN);
+                        currentWorkOrder.setExecutionStateWithNotify(State.LOGIN);
                         // --------------------------------------------------
                         // NO BREAK
                         // --------------------------------------------------
@@ -776,7 +1171,7 @@ public class WorkOrderManager extends Service implements Runnable {
 
                     case EXECUTE:
                         try { 
-                            mCurrentWorkOrder.processBegin(getApplication(),
+                            currentWorkOrder.processBegin(getApplication(),
                                     mPendingWorkOrders);
                             break;
                         } catch (InterruptedException fault) {
@@ -802,8 +1197,6 @@ public class WorkOrderManager extends Service implements Runnable {
                                     }
                                 }
                             }
-
-                            mCurrentWorkOrder = null;
                         }
                         // --------------------------------------------------
                         // NO BREAK
@@ -827,11 +1220,21 @@ public class WorkOrderManager extends Service implements Runnable {
                 CmClientUtil.debugLog(getClass(), "run", fault);
             } finally {
                 synchronized (mPendingWorkOrders) {
+                    if (currentWorkOrder != null) {
+                        mCurrentWorkOrders.remove(currentWorkOrder);
+                        // work orders left out of the queue by processEnd are re-queued by the next
+                        // re-sort if they are still active
+                        if (currentWorkOrder.getDbIndex() > 0)
+                            mWorkOrderIndex.update(currentWorkOrder);
+                    }
+
                     if (!sWorkOrderWorkerIsActive) {
-                        sWorkOrderWorker = null;
-                        mPendingWorkOrders.clear();
-                        
-                       
+                        sWorkOrderWorkers.remove(Thread.currentThread());
+                        if (sWorkOrderWorkers.isEmpty())
+                            mPendingWorkOrders.clear();
+                        else if (!sWorkOrderWorkerIsActive)
+                            // pass the QUIT on to the next worker still blocked in take()
+                            mPendingWorkOrders.put(new WorkOrder(State.QUIT));
                     }  else {
                         if (isPriorityBasedInciteRequired()) {
                             restartCurrentWorkOrder(false);
@@ -841,6 +1244,7 @@ public class WorkOrderManager extends Service implements Runnable {
                     mPendingWorkOrders.notifyAll();                   
                 }
             }
+        }
     }
 
  // ----------------------------------------------------------------------------------------------------------------------------------
@@ -865,121 +1269,69 @@ public class WorkOrderManager extends Service implements Runnable {
     
 
     // ----------------------------------------------------------------------------------------------------------------------------------
-    // reload latest work orders from the data base, recalculate their
-    // priorities, sort the list and resume processing
+    // re-sort the work orders that changed since the previous call, recalculate
+    // the relative priorities of their origins and resume processing
+    //
+    // the active work orders are loaded from the data base only once; from then
+    // on mWorkOrderIndex tracks them as they are inserted and change state
     //
-    // if the head element in workOrdersToSort is not mCurrentWorkOrder, stop
-    // the
+    // if every worker is busy and the head element in workOrdersToSort outranks
+    // the lowest-priority current work order, stop that
     // current work order, then
     // pop and resume the highest-priority work order; otherwise just ensure the
-    // current work order is running
+    // current work orders are running
     //
     protected void calculateWorkOrderPriorities(boolean suspend) {
         synchronized (mPendingWorkOrders) {
-            PriorityBlockingQueue<WorkOrder> sortedWorkOrders = new PriorityBlockingQueue<WorkOrder>();
-            PriorityBlockingQueue<WorkOrder> currentWorkOrders = new PriorityBlockingQueue<WorkOrder>();
-            PriorityBlockingQueue<WorkOrder> priorityWorkOrders = new PriorityBlockingQueue<WorkOrder>();
+            if (!mWorkOrderIndex.isLoaded())
+                mWorkOrderIndex.load(getApplicationContext());
 
-            HashMap<String, ArrayList<WorkOrderPriority>> uuidPriorityMaps = new HashMap<String, ArrayList<WorkOrderPriority>>();
-            HashMap<String, ArrayList<CmDate>> uuidPriorityTimeMaps = new HashMap<String, ArrayList<CmDate>>();
+            ArrayList<WorkOrder> changedWorkOrders = mWorkOrderIndex.takeChangedWorkOrders();
+            LinkedHashMap<Long, WorkOrder> workOrdersToSort = new LinkedHashMap<Long, WorkOrder>();
+            HashSet<String> changedOrigins = new HashSet<String>();
 
-            for (WorkOrder workOrder : mPendingWorkOrders) {
-                try {
-                    String uid = workOrder.getClientUid();
-
-                    if (workOrder.getRelativePriority() == 0 || "".equals(uid) || workOrder.getOrderAction().getValue() >= Action.COMPLETED.getValue()) {
-                        workOrder.calculateWorkOrderExecutionPriority();
-                        sortedWorkOrders.put(workOrder);
-                        currentWorkOrders.put(workOrder);
-                    } else {
-                        currentWorkOrders.put(workOrder);
-                        priorityWorkOrders.put(workOrder);
-                    }
-                } catch (Exception fault) {
-                    CmClientUtil.debugLog(getClass(), "calculateWorkOrderPriorities @ first loop",
-                            fault);
+            for (WorkOrder workOrder : changedWorkOrders) {
+                scheduleTimeWindow(workOrder);
 
-                }
+                String uid = workOrder.getClientUid();
+                if (workOrder.getRelativePriority() != 0 && !"".equals(uid))
+                    changedOrigins.add(uid);
+                workOrdersToSort.put(workOrder.getDbIndex(), workOrder);
             }
+            rearmTimeWindowAlarm();
 
-            Long[] woids = HQME.WorkOrder.getRecordIds(getApplicationContext(),  
-                                        HQME.WorkOrder.active_filter);              
-
-
-            if (woids != null)
-                for (Long id : woids) {
-                    WorkOrder workOrder = HQME.WorkOrder.getRecord(getApplicationContext(), id);
-                    if (workOrder != null)
-                        try {
-                            String uid = workOrder.getClientUid();
-
-                            if (Action.COMPLETED.equals(workOrder.getOrderAction()))
-                                continue;
-
-                            if (isWorkOrderInQueue(workOrder, currentWorkOrders))
-                                continue;
-
-                            if (workOrder.getRelativePriority() == 0
-                                    || "".equals(uid)
-                                    || workOrder.getOrderAction().getValue() > Action.COMPLETED
-                                            .getValue()) {
-                                workOrder.calculateWorkOrderExecutionPriority();
-                                sortedWorkOrders.put(workOrder);
-                            } else {
-                                priorityWorkOrders.put(workOrder);
-                            }
-
-                        } catch (Exception fault) {
-                            CmClientUtil.debugLog(getClass(),
-                                    "calculateWorkOrderPriorities @ second loop", fault);
-
-                        }
-                }
-                    
-            for (WorkOrder workOrder : priorityWorkOrders) {
-                String uid = workOrder.getClientUid();
+            // for each origin with a changed relative priority work order, hand out the
+            // priorityTimes of its work orders in order of relative priority, then
+            // calculate a new execution priority based on that
+            int j=0;
+            for (String uid : changedOrigins) {
+                ArrayList<CmDate> uidWoPriorityTime = new ArrayList<CmDate>();
+                ArrayList<WorkOrderPriority> uidWoPriorities = new ArrayList<WorkOrderPriority>();
 
-                if (uuidPriorityMaps.get(uid) == null) {
-                    ArrayList<CmDate> sortedDates = new ArrayList<CmDate>();
-                    ArrayList<WorkOrderPriority> relativePrioritySortedWos = new ArrayList<WorkOrderPriority>();
-                    relativePrioritySortedWos.add(new WorkOrderPriority(workOrder, workOrder
-                            .getRelativePriority()));
-                    sortedDates.add(workOrder.getPriorityTime());
-                    uuidPriorityTimeMaps.put(uid, sortedDates);
-                    uuidPriorityMaps.put(uid, relativePrioritySortedWos);
-                } else {
-                    ArrayList<CmDate> sortedDates = uuidPriorityTimeMaps.get(uid);
-                    ArrayList<WorkOrderPriority> relativePrioritySortedWos = uuidPriorityMaps
-                            .get(uid);
-                    sortedDates.add(workOrder.getPriorityTime());
-                    relativePrioritySortedWos.add(new WorkOrderPriority(workOrder, workOrder
-                            .getRelativePriority()));
-                    uuidPriorityTimeMaps.put(uid, sortedDates);
-                    uuidPriorityMaps.put(uid, relativePrioritySortedWos);
+                for (WorkOrder workOrder : mWorkOrderIndex.getOriginWorkOrders(uid)) {
+                    try {
+                        if (workOrder.getRelativePriority() == 0
+                                || workOrder.getOrderAction().getValue() >= Action.COMPLETED.getValue()
+                                || findCurrentWorkOrder(workOrder.getDbIndex()) != null)
+                            continue;
+
+                        uidWoPriorityTime.add(workOrder.getPriorityTime());
+                        uidWoPriorities.add(new WorkOrderPriority(workOrder, workOrder
+                                .getRelativePriority()));
+                    } catch (Exception fault) {
+                        CmClientUtil.debugLog(getClass(),
+                                "calculateWorkOrderPriorities @ origin loop", fault);
+                    }
                 }
 
-            }
-
-            // now get all the work orders that are in the maps, set the
-            // priorityTime of each
-            // to be the value of the appropriate prioritytime and calculate a
-            // new execution priority
-            // based on that
-            int j=0;
-            for (Entry<String, ArrayList<WorkOrderPriority>> uidWoPriority : uuidPriorityMaps
-                    .entrySet()) {
-                ArrayList<CmDate> uidWoPriorityTime = uuidPriorityTimeMaps.get(uidWoPriority
-                        .getKey());
                 Collections.sort(uidWoPriorityTime);
-                ArrayList<WorkOrderPriority> uidWoPriorities = uidWoPriority.getValue();
                 Collections.sort(uidWoPriorities);                
                 CmDate[] priorityTimes = new CmDate[uidWoPriorityTime.size()];
                 uidWoPriorityTime.toArray(priorityTimes);
                 int i = 0;
                 for (WorkOrderPriority woPriority : uidWoPriorities) {
                     woPriority.mWorkOrder.setPriorityTime(priorityTimes[i]);
-                    woPriority.mWorkOrder.calculateWorkOrderExecutionPriority();                    
-                    sortedWorkOrders.put(woPriority.mWorkOrder);
+                    workOrdersToSort.put(woPriority.mWorkOrder.getDbIndex(), woPriority.mWorkOrder);
                     i++;
                 }
                 j += i;
@@ -987,68 +1339,108 @@ public class WorkOrderManager extends Service implements Runnable {
 
             if (j > 0)
                 setPrioritySaveRequired(true);
-            // check to see if the current work order is the same as the head
+
+            // re-key the changed work orders in the queue, and queue those that are active
+            // but are neither queued nor held by a worker
+            for (WorkOrder workOrder : workOrdersToSort.values()) {
+                try {
+                    long workOrderIndex = workOrder.getDbIndex();
+
+                    if (findCurrentWorkOrder(workOrderIndex) != null) {
+                        mPendingWorkOrders.remove(workOrderIndex);
+                        continue;
+                    }
+
+                    WorkOrder pendingWorkOrder = mWorkOrderIndex.contains(workOrder) ? workOrder
+                            : mPendingWorkOrders.get(workOrderIndex);
+
+                    if (pendingWorkOrder != null) {
+                        // a blocked work order is queued again only once its rules pass and its hosts may be
+                        // tried again; it is marked as changed whenever one of the rules it depends on changes,
+                        // and when its retry time is reached
+                        if (QueueRequestState.BLOCKED.equals(pendingWorkOrder.getQueueRequestState())
+                                && !Action.EXECUTING.equals(pendingWorkOrder.getOrderAction())
+                                && (!(pendingWorkOrder.getUrgent() || pendingWorkOrder.evaluateRules())
+                                        || pendingWorkOrder.getRetryTime(System.currentTimeMillis()) > 0)) {
+                            mPendingWorkOrders.remove(workOrderIndex);
+                            continue;
+                        }
+
+                        pendingWorkOrder.calculateWorkOrderExecutionPriority();
+                        // re-keys the work order if already queued
+                        mPendingWorkOrders.put(pendingWorkOrder);
+                    }
+                } catch (Exception fault) {
+                    CmClientUtil.debugLog(getClass(), "calculateWorkOrderPriorities @ sort loop",
+                            fault);
+                }
+            }
+
+            // check to see if the current work orders are the same as the head
             // entry in workOrderQueue
-            // suspend the current work order when a [new] higher priority work
+            // suspend a current work order when a [new] higher priority work
             // order is encountered
             //
             if (suspend) { 
-                suspendCurrentWorkOrderIfNeeded(sortedWorkOrders);
+                suspendCurrentWorkOrdersIfNeeded(mPendingWorkOrders);
             }
-            
-            mPendingWorkOrders.clear();
-            sortedWorkOrders.drainTo(mPendingWorkOrders); 
-            
         }
     }
 
     // ----------------------------------------------------------------------------------------------------------------------------------
     // ----------------------------------------------------------------------------------------------------------------------------------
-    private void suspendCurrentWorkOrderIfNeeded(
-            PriorityBlockingQueue<WorkOrder> workOrderQueue) {
-        if (mCurrentWorkOrder == null || workOrderQueue == null)
+    private void suspendCurrentWorkOrdersIfNeeded(
+            WorkOrderQueue workOrderQueue) {
+        if (mCurrentWorkOrders.isEmpty() || workOrderQueue == null)
             return;
 
-        synchronized (mCurrentWorkOrder) {
-            //  suspend *may* be needed, but only if the current WorkOrder is still executing
-            if (!Action.EXECUTING.equals(mCurrentWorkOrder.getOrderAction()))
-                return;
+        WorkOrder headWo = workOrderQueue.peek();
+        WorkOrder lowestPriorityWo = null;
 
-            if (!mCurrentWorkOrder.evaluateRules()) {  // here would want the state to go to BLOCKED
-                this.suspendCurrentWorkOrder(false, Action.SUSPENDING,
-                        QueueRequestState.BLOCKED);
-                return;
+        for (WorkOrder currentWorkOrder : mCurrentWorkOrders) {
+            synchronized (currentWorkOrder) {
+                //  suspend *may* be needed, but only if the current WorkOrder is still executing
+                if (!Action.EXECUTING.equals(currentWorkOrder.getOrderAction()))
+                    continue;
+
+                if (!currentWorkOrder.evaluateRules()) {  // here would want the state to go to BLOCKED
+                    this.suspendCurrentWorkOrder(currentWorkOrder, false, Action.SUSPENDING,
+                            QueueRequestState.BLOCKED);
+                    continue;
+                }
+
+                if (headWo == null || headWo.getDbIndex() == currentWorkOrder.getDbIndex())
+                    continue;
+
+                // the work orders are from the same origin and the head of the queue has a
+                // greater relative priority: the current work order must give way
+                if (currentWorkOrder.getRelativePriority() != 0
+                        && currentWorkOrder.getClientUid().equals(headWo.getClientUid())
+                        && currentWorkOrder.getRelativePriority() < headWo.getRelativePriority()) {
+                    this.suspendCurrentWorkOrder(currentWorkOrder, false, Action.WAITING,
+                            QueueRequestState.WAITING);// here would want the state to go to WAITING
+                    continue;
+                }
+
+                if (lowestPriorityWo == null || currentWorkOrder.compareTo(lowestPriorityWo) > 0)
+                    lowestPriorityWo = currentWorkOrder;
             }
+        }
+
+        // while a worker is idle the head of the queue will be picked up without preempting anyone
+        if (lowestPriorityWo == null || mCurrentWorkOrders.size() < MAX_CONCURRENT_WORK_ORDERS)
+            return;
 
-            if (workOrderQueue.size() == 0)
+        synchronized (lowestPriorityWo) {
+            if (!Action.EXECUTING.equals(lowestPriorityWo.getOrderAction()))
                 return;
 
-            // the work order is still meant to be executing, and the queue is not empty apart from the current workOrder
-            long cbIndex = mCurrentWorkOrder.getDbIndex();
-            WorkOrder headWo = workOrderQueue.peek();
-            long dbIndex = headWo.getDbIndex();
-            if (dbIndex == cbIndex)  // top of the queue is the current wo
+            // if the lowest priority current work order still has higher priority than the top
+            // of the queue
+            if (lowestPriorityWo.compareTo(headWo) <= 0)
                 return;
-            
-            // if the current work order has higher priority than the top of the
-            // queue
-            if (mCurrentWorkOrder.compareTo(headWo) <= 0) {
-                if (!mCurrentWorkOrder.getClientUid().equals(headWo.getClientUid())
-                        || mCurrentWorkOrder.getRelativePriority() == 0) {
-                    // the work orders are from different origins or currently
-                    // executing work order does not have a relative priority set
-                    return;
-                } else {
-                    if (mCurrentWorkOrder.getRelativePriority() >= headWo
-                            .getRelativePriority())
-                        // the work orders are from the same origin and the
-                        // current work order has equal or greater relative
-                        // priority
-                        return;
-                }
-            }
-                        
-            this.suspendCurrentWorkOrder(false, Action.WAITING,
+
+            this.suspendCurrentWorkOrder(lowestPriorityWo, false, Action.WAITING,
                     QueueRequestState.WAITING);// here would want the state to go to WAITING
         }
     }
@@ -1057,10 +1449,8 @@ public class WorkOrderManager extends Service implements Runnable {
     protected void resumeCurrentWorkOrder() {
         synchronized (mPendingWorkOrders) {
             try {
-                if (sWorkOrderWorker == null) {
-                    sWorkOrderWorker = new Thread(this, getClass().getName() + ".workOrderWorker");
-                    sWorkOrderWorker.setPriority(Thread.MIN_PRIORITY);
-                    sWorkOrderWorker.start();
+                if (sWorkOrderWorkers.isEmpty()) {
+                    startWorkOrderWorkers();
                     mPendingWorkOrders.wait();
                 } else
                     calculateWorkOrderPriorities(true);
@@ -1075,10 +1465,8 @@ public class WorkOrderManager extends Service implements Runnable {
     protected void restartCurrentWorkOrder(boolean suspend) {
         synchronized (mPendingWorkOrders) {
             try {
-                if (sWorkOrderWorker == null) {
-                    sWorkOrderWorker = new Thread(this, getClass().getName() + ".workOrderWorker");
-                    sWorkOrderWorker.setPriority(Thread.MIN_PRIORITY);
-                    sWorkOrderWorker.start();
+                if (sWorkOrderWorkers.isEmpty()) {
+                    startWorkOrderWorkers();
                     mPendingWorkOrders.wait();
                     calculateWorkOrderPriorities(suspend);
                 } else
@@ -1090,14 +1478,14 @@ public class WorkOrderManager extends Service implements Runnable {
     }
 
     // ----------------------------------------------------------------------------------------------------------------------------------
-    protected void suspendCurrentWorkOrder(boolean abort, Action newAction, QueueRequestState newState) {
+    protected void suspendCurrentWorkOrder(WorkOrder currentWorkOrder, boolean abort, Action newAction, QueueRequestState newState) {
         synchronized (mPendingWorkOrders) {
-            if (sWorkOrderWorkerIsActive && mCurrentWorkOrder != null)
+            if (sWorkOrderWorkerIsActive && currentWorkOrder != null)
                 try {
                     if (abort)
-                        mCurrentWorkOrder.cancel();
+                        currentWorkOrder.cancel();
                     else
-                        mCurrentWorkOrder.suspend(newAction, newState);
+                        currentWorkOrder.suspend(newAction, newState);
                 } catch (Exception fault) {
                     CmClientUtil.debugLog(getClass(), "suspendCurrentWorkOrder("
                             + (abort ? "abort" : "save") + ")", fault);
@@ -1106,11 +1494,11 @@ public class WorkOrderManager extends Service implements Runnable {
     }
 
     // ----------------------------------------------------------------------------------------------------------------------------------
-    protected void disableCurrentWorkOrder() {
+    protected void disableCurrentWorkOrder(WorkOrder currentWorkOrder) {
         synchronized (mPendingWorkOrders) {
-            if (sWorkOrderWorkerIsActive && mCurrentWorkOrder != null)
+            if (sWorkOrderWorkerIsActive && currentWorkOrder != null)
                 try {                    
-                   mCurrentWorkOrder.disable();
+                   currentWorkOrder.disable();
                 } catch (Exception fault) {
                     CmClientUtil.debugLog(getClass(), "disableCurrentWorkOrder("
                             + ("save") + ")", fault);
@@ -1119,50 +1507,58 @@ public class WorkOrderManager extends Service implements Runnable {
     }
 
     // ----------------------------------------------------------------------------------------------------------------------------------
-    protected void suspendCurrentWorkOrder() {
-        this.suspendCurrentWorkOrder(false, Action.SUSPENDING, QueueRequestState.BLOCKED);
+    protected void suspendCurrentWorkOrder(WorkOrder currentWorkOrder) {
+        this.suspendCurrentWorkOrder(currentWorkOrder, false, Action.SUSPENDING, QueueRequestState.BLOCKED);
     }
 
     // ----------------------------------------------------------------------------------------------------------------------------------
-    protected void cancelCurrentWorkOrder() {
-        this.suspendCurrentWorkOrder(true,null, null);
+    protected void suspendCurrentWorkOrders() {
+        for (WorkOrder currentWorkOrder : mCurrentWorkOrders)
+            this.suspendCurrentWorkOrder(currentWorkOrder);
     }
 
     // ----------------------------------------------------------------------------------------------------------------------------------
-    // search the current work order and pending work orders queue for the
-    // specified work order (their workOrderIndex values must match)
-    //
-    private boolean isWorkOrderInQueue(WorkOrder workOrder,
-            PriorityBlockingQueue<WorkOrder> workOrderQueue) {
-        synchronized (mPendingWorkOrders) {
-            long workOrderIndex = workOrder.getDbIndex();
-
-            if (mCurrentWorkOrder != null && mCurrentWorkOrder.getDbIndex() == workOrderIndex)
-                return true;
+    protected void cancelCurrentWorkOrder(WorkOrder currentWorkOrder) {
+        this.suspendCurrentWorkOrder(currentWorkOrder, true, null, null);
+    }
 
-            for (WorkOrder order : workOrderQueue)
-                if (order.getDbIndex() == workOrderIndex)
-                    return true;
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // search the work orders held by the sWorkOrderWorker threads for the specified work order
+    //
+    protected WorkOrder findCurrentWorkOrder(long workOrderIndex) {
+        for (WorkOrder currentWorkOrder : mCurrentWorkOrders)
+            if (currentWorkOrder.getDbIndex() == workOrderIndex)
+                return currentWorkOrder;
 
-            return false;
-        }
+        return null;
     }
 
     // ----------------------------------------------------------------------------------------------------------------------------------
-    // search current work order, pending work orders queue, and work order data
+    // search current work orders, the work order index, pending work orders queue, and work order data
     // base for a work order with the specified workOrderIndex
     //
     public WorkOrder findWorkOrder(long workOrderIndex) {
-        synchronized (mPendingWorkOrders) {
-            if (mCurrentWorkOrder != null && mCurrentWorkOrder.getDbIndex() == workOrderIndex)
-                return mCurrentWorkOrder;
-
-            for (WorkOrder workOrder : mPendingWorkOrders)
-                if (workOrder.getDbIndex() == workOrderIndex)
-                    return workOrder;
-
-            return HQME.WorkOrder.getRecord(getApplicationContext(), workOrderIndex);
-        }
+        // each of these look-ups is constant time and thread-safe, so the scheduler lock is not needed
+        WorkOrder currentWorkOrder = findCurrentWorkOrder(workOrderIndex);
+        if (currentWorkOrder != null)
+            return currentWorkOrder;
+
+        WorkOrder pendingWorkOrder = mPendingWorkOrders.get(workOrderIndex);
+        if (pendingWorkOrder != null)
+            return pendingWorkOrder;
+
+        WorkOrder indexedWorkOrder = mWorkOrderIndex.get(workOrderIndex);
+        if (indexedWorkOrder != null)
+            return indexedWorkOrder;
+
+        WorkOrder registeredWorkOrder = mWorkOrderStates.get(workOrderIndex);
+        if (registeredWorkOrder != null)
+            return registeredWorkOrder;
+
+        WorkOrder storedWorkOrder = HQME.WorkOrder.getRecord(getApplicationContext(), workOrderIndex);
+        if (storedWorkOrder != null)
+            mWorkOrderStates.add(storedWorkOrder);
+        return storedWorkOrder;
     }
     
  // ----------------------------------------------------------------------------------------------------------------------------------
@@ -1213,95 +1609,38 @@ public class WorkOrderManager extends Service implements Runnable {
 
     }
 
- // ----------------------------------------------------------------------------------------------------------------------------------
-    // search current work order, pending work orders queue, and work order data
-    // base for workOrderIds in the given state     
-    private HashSet<Long> getWorkOrderIdsState(int state) {
-        
-        synchronized (mPendingWorkOrders) {
-            HashSet<Long> existingIds = new HashSet<Long>();
-            
-            if (mCurrentWorkOrder != null && mCurrentWorkOrder.getQueueRequestState().state() == state)
-                existingIds.add(mCurrentWorkOrder.getDbIndex());
-
-            for (WorkOrder workOrder : mPendingWorkOrders) {
-                // user
-                if (workOrder.getQueueRequestState().state() == state)
-                    existingIds.add(workOrder.getDbIndex());
-                CmClientUtil.debugLog(getClass(), "getRelevantWorkOrderIdsState: " + "id = " + workOrder.getDbIndex() + " state = " + QueueRequestState.get(state).name());
-
-            }
-
-            Long[] woids = HQME.WorkOrder.getRecordIdsState(getApplicationContext(), QueueRequestState.get(state).name(),
-                    null);
-            
-            if (woids != null) {
-                for (int i = 0; i < woids.length; i++) {
-                    existingIds.add(woids[i]);
-                }
-            }
-
-            return existingIds;
-        }
-    }
-
-    // ----------------------------------------------------------------------------------------------------------------------------------
-    // search current work order, pending work orders queue, and work order data
-    // base for workOrderIds that are visible/modifiable/deletable by the client application
-    // valid permission strings: "HQME_PERMISSION_READ","HQME_PERMISSION_DELETE","HQME_PERMISSION_MODIFY"
-    // Note: owner client applications may restrict even their own ability to delete etc. using these permissions    
-    private HashSet<Long> getRelevantWorkOrderIdsState(int permission, String uid, int state) {
-        
-        synchronized (mPendingWorkOrders) {
-            HashSet<Long> existingIds = new HashSet<Long>();
-            
-            if (mCurrentWorkOrder != null && mCurrentWorkOrder.getQueueRequestState().state() == state  && mCurrentWorkOrder.isRelevantWorkOrder(permission,uid) )
-                existingIds.add(mCurrentWorkOrder.getDbIndex());
-
-            for (WorkOrder workOrder : mPendingWorkOrders) {
-                // user
-                if (workOrder.getQueueRequestState().state() == state && workOrder.isRelevantWorkOrder(permission,uid) )
-                    existingIds.add(workOrder.getDbIndex());
-                CmClientUtil.debugLog(getClass(), "getRelevantWorkOrderIdsState: " + "id = " + workOrder.getDbIndex() + " state = " + QueueRequestState.get(state).name());
-
-            }
-
-            // TODO extend permissions implementation in DB
-            String userSelection = "(" + HQME.WorkOrder.APP_UUID + " like '" + uid + "'" + " AND "
-                    + HQME.WorkOrder.USERPERMISSIONS + " & " + permission + ")";
-            String worldSelection = HQME.WorkOrder.WORLDPERMISSIONS + " & " + permission;
-            String groupSelection = "(" + HQME.WorkOrder.GROUPPERMISSIONS + " & " + permission
-                    + " AND " + HQME.WorkOrder.GROUP + " like '" + uid + "')";
-
-            String relevantFilter = userSelection + " OR " + groupSelection + " OR "
-                    + worldSelection;
-
-            Long[] woids = HQME.WorkOrder.getRecordIdsState(getApplicationContext(), QueueRequestState.get(state).name(),
-                    relevantFilter);
-            
-            if (woids != null) {
-                for (int i = 0; i < woids.length; i++) {
-                    existingIds.add(woids[i]);
-                }
-            }
-
-            return existingIds;
-        }
-    }
-
     private Long[] getVisibleWorkOrderIds(String origin, boolean superuser) {
         return superuser ? HQME.WorkOrder.getRecordIds(getApplicationContext(), (String) null) : getRelevantWorkOrderIds(WorkOrder.sVisible,origin);       
     }
 
+    // answered from mWorkOrderStates without locking the queue or querying the data base
     private HashSet<Long> getVisibleWorkOrderIdsState(String origin, int state, boolean superuser) {
-        return superuser ? getWorkOrderIdsState(state) : getRelevantWorkOrderIdsState(WorkOrder.sVisible, origin, state);       
+        mWorkOrderStates.ensureLoaded(getApplicationContext());
+        QueueRequestState queueRequestState = QueueRequestState.get(state);
+        return superuser ? mWorkOrderStates.getIds(queueRequestState) : mWorkOrderStates.getRelevantIds(
+                queueRequestState, WorkOrder.sVisible, origin);
+    }
+
+    private int getVisibleWorkOrderCountState(String origin, int state, boolean superuser) {
+        mWorkOrderStates.ensureLoaded(getApplicationContext());
+        QueueRequestState queueRequestState = QueueRequestState.get(state);
+        return superuser ? mWorkOrderStates.count(queueRequestState) : mWorkOrderStates.getRelevantIds(
+                queueRequestState, WorkOrder.sVisible, origin).size();
     }
 
  // ----------------------------------------------------------------------------------------------------------------------------------
-    // check the pending work orders queue, and the database to see if any work orders
-    // with the same uid, that are currently executable have a higher priority    
+    // check the current work orders, the pending work orders queue, and the in-memory index of the active work
+    // orders to see if any work orders with the same uid, that are currently executable have a higher priority
     public boolean isHighestPriorityExecutableRequest(int relativePriority, String uid) {
         synchronized (mPendingWorkOrders) {
+            for (WorkOrder workOrder : mCurrentWorkOrders) {
+                int priority = workOrder.getRelativePriority();
+                if (workOrder.getClientUid().equals(uid) && (priority > 0 && priority <=100))
+                    if (priority > relativePriority
+                            && Action.EXECUTING.equals(workOrder.getOrderAction()))
+                        return false;
+            }
+
             for (WorkOrder workOrder : mPendingWorkOrders) {
                 int priority = workOrder.getRelativePriority();
                 if (workOrder.getClientUid().equals(uid) && (priority > 0 && priority <=100))
@@ -1310,22 +1649,17 @@ public class WorkOrderManager extends Service implements Runnable {
                         return false;
             }
 
-            Long[] woids = HQME.WorkOrder.getRecordIds(getApplicationContext(), 
-                    HQME.WorkOrder.active_filter);
-
-            if(woids != null) 
-                for(Long id : woids) {
-                    WorkOrder workOrder =  HQME.WorkOrder.getRecord(getApplicationContext(), id); 
-                    if(workOrder != null) {
-                        int priority = workOrder.getRelativePriority();
-                        if (workOrder.getClientUid().equals(uid)
-                                && (priority > 0 && priority <= 100))
-                            if (priority > relativePriority
-                                    && workOrder.evaluateRules() && workOrder.getOrderAction().getValue() < Action.COMPLETED
-                                            .getValue())
-                                return false;
-                    }
-                }
+            // the active work orders of the origin, as the data base holds them, without querying it
+            if (!mWorkOrderIndex.isLoaded())
+                mWorkOrderIndex.load(getApplicationContext());
+            for (WorkOrder workOrder : mWorkOrderIndex.getOriginWorkOrders(uid)) {
+                int priority = workOrder.getRelativePriority();
+                if (priority > 0 && priority <= 100)
+                    if (priority > relativePriority
+                            && workOrder.evaluateRules() && workOrder.getOrderAction().getValue() < Action.COMPLETED
+                                    .getValue())
+                        return false;
+            }
 
             return true;
         }
@@ -1355,31 +1689,12 @@ public class WorkOrderManager extends Service implements Runnable {
     
     protected RestartNonCompletedWorkOrders mReloadWorkOrders = new RestartNonCompletedWorkOrders();
     
-    void createMandatoryAlerts () {
-        Long[] woids = HQME.WorkOrder.getRecordIds(getApplicationContext(),
-                HQME.WorkOrder.non_completed_filter);
-
-        if (woids != null)
-            for (Long id : woids) {
-                WorkOrder workOrder = HQME.WorkOrder.getRecord(getApplicationContext(), id);
-                if (workOrder != null)
-                    try {
-                        if (workOrder.getMandatory())
-                            workOrder.issueMandatoryTimeAlerts(workOrder.mProperties
-                                    .get(QueueRequestObject.TAG_POLICY));
-                    } catch (Exception fault) {
-                        CmClientUtil.debugLog(getClass(),
-                                "calculateWorkOrderPriorities @ second loop", fault);
-
-                    }
-            }           
-    }
-    
     private class RestartNonCompletedWorkOrders extends AsyncTask<Void, Void, Void> {       
 
         @Override
         protected Void doInBackground(Void... arg0) {
-                createMandatoryAlerts();
+                // progress journaled after the work orders were last written is restored first
+                ProgressJournal.getInstance(getApplicationContext()).replay(getApplicationContext());
                 restartCurrentWorkOrder(true);
             return null;        
         }           
@@ -1398,9 +1713,6 @@ public class WorkOrderManager extends Service implements Runnable {
 
         sClients = new RemoteCallbackList<IRequestManagerCallback>();
         sUid = this.getApplicationInfo().uid;
-        // to do periodically set an alarm to awake the app in case some time schedule based QueueRequests
-        // have not become possible to execute
-        broadcastRepeatingIntent();        
         
         // TODO: what to do in the instance that we can not bind to the storage manager
         bindStorageManager();
@@ -1418,12 +1730,12 @@ public class WorkOrderManager extends Service implements Runnable {
                                 synchronized (sAvailableVSDs) {
                                     Integer Id = msg.arg2;
                                     sAvailableVSDs.remove(Id);
-                                    if (mCurrentWorkOrder != null) {
-                                        synchronized (mCurrentWorkOrder) {
-                                            if (Action.EXECUTING.equals(mCurrentWorkOrder
+                                    for (WorkOrder currentWorkOrder : mCurrentWorkOrders) {
+                                        synchronized (currentWorkOrder) {
+                                            if (Action.EXECUTING.equals(currentWorkOrder
                                                     .getOrderAction())) {
-                                                if (mCurrentWorkOrder.getStorageId() == msg.arg2)
-                                                    suspendCurrentWorkOrder(false, Action.SUSPENDING, QueueRequestState.BLOCKED);
+                                                if (currentWorkOrder.getStorageId() == msg.arg2)
+                                                    suspendCurrentWorkOrder(currentWorkOrder, false, Action.SUSPENDING, QueueRequestState.BLOCKED);
                                             }
                                         }
                                     }
@@ -1555,17 +1867,15 @@ public class WorkOrderManager extends Service implements Runnable {
                     .getSystemService(Context.CONNECTIVITY_SERVICE);
 
             synchronized (mPendingWorkOrders) {
-                cancelRepeatingIntent();
-                cancelMandatoryTimeAlerts();
-                suspendCurrentWorkOrder();
+                cancelTimeWindowAlarm();
+                suspendCurrentWorkOrders();
 
+                // the QUIT is handed on from worker to worker until the pool is empty
                 if (enqueueExecutionState(State.QUIT))
-                    mPendingWorkOrders.wait();
+                    while (!sWorkOrderWorkers.isEmpty())
+                        mPendingWorkOrders.wait();
             }
             
-            if (sBandwidthTimer != null)
-                sBandwidthTimer.cancel();
-            
             // unbind from the StorageManager
             if (mPluginManagerConnection != null) {
                 sPluginManager.unregisterCallback(mStorageManagerCallback);                
@@ -1620,23 +1930,7 @@ public class WorkOrderManager extends Service implements Runnable {
     }
 
     // ==================================================================================================================================
-    private void broadcastRepeatingIntent() {
-        Intent intent = new Intent(UPDATE_TIME, null, WorkOrderManager.this,
-                RULE_TIME.class);
-        PendingIntent sender = PendingIntent.getBroadcast(this, 0, intent, 0);
-
-        long firstTime = SystemClock.elapsedRealtime();
-        // 30 seconds since boot
-        firstTime += 30 * 1000;
-
-        AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-        // every 15 minutes for testing - inexact to conserve battery life
-        am.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, firstTime,
-                AlarmManager.INTERVAL_FIFTEEN_MINUTES, sender);
-    };
-
-    // ----------------------------------------------------------------------------------------------------------------------------------
-    private void cancelRepeatingIntent() {
+    private void cancelTimeWindowAlarm() {
         Intent intent = new Intent(UPDATE_TIME, null, WorkOrderManager.this,
                 RULE_TIME.class);
         PendingIntent sender = PendingIntent.getBroadcast(this, 0, intent, 0);
@@ -1644,71 +1938,12 @@ public class WorkOrderManager extends Service implements Runnable {
         // And cancel the alarm.
         AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
         am.cancel(sender);
-    }
-   
-    // ==================================================================================================================================
-    protected void broadcastMandatoryTimeAlert(long broadcastTime, long endTime, int i,long woid) {
-        // Make some unique Uri for each end of the time period (duplicate alarms set for 
-        // same intent get overwritten)        
-        Uri intentUri
-                = Uri.parse("hqme://" + getApplicationInfo().className + "/" + woid + ";" + i);
-
-        // if the window has passed, do not issue alarms for this
-        Date now = new Date(System.currentTimeMillis());
-        if (now.getTime() < endTime) {
-            synchronized (sMandatoryAlerts) {
-                AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-                Intent intent = new Intent(MANDATORY_END, intentUri, WorkOrderManager.this,
-                        RULE_MANDATORY_TIME.class);
-                PendingIntent endPI = PendingIntent.getBroadcast(this, 0, intent, 0);
-                am.set(AlarmManager.RTC_WAKEUP, endTime, endPI);
-                sMandatoryAlerts.add(endPI);
-                if (now.getTime() < broadcastTime) {
-                    Intent startIntent = new Intent(MANDATORY_START, intentUri,
-                            WorkOrderManager.this, RULE_MANDATORY_TIME.class);
-                    PendingIntent startPI = PendingIntent.getBroadcast(this, 0, startIntent, 0);
-                    am.set(AlarmManager.RTC_WAKEUP, broadcastTime, startPI);
-                    sMandatoryAlerts.add(startPI);
-                }
-            }            
-        } 
-        
-    };
-
-    
-    // ==================================================================================================================================
-    protected void cancelMandatoryTimeAlert(int i,long woid) {
-        // Make some unique Uri for each end of the time period (duplicate alarms set for 
-        // same intent get overwritten)
-        synchronized (sMandatoryAlerts) {
-            Uri intentUri = Uri.parse("hqme://" + getApplicationInfo().className + "/" + woid + ";"
-                    + i);
-
-            AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-            Intent intent = new Intent(MANDATORY_END, intentUri, WorkOrderManager.this,
-                    RULE_MANDATORY_TIME.class);
-            PendingIntent endPI = PendingIntent.getBroadcast(this, 0, intent, 0);
-            am.cancel(endPI);
-            sMandatoryAlerts.remove(endPI);
-            Intent startIntent = new Intent(MANDATORY_START, intentUri, WorkOrderManager.this,
-                    RULE_MANDATORY_TIME.class);
-            PendingIntent startPI = PendingIntent.getBroadcast(this, 0, startIntent, 0);
-            am.cancel(startPI);
-            sMandatoryAlerts.remove(startPI);
-        }
 
-    };
-
-    //----------------------------------------------------------------------------------------------------------------------------------
-    void cancelMandatoryTimeAlerts() {               
-        // And cancel the alarms.
-        AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-        synchronized (sMandatoryAlerts) {
-            for (PendingIntent pi : sMandatoryAlerts)
-                am.cancel(pi);
+        synchronized (mTimeWindows) {
+            mTimeWindowAlarm = -1;
         }
-        
     }
+
     // ----------------------------------------------------------------------------------------------------------------------------------
     protected boolean bindStorageManager() {
         // Start VSD storage manager
@@ -1746,92 +1981,44 @@ public class WorkOrderManager extends Service implements Runnable {
     }
     
     // ==================================================================================================================================
-    public static long getDownloadRate() {
-        return sDownloadRate;
-    }
+    // RULE_BANDWIDTH_LIMIT is enforced by pacing the transfers of the executing work orders through one token
+    // bucket, at the lowest of their limits while the session is on a mobile network
+    private static final TokenBucket sBandwidthThrottle = new TokenBucket();
 
-    public static long setDownloadRate(long l) {
-        sDownloadRate = l;
-        return l;
-    }
-    
+    // the limits, in bytes per second, of the executing work orders with a RULE_BANDWIDTH_LIMIT
+    private static final HashMap<WorkOrder, Integer> sBandwidthLimits = new HashMap<WorkOrder, Integer>();
 
-    private static int sMinimumBandwidthLimit = -1;
-    private static boolean sBandwidthMonitorEnabled = false;
-    private static Timer sBandwidthTimer = new Timer();
-    private static long sStartBytes;
-    private static long sEndBytes;
-    private static long sStartTime;
-    private static long sEndTime;
-    private static long sDownloadRate;
-    final static int MINUTE = 60 * 1000;
-    
-    static void disableBandwidthMonitor() {
-        if (TrafficStats.getUidRxBytes(WorkOrderManager.sUid) != TrafficStats.UNSUPPORTED)
-            if (sMinimumBandwidthLimit > -1) {
-                RULE_BANDWIDTH_LIMIT.getInstance().unregister();
-                if (sBandwidthTimerTask != null)
-                    sBandwidthTimerTask.cancel();                
-                // we do  not reset the download rate at this point, instead wait for 
-                // a) recalculation as part of another download that uses the download monitor
-                // b) reset to 0 when a QueueRequest is completed normally 
-                // c) reset to 0 when calculateWorkOrderPriorities is called (provided the download rate monitor is inactive)  
-                sBandwidthMonitorEnabled = false;
-            }
+    static TokenBucket getBandwidthThrottle() {
+        return sBandwidthThrottle;
     }
 
-    static void enableBandwidthMonitor() {
-        if (TrafficStats.getUidRxBytes(WorkOrderManager.sUid) != TrafficStats.UNSUPPORTED) {
-            int bandwidthLimit = WorkOrderManager.getInstance().mCurrentWorkOrder.getPolicy().getBandwidthLimit();
-            if (bandwidthLimit > -1
-                    && RULE_CONNECTION_TYPE.isMobileSession()) {
-                sMinimumBandwidthLimit = bandwidthLimit << 10; // defined in kbps
-                RULE_BANDWIDTH_LIMIT.getInstance().register();
-                sBandwidthMonitorEnabled = true;
-                if (sBandwidthTimerTask != null)
-                       sBandwidthTimerTask.cancel();                
-                sBandwidthTimerTask = WorkOrderManager.getInstance().new BandwidthTask();
-                sStartBytes = TrafficStats.getUidRxBytes(WorkOrderManager.sUid);
-                sStartTime = SystemClock.uptimeMillis();
-                sBandwidthTimer.schedule(sBandwidthTimerTask, MINUTE, MINUTE);
-            }
-        }
-    }  
-    
-    static BandwidthTask sBandwidthTimerTask;
-    
-    class BandwidthTask extends TimerTask {
-
-        final Intent intent = new Intent("com.hqme.cm.core.BANDWIDTH", null,
-                CmClientUtil.getServiceContext(), RULE_BANDWIDTH_LIMIT.class);
-
-        public void run() {
-
-            if (sBandwidthMonitorEnabled) {
-
-                sEndBytes = TrafficStats.getUidRxBytes(WorkOrderManager.sUid);
-                sEndTime = SystemClock.uptimeMillis();
-
-                long timeDiff = sEndTime - sStartTime;
-                if (timeDiff > 0)
-                    if ((sDownloadRate = ((sEndBytes - sStartBytes) * 1000 / (sEndTime - sStartTime))) > sMinimumBandwidthLimit) {
-                        // the current download rate (bytes per second) is greater than the
-                        // minimum RULE_BANDWIDTH_LIMIT
-                        // referred to in the Policy (hard to say which is the
-                        // limiting
-                        // value of RULE_BANDWIDTH_LIMIT at any time, since this
-                        // depends on the complexity of the
-                        // <Download> element, so triggering an intent when
-                        // exceeding the minimum is conservative)
-                        CmClientUtil.getServiceContext().sendBroadcast(intent);
-                    }
+    // returns true if the work order has a bandwidth limit, in which case disableBandwidthThrottle must be
+    // called when it stops executing
+    static synchronized boolean enableBandwidthThrottle(WorkOrder workOrder) {
+        int bandwidthLimit = workOrder.getPolicy().getBandwidthLimit();
+        if (bandwidthLimit < 0)
+            return false;
 
-                sStartBytes = sEndBytes;
-                sStartTime = sEndTime;
-            }
-        }
+        sBandwidthLimits.put(workOrder, Math.max(1, bandwidthLimit << 10)); // KiB/s to bytes/s
+        updateBandwidthThrottle();
+        return true;
     }
-    
 
+    static synchronized void disableBandwidthThrottle(WorkOrder workOrder) {
+        if (sBandwidthLimits.remove(workOrder) != null)
+            updateBandwidthThrottle();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // (re)apply the lowest limit, for example when the connection type has changed
+    //
+    static synchronized void updateBandwidthThrottle() {
+        long rate = 0;
+        if (RULE_CONNECTION_TYPE.isMobileSession())
+            for (int limit : sBandwidthLimits.values())
+                if (rate <= 0 || limit < rate)
+                    rate = limit;
+        sBandwidthThrottle.setRate(rate);
+    }
 
 }
@@ -0,0 +1,261 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import android.content.Context;
+
+import com.hqme.cm.QueueRequestState;
+import com.hqme.cm.core.WorkOrder.Action;
+import com.hqme.cm.util.CmClientUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/**
+ * In-memory index of the schedulable work orders, keyed by their database index.
+ *
+ * The index is loaded from the database once. From then on it is kept up to date as work
+ * orders are inserted, change state or are given a new relative priority, and it records
+ * which work orders changed since the WorkOrderManager last re-sorted its queue.
+ *
+ * Work orders are also indexed by the rules their policies reference, so that a change in
+ * device state marks only the work orders that depend on the rule observing it.
+ */
+class WorkOrderPriorityIndex {
+    // ==================================================================================================================================
+    private final HashMap<Long, WorkOrder> mWorkOrders = new HashMap<Long, WorkOrder>();
+
+    private final HashMap<String, HashSet<WorkOrder>> mOriginWorkOrders = new HashMap<String, HashSet<WorkOrder>>();
+
+    // the content size of the work orders of each origin, and of each work order as it was counted
+    private final HashMap<String, Long> mOriginBytes = new HashMap<String, Long>();
+
+    private final HashMap<WorkOrder, Long> mWorkOrderBytes = new HashMap<WorkOrder, Long>();
+
+    private final HashMap<String, HashSet<WorkOrder>> mRuleWorkOrders = new HashMap<String, HashSet<WorkOrder>>();
+
+    private final HashMap<WorkOrder, HashSet<String>> mWorkOrderRules = new HashMap<WorkOrder, HashSet<String>>();
+
+    private LinkedHashMap<Long, WorkOrder> mChangedWorkOrders = new LinkedHashMap<Long, WorkOrder>();
+
+    private boolean mLoaded = false;
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // a work order belongs in the index while it is in one of the HQME.WorkOrder.active_filter
+    // states and has not yet completed
+    //
+    static boolean isSchedulable(WorkOrder workOrder) {
+        if (Action.COMPLETED.equals(workOrder.getOrderAction()))
+            return false;
+
+        QueueRequestState state = workOrder.getQueueRequestState();
+        for (QueueRequestState activeState : HQME.WorkOrder.active_filter)
+            if (activeState.equals(state))
+                return true;
+
+        return false;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // one-off load of the active work orders from the data base; work orders that are already
+    // indexed keep their in-memory instance
+    //
+    public synchronized void load(Context context) {
+        try {
+            Long[] woids = HQME.WorkOrder.getRecordIds(context, HQME.WorkOrder.active_filter);
+
+            if (woids != null)
+                for (Long id : woids) {
+                    if (mWorkOrders.containsKey(id))
+                        continue;
+
+                    // a work order the registry already knows keeps its in-memory instance and state
+                    WorkOrder workOrder = HQME.WorkOrder.getRecord(context, id);
+                    if (workOrder != null)
+                        update(WorkOrderManager.notifyWorkOrderLoaded(workOrder));
+                }
+        } catch (Exception fault) {
+            CmClientUtil.debugLog(getClass(), "load", fault);
+        } finally {
+            mLoaded = true;
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // (re)evaluate the membership of the work order and mark it as changed
+    //
+    public synchronized void update(WorkOrder workOrder) {
+        long workOrderIndex = workOrder.getDbIndex();
+        WorkOrder indexedWorkOrder = mWorkOrders.get(workOrderIndex);
+
+        if (isSchedulable(workOrder)) {
+            if (indexedWorkOrder != workOrder) {
+                if (indexedWorkOrder != null) {
+                    removeOrigin(indexedWorkOrder);
+                    removeRules(indexedWorkOrder);
+                }
+                mWorkOrders.put(workOrderIndex, workOrder);
+                addOrigin(workOrder);
+            } else
+                removeRules(workOrder); // the policy may have been modified
+            addRules(workOrder);
+        } else if (indexedWorkOrder != null) {
+            mWorkOrders.remove(workOrderIndex);
+            removeOrigin(indexedWorkOrder);
+            removeRules(indexedWorkOrder);
+        }
+
+        mChangedWorkOrders.put(workOrderIndex, workOrder);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // mark the work orders whose policies reference the named rule as changed, so that the next
+    // re-sort evaluates them again; returns the number of work orders marked
+    //
+    public synchronized int markRuleChanged(String ruleName) {
+        HashSet<WorkOrder> workOrders = mRuleWorkOrders.get(ruleName);
+        if (workOrders == null)
+            return 0;
+
+        for (WorkOrder workOrder : workOrders)
+            mChangedWorkOrders.put(workOrder.getDbIndex(), workOrder);
+        return workOrders.size();
+    }
+
+    // mark the indexed work order as changed; returns false if it is no longer indexed
+    public synchronized boolean markChanged(long workOrderIndex) {
+        WorkOrder workOrder = mWorkOrders.get(workOrderIndex);
+        if (workOrder == null)
+            return false;
+
+        mChangedWorkOrders.put(workOrderIndex, workOrder);
+        return true;
+    }
+
+    // mark every indexed work order as changed, for device state that all work orders depend on
+    public synchronized int markAllChanged() {
+        for (WorkOrder workOrder : mWorkOrders.values())
+            mChangedWorkOrders.put(workOrder.getDbIndex(), workOrder);
+        return mWorkOrders.size();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized WorkOrder get(long workOrderIndex) {
+        return mWorkOrders.get(workOrderIndex);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized boolean contains(WorkOrder workOrder) {
+        return mWorkOrders.get(workOrder.getDbIndex()) == workOrder;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the work orders marked as changed since the previous call
+    //
+    public synchronized ArrayList<WorkOrder> takeChangedWorkOrders() {
+        ArrayList<WorkOrder> changedWorkOrders = new ArrayList<WorkOrder>(mChangedWorkOrders.values());
+        mChangedWorkOrders = new LinkedHashMap<Long, WorkOrder>();
+        return changedWorkOrders;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized ArrayList<WorkOrder> getOriginWorkOrders(String uid) {
+        HashSet<WorkOrder> workOrders = mOriginWorkOrders.get(uid);
+        return workOrders == null ? new ArrayList<WorkOrder>(0) : new ArrayList<WorkOrder>(workOrders);
+    }
+
+    public synchronized int getOriginWorkOrderCount(String uid) {
+        HashSet<WorkOrder> workOrders = mOriginWorkOrders.get(uid);
+        return workOrders == null ? 0 : workOrders.size();
+    }
+
+    public synchronized long getOriginBytes(String uid) {
+        Long bytes = mOriginBytes.get(uid);
+        return bytes == null ? 0 : bytes;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    private void addOrigin(WorkOrder workOrder) {
+        String uid = workOrder.getClientUid();
+        HashSet<WorkOrder> workOrders = mOriginWorkOrders.get(uid);
+        if (workOrders == null) {
+            workOrders = new HashSet<WorkOrder>();
+            mOriginWorkOrders.put(uid, workOrders);
+        }
+        workOrders.add(workOrder);
+
+        long bytes = workOrder.getContentSize();
+        mWorkOrderBytes.put(workOrder, bytes);
+        mOriginBytes.put(uid, getOriginBytes(uid) + bytes);
+    }
+
+    private void addRules(WorkOrder workOrder) {
+        HashSet<String> ruleNames = workOrder.getPolicy().getRuleNames();
+        mWorkOrderRules.put(workOrder, ruleNames);
+        for (String ruleName : ruleNames) {
+            HashSet<WorkOrder> workOrders = mRuleWorkOrders.get(ruleName);
+            if (workOrders == null) {
+                workOrders = new HashSet<WorkOrder>();
+                mRuleWorkOrders.put(ruleName, workOrders);
+            }
+            workOrders.add(workOrder);
+        }
+    }
+
+    private void removeRules(WorkOrder workOrder) {
+        HashSet<String> ruleNames = mWorkOrderRules.remove(workOrder);
+        if (ruleNames != null)
+            for (String ruleName : ruleNames) {
+                HashSet<WorkOrder> workOrders = mRuleWorkOrders.get(ruleName);
+                if (workOrders != null) {
+                    workOrders.remove(workOrder);
+                    if (workOrders.isEmpty())
+                        mRuleWorkOrders.remove(ruleName);
+                }
+            }
+    }
+
+    private void removeOrigin(WorkOrder workOrder) {
+        String uid = workOrder.getClientUid();
+        HashSet<WorkOrder> workOrders = mOriginWorkOrders.get(uid);
+        if (workOrders != null) {
+            workOrders.remove(workOrder);
+            if (workOrders.isEmpty())
+                mOriginWorkOrders.remove(uid);
+        }
+
+        Long bytes = mWorkOrderBytes.remove(workOrder);
+        if (bytes != null) {
+            long originBytes = getOriginBytes(uid) - bytes;
+            if (workOrders == null || workOrders.isEmpty())
+                mOriginBytes.remove(uid);
+            else
+                mOriginBytes.put(uid, originBytes);
+        }
+    }
+}
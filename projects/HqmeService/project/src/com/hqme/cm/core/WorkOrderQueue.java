@@ -0,0 +1,320 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import java.util.AbstractQueue;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking priority queue of work orders, ordered by WorkOrder.compareTo, with constant time
+ * lookup by database index and logarithmic time removal and re-keying.
+ *
+ * A work order with a given database index is queued at most once: putting a second instance
+ * replaces the first, and putting an instance that is already queued re-keys it in place. Call
+ * update() after the execution priority of a queued work order has been recalculated.
+ *
+ * Like PriorityBlockingQueue, the queue uses its own internal lock, so threads blocked in take()
+ * do not hold the monitor of the queue object.
+ */
+class WorkOrderQueue extends AbstractQueue<WorkOrder> {
+    // ==================================================================================================================================
+    private WorkOrder[] mHeap = new WorkOrder[16];
+
+    private int mSize = 0;
+
+    // heap position of every queued instance, including internal work orders without a database index
+    private final IdentityHashMap<WorkOrder, Integer> mPositions = new IdentityHashMap<WorkOrder, Integer>();
+
+    private final HashMap<Long, WorkOrder> mWorkOrders = new HashMap<Long, WorkOrder>();
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    private final Condition mNotEmpty = mLock.newCondition();
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void put(WorkOrder workOrder) {
+        offer(workOrder);
+    }
+
+    @Override
+    public boolean offer(WorkOrder workOrder) {
+        if (workOrder == null)
+            throw new NullPointerException();
+
+        mLock.lock();
+        try {
+            Integer position = mPositions.get(workOrder);
+            if (position != null) {
+                reposition(position);
+                return true;
+            }
+
+            long workOrderIndex = workOrder.getDbIndex();
+            if (workOrderIndex > 0) {
+                WorkOrder queuedWorkOrder = mWorkOrders.get(workOrderIndex);
+                if (queuedWorkOrder != null)
+                    removeAt(mPositions.get(queuedWorkOrder));
+                mWorkOrders.put(workOrderIndex, workOrder);
+            }
+
+            if (mSize == mHeap.length) {
+                WorkOrder[] heap = new WorkOrder[mSize << 1];
+                System.arraycopy(mHeap, 0, heap, 0, mSize);
+                mHeap = heap;
+            }
+            mHeap[mSize] = workOrder;
+            mPositions.put(workOrder, mSize);
+            siftUp(mSize++);
+
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public WorkOrder take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0)
+                mNotEmpty.await();
+            return removeAt(0);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public WorkOrder poll() {
+        mLock.lock();
+        try {
+            return mSize == 0 ? null : removeAt(0);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public WorkOrder peek() {
+        mLock.lock();
+        try {
+            return mSize == 0 ? null : mHeap[0];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the queued work order with the specified database index, or null
+    //
+    public WorkOrder get(long workOrderIndex) {
+        mLock.lock();
+        try {
+            return mWorkOrders.get(workOrderIndex);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // remove the work order with the specified database index, returning the removed instance
+    //
+    public WorkOrder remove(long workOrderIndex) {
+        mLock.lock();
+        try {
+            WorkOrder workOrder = mWorkOrders.get(workOrderIndex);
+            return workOrder == null ? null : removeAt(mPositions.get(workOrder));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        mLock.lock();
+        try {
+            Integer position = mPositions.get(object);
+            if (position == null)
+                return false;
+            removeAt(position);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        mLock.lock();
+        try {
+            return mPositions.containsKey(object);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // restore the heap order after the execution priority of the work order has changed;
+    // returns false if this instance is not queued
+    //
+    public boolean update(WorkOrder workOrder) {
+        mLock.lock();
+        try {
+            Integer position = mPositions.get(workOrder);
+            if (position == null)
+                return false;
+            reposition(position);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    @Override
+    public void clear() {
+        mLock.lock();
+        try {
+            for (int i = 0; i < mSize; i++)
+                mHeap[i] = null;
+            mSize = 0;
+            mPositions.clear();
+            mWorkOrders.clear();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // weakly consistent iterator over a snapshot of the queue, in no particular order
+    //
+    @Override
+    public Iterator<WorkOrder> iterator() {
+        final WorkOrder[] snapshot;
+        mLock.lock();
+        try {
+            snapshot = new WorkOrder[mSize];
+            System.arraycopy(mHeap, 0, snapshot, 0, mSize);
+        } finally {
+            mLock.unlock();
+        }
+
+        return new Iterator<WorkOrder>() {
+            private int mCursor = 0;
+
+            private WorkOrder mLast = null;
+
+            public boolean hasNext() {
+                return mCursor < snapshot.length;
+            }
+
+            public WorkOrder next() {
+                if (mCursor >= snapshot.length)
+                    throw new NoSuchElementException();
+                return mLast = snapshot[mCursor++];
+            }
+
+            public void remove() {
+                if (mLast == null)
+                    throw new IllegalStateException();
+                WorkOrderQueue.this.remove(mLast);
+                mLast = null;
+            }
+        };
+    }
+
+    // ==================================================================================================================================
+    // the following are called while holding mLock
+    //
+    private WorkOrder removeAt(int position) {
+        WorkOrder workOrder = mHeap[position];
+        WorkOrder last = mHeap[--mSize];
+        mHeap[mSize] = null;
+
+        mPositions.remove(workOrder);
+        long workOrderIndex = workOrder.getDbIndex();
+        if (workOrderIndex > 0 && mWorkOrders.get(workOrderIndex) == workOrder)
+            mWorkOrders.remove(workOrderIndex);
+
+        if (position != mSize) {
+            mHeap[position] = last;
+            mPositions.put(last, position);
+            reposition(position);
+        }
+        return workOrder;
+    }
+
+    private void reposition(int position) {
+        WorkOrder workOrder = mHeap[position];
+        siftDown(position);
+        if (mHeap[position] == workOrder)
+            siftUp(position);
+    }
+
+    private void siftUp(int position) {
+        WorkOrder workOrder = mHeap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            WorkOrder parentWorkOrder = mHeap[parent];
+            if (workOrder.compareTo(parentWorkOrder) >= 0)
+                break;
+            mHeap[position] = parentWorkOrder;
+            mPositions.put(parentWorkOrder, position);
+            position = parent;
+        }
+        mHeap[position] = workOrder;
+        mPositions.put(workOrder, position);
+    }
+
+    private void siftDown(int position) {
+        WorkOrder workOrder = mHeap[position];
+        int half = mSize >>> 1;
+        while (position < half) {
+            int child = (position << 1) + 1;
+            int right = child + 1;
+            if (right < mSize && mHeap[right].compareTo(mHeap[child]) < 0)
+                child = right;
+            if (workOrder.compareTo(mHeap[child]) <= 0)
+                break;
+            mHeap[position] = mHeap[child];
+            mPositions.put(mHeap[position], position);
+            position = child;
+        }
+        mHeap[position] = workOrder;
+        mPositions.put(workOrder, position);
+    }
+}
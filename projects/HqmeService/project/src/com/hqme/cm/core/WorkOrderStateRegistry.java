@@ -0,0 +1,145 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.hqme.cm.core;
+
+import android.content.Context;
+
+import com.hqme.cm.QueueRequestState;
+import com.hqme.cm.util.CmClientUtil;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of all work orders known to the data base, grouped by QueueRequestState.
+ *
+ * The registry is loaded from the data base once and is then kept up to date as work orders
+ * change state or are deleted. Writers are serialized, but the id and count queries read
+ * concurrent maps without taking a lock, so polling clients never wait on the scheduler.
+ */
+class WorkOrderStateRegistry {
+    // ==================================================================================================================================
+    private final ConcurrentHashMap<Long, QueueRequestState> mStates = new ConcurrentHashMap<Long, QueueRequestState>();
+
+    // one map per state, created up front so that readers never see the EnumMap change
+    private final EnumMap<QueueRequestState, ConcurrentHashMap<Long, WorkOrder>> mWorkOrders = new EnumMap<QueueRequestState, ConcurrentHashMap<Long, WorkOrder>>(
+            QueueRequestState.class);
+
+    private volatile boolean mLoaded = false;
+
+    WorkOrderStateRegistry() {
+        for (QueueRequestState state : QueueRequestState.values())
+            mWorkOrders.put(state, new ConcurrentHashMap<Long, WorkOrder>());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // one-off load of every work order record; entries recorded by update() in the meantime are newer and are kept
+    //
+    public void ensureLoaded(Context context) {
+        if (!mLoaded)
+            load(context);
+    }
+
+    private synchronized void load(Context context) {
+        if (mLoaded)
+            return;
+
+        try {
+            Long[] woids = HQME.WorkOrder.getRecordIds(context, (String) null);
+
+            if (woids != null)
+                for (Long id : woids) {
+                    if (mStates.containsKey(id))
+                        continue;
+
+                    WorkOrder workOrder = HQME.WorkOrder.getRecord(context, id);
+                    if (workOrder != null)
+                        add(workOrder);
+                }
+        } catch (Exception fault) {
+            CmClientUtil.debugLog(getClass(), "load", fault);
+        } finally {
+            mLoaded = true;
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // record the current state of the work order, moving it out of the map of its previous state
+    //
+    public synchronized void update(WorkOrder workOrder) {
+        long workOrderIndex = workOrder.getDbIndex();
+        if (workOrderIndex <= 0)
+            return;
+
+        QueueRequestState state = workOrder.getQueueRequestState();
+        QueueRequestState previousState = mStates.put(workOrderIndex, state);
+        if (previousState != null && previousState != state)
+            mWorkOrders.get(previousState).remove(workOrderIndex);
+        mWorkOrders.get(state).put(workOrderIndex, workOrder);
+    }
+
+    // record a work order just read from the data base, unless the registry already holds one for that index: the
+    // in-memory work order may be in a newer state than its data base record
+    //
+    public synchronized boolean add(WorkOrder workOrder) {
+        long workOrderIndex = workOrder.getDbIndex();
+        if (workOrderIndex <= 0 || mStates.containsKey(workOrderIndex))
+            return false;
+
+        update(workOrder);
+        return true;
+    }
+
+    // the registered work order with the given index, or null
+    public WorkOrder get(long workOrderIndex) {
+        QueueRequestState state = mStates.get(workOrderIndex);
+        return state == null ? null : mWorkOrders.get(state).get(workOrderIndex);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public synchronized void remove(long workOrderIndex) {
+        QueueRequestState previousState = mStates.remove(workOrderIndex);
+        if (previousState != null)
+            mWorkOrders.get(previousState).remove(workOrderIndex);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    // the following do not lock
+    //
+    public int count(QueueRequestState state) {
+        return mWorkOrders.get(state).size();
+    }
+
+    public HashSet<Long> getIds(QueueRequestState state) {
+        return new HashSet<Long>(mWorkOrders.get(state).keySet());
+    }
+
+    // ids of the work orders in the given state that are relevant to the origin with the given permission
+    public HashSet<Long> getRelevantIds(QueueRequestState state, int permission, String origin) {
+        HashSet<Long> existingIds = new HashSet<Long>();
+        for (WorkOrder workOrder : mWorkOrders.get(state).values())
+            if (workOrder.isRelevantWorkOrder(permission, origin))
+                existingIds.add(workOrder.getDbIndex());
+        return existingIds;
+    }
+}
@@ -0,0 +1,131 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import junit.framework.TestCase;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+public class ContentDigestTest extends TestCase {
+    // ==================================================================================================================================
+    private static final String[] ALGORITHMS = {
+        ContentDigest.MD5, ContentDigest.SHA_1, ContentDigest.SHA_256, ContentDigest.CRC32C
+    };
+
+    private static byte[] randomBytes(int count) {
+        byte[] bytes = new byte[count];
+        new Random(count).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String digest(String algorithm, byte[] bytes) {
+        ContentDigest digest = ContentDigest.getInstance(algorithm);
+        digest.update(bytes, 0, bytes.length);
+        return ContentDigest.toHex(digest.digest());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testKnownValues() throws Exception {
+        byte[] abc = "abc".getBytes("US-ASCII");
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", digest(ContentDigest.MD5, abc));
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", digest(ContentDigest.SHA_1, abc));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                digest(ContentDigest.SHA_256, abc));
+        assertEquals("e3069283", digest(ContentDigest.CRC32C, "123456789".getBytes("US-ASCII")));
+    }
+
+    public void testBlockDigestsMatchThePlatform() throws Exception {
+        // lengths around the padding boundaries of a 64 byte block
+        int[] lengths = {
+            0, 1, 55, 56, 63, 64, 65, 119, 120, 128, 1000, 100000
+        };
+        for (int i = 0; i < 3; i++)
+            for (int length : lengths) {
+                byte[] bytes = randomBytes(length);
+                String expected = ContentDigest.toHex(MessageDigest.getInstance(ALGORITHMS[i]).digest(bytes));
+                assertEquals(ALGORITHMS[i] + " of " + length + " bytes", expected, digest(ALGORITHMS[i], bytes));
+            }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testDigestCanContinueAfterwards() {
+        byte[] bytes = randomBytes(300);
+        for (String algorithm : ALGORITHMS) {
+            ContentDigest digest = ContentDigest.getInstance(algorithm);
+            digest.update(bytes, 0, 100);
+            digest.digest();
+            digest.update(bytes, 100, 200);
+            assertEquals(algorithm, digest(algorithm, bytes), ContentDigest.toHex(digest.digest()));
+        }
+    }
+
+    public void testStateIsRestoredAtEveryLength() {
+        byte[] bytes = randomBytes(200);
+        for (String algorithm : ALGORITHMS) {
+            String expected = digest(algorithm, bytes);
+            for (int split = 0; split <= bytes.length; split += 7) {
+                ContentDigest digest = ContentDigest.getInstance(algorithm);
+                digest.update(bytes, 0, split);
+
+                ContentDigest resumed = ContentDigest.fromState(digest.getState());
+                assertNotNull(algorithm + " at " + split, resumed);
+                assertEquals(algorithm, resumed.getAlgorithm());
+                assertEquals(split, resumed.getLength());
+                resumed.update(bytes, split, bytes.length - split);
+                assertEquals(algorithm + " at " + split, expected, ContentDigest.toHex(resumed.digest()));
+            }
+        }
+    }
+
+    public void testStateThatCannotBeRead() {
+        ContentDigest digest = ContentDigest.getInstance(ContentDigest.SHA_256);
+        digest.update(randomBytes(10), 0, 10);
+        String state = digest.getState();
+
+        assertNull(ContentDigest.fromState(""));
+        assertNull(ContentDigest.fromState("SHA-512" + state.substring(state.indexOf(':'))));
+        // the pending bytes must agree with the length
+        assertNull(ContentDigest.fromState(state.replace(":a:", ":b:")));
+        assertNull(ContentDigest.fromState(state.substring(0, state.lastIndexOf(':'))));
+        assertNull(ContentDigest.fromState("SHA-256:0:zz:"));
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testMatchesExpectedValue() throws Exception {
+        byte[] abc = "abc".getBytes("US-ASCII");
+        String expectedValue = "SHA-256:BA7816BF8F01CFEA414140DE5DAE2223B00361A396177A9CB410FF61F20015AD";
+
+        ContentDigest digest = ContentDigest.forExpectedValue(expectedValue);
+        assertEquals(ContentDigest.SHA_256, digest.getAlgorithm());
+        digest.update(abc, 0, abc.length);
+        assertTrue(digest.matches(expectedValue));
+        assertFalse(digest.matches("SHA-1:a9993e364706816aba3e25717850c26c9cd0d89d"));
+        assertFalse(digest.matches("SHA-256:00"));
+    }
+
+    public void testUnsupportedExpectedValues() {
+        assertNull(ContentDigest.forExpectedValue(null));
+        assertNull(ContentDigest.forExpectedValue("9f86d081884c7d65"));
+        assertNull(ContentDigest.forExpectedValue(":9f86d081884c7d65"));
+        assertNull(ContentDigest.forExpectedValue("SHA-512:9f86d081884c7d65"));
+    }
+}
@@ -0,0 +1,85 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import junit.framework.TestCase;
+
+public class DurabilityTest extends TestCase {
+    // ==================================================================================================================================
+    public void testSynchronous() {
+        Durability durability = Durability.valueOf("SYNCHRONOUS");
+        assertSame(Durability.SYNCHRONOUS, durability);
+        assertEquals("rws", durability.getOpenMode());
+        assertSame(Durability.SYNCHRONOUS, Durability.valueOf("  synchronous  "));
+    }
+
+    public void testCheckpointDefaults() {
+        Durability durability = Durability.valueOf("CHECKPOINT");
+        assertEquals(Durability.Mode.CHECKPOINT, durability.mMode);
+        assertEquals(Durability.DEFAULT_CHECKPOINT_BYTES, durability.mCheckpointBytes);
+        assertEquals(Durability.DEFAULT_CHECKPOINT_SECONDS * 1000, durability.mCheckpointMillis);
+        assertEquals("rw", durability.getOpenMode());
+    }
+
+    public void testCheckpointWithBytesAndSeconds() {
+        Durability durability = Durability.valueOf("checkpoint 1048576 5");
+        assertEquals(Durability.Mode.CHECKPOINT, durability.mMode);
+        assertEquals(1048576, durability.mCheckpointBytes);
+        assertEquals(5000, durability.mCheckpointMillis);
+
+        durability = Durability.valueOf("CHECKPOINT\t65536");
+        assertEquals(65536, durability.mCheckpointBytes);
+        assertEquals(Durability.DEFAULT_CHECKPOINT_SECONDS * 1000, durability.mCheckpointMillis);
+    }
+
+    public void testClose() {
+        Durability durability = Durability.valueOf("Close");
+        assertEquals(Durability.Mode.CLOSE, durability.mMode);
+        assertEquals("rw", durability.getOpenMode());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testValuesNotUnderstood() {
+        assertNull(Durability.valueOf(null));
+        assertNull(Durability.valueOf(""));
+        assertNull(Durability.valueOf("   "));
+        assertNull(Durability.valueOf("EVENTUALLY"));
+        assertNull(Durability.valueOf("CHECKPOINT many"));
+        assertNull(Durability.valueOf("CHECKPOINT 0"));
+        assertNull(Durability.valueOf("CHECKPOINT 1024 -1"));
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testToStringIsParsedBack() {
+        String[] values = {
+            "SYNCHRONOUS", "CHECKPOINT 4096 12", "CLOSE"
+        };
+        for (String value : values) {
+            Durability durability = Durability.valueOf(value);
+            assertEquals(value, durability.toString());
+
+            Durability parsed = Durability.valueOf(durability.toString());
+            assertEquals(durability.mMode, parsed.mMode);
+            assertEquals(durability.mCheckpointBytes, parsed.mCheckpointBytes);
+            assertEquals(durability.mCheckpointMillis, parsed.mCheckpointMillis);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class HostRetrySchedulerTest extends TestCase {
+    // ==================================================================================================================================
+    private static final String HOST = "http://cdn.example.com/content/movie.mp4";
+
+    private static final String SAME_HOST = "HTTP://CDN.EXAMPLE.COM/content/trailer.mp4";
+
+    private static final String OTHER_HOST = "http://mirror.example.com/content/movie.mp4";
+
+    private static final long NOW = 1300000000000L;
+
+    private HostRetryScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mScheduler = new HostRetryScheduler();
+    }
+
+    private void recordFailures(String uri, int failures) {
+        for (int i = 0; i < failures; i++)
+            mScheduler.recordFailure(uri, NOW);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testUnknownHostMayBeTriedNow() {
+        assertEquals(-1, mScheduler.getRetryTime(HOST, NOW));
+        assertTrue(mScheduler.tryAcquire(Arrays.asList(HOST), NOW));
+    }
+
+    public void testBackoffDoublesWithEveryFailureAndIsJittered() {
+        for (int failures = 1; failures <= 6; failures++) {
+            mScheduler.recordFailure(HOST, NOW);
+            long backoff = HostRetryScheduler.BASE_BACKOFF_MILLIS << (failures - 1);
+            long retryTime = mScheduler.getRetryTime(HOST, NOW);
+            assertTrue("after " + failures + " failure(s)", retryTime >= NOW + backoff / 2);
+            assertTrue("after " + failures + " failure(s)", retryTime <= NOW + backoff);
+        }
+    }
+
+    public void testBackoffIsCapped() {
+        recordFailures(HOST, 40);
+        long retryTime = mScheduler.getRetryTime(HOST, NOW);
+        assertTrue(retryTime >= NOW + HostRetryScheduler.MAX_BACKOFF_MILLIS / 2);
+        assertTrue(retryTime <= NOW + HostRetryScheduler.MAX_BACKOFF_MILLIS);
+    }
+
+    public void testHostsAreKeyedBySchemeHostAndPort() {
+        mScheduler.recordFailure(HOST, NOW);
+        assertTrue(mScheduler.getRetryTime(SAME_HOST, NOW) > NOW);
+        assertEquals(-1, mScheduler.getRetryTime(OTHER_HOST, NOW));
+        assertEquals(-1, mScheduler.getRetryTime("http://cdn.example.com:8080/content/movie.mp4", NOW));
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testHostWithClosedCircuitIsTriedOnceItsBackoffHasPassed() {
+        recordFailures(HOST, HostRetryScheduler.FAILURES_TO_OPEN - 1);
+        List<String> uris = Arrays.asList(HOST);
+        long retryTime = mScheduler.getRetryTime(HOST, NOW);
+
+        assertFalse(mScheduler.tryAcquire(uris, NOW));
+        assertTrue(mScheduler.tryAcquire(uris, retryTime));
+        // without an open circuit, every work order may try the host
+        assertTrue(mScheduler.tryAcquire(uris, retryTime));
+    }
+
+    public void testOpenCircuitLetsOneTrialThrough() {
+        recordFailures(HOST, HostRetryScheduler.FAILURES_TO_OPEN);
+        List<String> uris = Arrays.asList(HOST);
+        long retryTime = mScheduler.getRetryTime(HOST, NOW);
+
+        assertFalse(mScheduler.tryAcquire(uris, NOW));
+        assertTrue(mScheduler.tryAcquire(uris, retryTime));
+
+        // the other work orders wait for the trial
+        assertFalse(mScheduler.tryAcquire(uris, retryTime + 1));
+        assertEquals(retryTime + HostRetryScheduler.TRIAL_MILLIS, mScheduler.getRetryTime(HOST, retryTime + 1));
+
+        // a trial that neither succeeded nor failed in time is given up
+        assertTrue(mScheduler.tryAcquire(uris, retryTime + HostRetryScheduler.TRIAL_MILLIS));
+    }
+
+    public void testSuccessfulTrialClosesTheCircuit() {
+        recordFailures(HOST, HostRetryScheduler.FAILURES_TO_OPEN);
+        List<String> uris = Arrays.asList(HOST);
+        long retryTime = mScheduler.getRetryTime(HOST, NOW);
+        assertTrue(mScheduler.tryAcquire(uris, retryTime));
+
+        mScheduler.recordSuccess(SAME_HOST);
+        assertEquals(-1, mScheduler.getRetryTime(HOST, retryTime + 1));
+        assertTrue(mScheduler.tryAcquire(uris, retryTime + 1));
+        assertTrue(mScheduler.tryAcquire(uris, retryTime + 1));
+    }
+
+    public void testFailedTrialBacksOffFurther() {
+        recordFailures(HOST, HostRetryScheduler.FAILURES_TO_OPEN);
+        long retryTime = mScheduler.getRetryTime(HOST, NOW);
+        assertTrue(mScheduler.tryAcquire(Arrays.asList(HOST), retryTime));
+
+        mScheduler.recordFailure(HOST, retryTime);
+        long backoff = HostRetryScheduler.BASE_BACKOFF_MILLIS << HostRetryScheduler.FAILURES_TO_OPEN;
+        assertTrue(mScheduler.getRetryTime(HOST, retryTime) >= retryTime + backoff / 2);
+        assertFalse(mScheduler.tryAcquire(Arrays.asList(HOST), retryTime + 1));
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testAnyHealthyHostMayBeTried() {
+        recordFailures(HOST, HostRetryScheduler.FAILURES_TO_OPEN);
+        assertTrue(mScheduler.tryAcquire(Arrays.asList(HOST, OTHER_HOST), NOW));
+        assertEquals(-1, mScheduler.getRetryTime(Arrays.asList(HOST, OTHER_HOST), NOW));
+    }
+
+    public void testEarliestRetryTimeOfSeveralHosts() {
+        recordFailures(HOST, 1);
+        recordFailures(OTHER_HOST, 8);
+        List<String> uris = Arrays.asList(HOST, OTHER_HOST);
+
+        assertEquals(mScheduler.getRetryTime(HOST, NOW), mScheduler.getRetryTime(uris, NOW));
+        assertFalse(mScheduler.tryAcquire(uris, NOW));
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testHostFailures() {
+        assertTrue(HostRetryScheduler.isHostFailure(new IOException()));
+        assertTrue(HostRetryScheduler.isHostFailure(new ProtocolException(
+                ProtocolException.ProtocolError.ERR_HTTP_SERVICE_UNAVAILABLE)));
+        assertTrue(HostRetryScheduler.isHostFailure(new ProtocolException(ProtocolException.ProtocolError.ERR_UNKNOWN)));
+
+        assertFalse(HostRetryScheduler.isHostFailure(new ProtocolException(
+                ProtocolException.ProtocolError.ERR_UNSUPPORTED_OPERATION)));
+        assertFalse(HostRetryScheduler.isHostFailure(new IllegalStateException()));
+    }
+}
@@ -0,0 +1,123 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+// the values use local times, so the expected instants follow the time zone of the device
+public class TimeWindowTransitionTest extends TestCase {
+    // ==================================================================================================================================
+    private RULE_TIME mTimeRule;
+
+    private RULE_MANDATORY_TIME mMandatoryTimeRule;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTimeRule = RULE_TIME.getInstance();
+        mTimeRule.init(null);
+        mMandatoryTimeRule = RULE_MANDATORY_TIME.getInstance();
+        mMandatoryTimeRule.init(null);
+    }
+
+    // today, or the given number of days from today, at the given local time
+    private static long today(int days, int hour, int minute) {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.set(Calendar.HOUR_OF_DAY, hour);
+        calendar.set(Calendar.MINUTE, minute);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DATE, days);
+        return calendar.getTimeInMillis();
+    }
+
+    private static long at(int year, int month, int date, int hour, int minute) {
+        return new GregorianCalendar(year, month, date, hour, minute, 0).getTimeInMillis();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testTimeWindowOpensLaterToday() {
+        assertEquals(today(0, 13, 0), mTimeRule.getNextTransition("13:00:00 PT2H", today(0, 12, 0)));
+    }
+
+    public void testTimeWindowClosesAfterItsDuration() {
+        assertEquals(today(0, 15, 0), mTimeRule.getNextTransition("13:00:00 PT2H", today(0, 13, 30)));
+        assertEquals(today(0, 14, 30), mTimeRule.getNextTransition("13:00:00 PT1H30M", today(0, 13, 0)));
+    }
+
+    public void testTimeWindowThatHasClosedOpensTomorrow() {
+        assertEquals(today(1, 9, 0), mTimeRule.getNextTransition("09:00:00 PT1H", today(0, 12, 0)));
+    }
+
+    public void testTimeWindowOpenSinceYesterdayClosesToday() {
+        assertEquals(today(0, 2, 0), mTimeRule.getNextTransition("22:00:00 PT4H", today(0, 1, 0)));
+    }
+
+    public void testTimeWindowWithoutDurationClosesAtMidnight() {
+        assertEquals(today(1, 0, 0), mTimeRule.getNextTransition("09:00:00", today(0, 12, 0)));
+    }
+
+    public void testEarliestTransitionOfSeveralTimeWindows() {
+        String value = "09:00:00 PT1H, 14:00:00 PT1H, 18:00:00 PT30M";
+        assertEquals(today(0, 14, 0), mTimeRule.getNextTransition(value, today(0, 12, 0)));
+        assertEquals(today(0, 15, 0), mTimeRule.getNextTransition(value, today(0, 14, 0)));
+        assertEquals(today(0, 18, 30), mTimeRule.getNextTransition(value, today(0, 18, 10)));
+    }
+
+    public void testTimeWindowWithoutTransitions() {
+        assertEquals(-1, mTimeRule.getNextTransition("00:00:00 P1D", today(0, 12, 0)));
+        assertEquals(-1, mTimeRule.getNextTransition(null, today(0, 12, 0)));
+        assertEquals(-1, mTimeRule.getNextTransition("noon", today(0, 12, 0)));
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testMandatoryTimeWindowOpensAndCloses() {
+        String value = "2030-06-15T09:00:00 PT2H";
+        assertEquals(at(2030, Calendar.JUNE, 15, 9, 0),
+                mMandatoryTimeRule.getNextTransition(value, at(2030, Calendar.JUNE, 14, 12, 0)));
+        assertEquals(at(2030, Calendar.JUNE, 15, 11, 0),
+                mMandatoryTimeRule.getNextTransition(value, at(2030, Calendar.JUNE, 15, 9, 0)));
+        assertEquals(-1, mMandatoryTimeRule.getNextTransition(value, at(2030, Calendar.JUNE, 15, 11, 0)));
+    }
+
+    public void testMandatoryTimeWindowWithoutDurationClosesAtMidnight() {
+        assertEquals(at(2030, Calendar.JUNE, 16, 0, 0), mMandatoryTimeRule.getNextTransition(
+                "2030-06-15T09:00:00", at(2030, Calendar.JUNE, 15, 10, 0)));
+    }
+
+    public void testEarliestTransitionOfSeveralMandatoryTimeWindows() {
+        String value = "2030-06-20T09:00:00 PT1H, 2030-06-15T22:00:00 PT4H";
+        assertEquals(at(2030, Calendar.JUNE, 15, 22, 0),
+                mMandatoryTimeRule.getNextTransition(value, at(2030, Calendar.JUNE, 15, 12, 0)));
+        assertEquals(at(2030, Calendar.JUNE, 16, 2, 0),
+                mMandatoryTimeRule.getNextTransition(value, at(2030, Calendar.JUNE, 15, 23, 0)));
+        assertEquals(at(2030, Calendar.JUNE, 20, 9, 0),
+                mMandatoryTimeRule.getNextTransition(value, at(2030, Calendar.JUNE, 16, 2, 0)));
+    }
+
+    public void testMandatoryTimeWindowWithoutTransitions() {
+        assertEquals(-1, mMandatoryTimeRule.getNextTransition(null, at(2030, Calendar.JUNE, 15, 12, 0)));
+        assertEquals(-1, mMandatoryTimeRule.getNextTransition("tomorrow", at(2030, Calendar.JUNE, 15, 12, 0)));
+    }
+}
@@ -0,0 +1,147 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+public class TimerWheelTest extends TestCase {
+    // ==================================================================================================================================
+    private static final long TICK_MILLIS = 1000;
+
+    private static final long START_MILLIS = 1300000000000L;
+
+    private TimerWheel mWheel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mWheel = new TimerWheel(TICK_MILLIS, START_MILLIS);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testScheduleInThePastFails() {
+        assertFalse(mWheel.schedule(1, START_MILLIS));
+        assertFalse(mWheel.schedule(1, START_MILLIS - TICK_MILLIS));
+        assertTrue(mWheel.isEmpty());
+        assertEquals(-1, mWheel.getNextDeadline());
+    }
+
+    public void testDeadlineExpiresOnItsTick() {
+        assertTrue(mWheel.schedule(1, START_MILLIS + 5 * TICK_MILLIS));
+
+        assertTrue(mWheel.advance(START_MILLIS + 4 * TICK_MILLIS).isEmpty());
+        ArrayList<Long> expired = mWheel.advance(START_MILLIS + 5 * TICK_MILLIS);
+        assertEquals(1, expired.size());
+        assertEquals(1, (long) expired.get(0));
+        assertTrue(mWheel.isEmpty());
+    }
+
+    public void testDeadlineIsRoundedUpToTheNextTick() {
+        assertTrue(mWheel.schedule(1, START_MILLIS + 1));
+        assertEquals(START_MILLIS + TICK_MILLIS, mWheel.getNextDeadline());
+
+        assertTrue(mWheel.advance(START_MILLIS + TICK_MILLIS - 1).isEmpty());
+        assertEquals(1, mWheel.advance(START_MILLIS + TICK_MILLIS).size());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testCancel() {
+        mWheel.schedule(1, START_MILLIS + 10 * TICK_MILLIS);
+        assertTrue(mWheel.cancel(1));
+        assertFalse(mWheel.cancel(1));
+        assertTrue(mWheel.isEmpty());
+        assertTrue(mWheel.advance(START_MILLIS + 20 * TICK_MILLIS).isEmpty());
+    }
+
+    public void testScheduleReplacesTheDeadline() {
+        mWheel.schedule(1, START_MILLIS + 10 * TICK_MILLIS);
+        mWheel.schedule(1, START_MILLIS + 100 * TICK_MILLIS);
+        assertEquals(START_MILLIS + 100 * TICK_MILLIS, mWheel.getNextDeadline());
+
+        assertTrue(mWheel.advance(START_MILLIS + 99 * TICK_MILLIS).isEmpty());
+        assertEquals(1, mWheel.advance(START_MILLIS + 100 * TICK_MILLIS).size());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testNextDeadlineOnEveryLevel() {
+        // one deadline per level of 64 slots, and one beyond the last level
+        long[] deadlines = {
+            START_MILLIS + 7 * TICK_MILLIS,
+            START_MILLIS + 100 * TICK_MILLIS,
+            START_MILLIS + 5000 * TICK_MILLIS,
+            START_MILLIS + 300000 * TICK_MILLIS,
+            START_MILLIS + 20000000L * TICK_MILLIS
+        };
+        for (int i = deadlines.length - 1; i >= 0; i--)
+            mWheel.schedule(i, deadlines[i]);
+
+        for (int i = 0; i < deadlines.length; i++) {
+            assertEquals(deadlines[i], mWheel.getNextDeadline());
+            ArrayList<Long> expired = mWheel.advance(deadlines[i]);
+            assertEquals(1, expired.size());
+            assertEquals(i, (long) expired.get(0));
+        }
+        assertEquals(-1, mWheel.getNextDeadline());
+    }
+
+    public void testCascadedDeadlinesExpireNeitherEarlyNorLate() {
+        Random random = new Random(2200);
+        HashMap<Long, Long> deadlines = new HashMap<Long, Long>();
+        for (long workOrderIndex = 1; workOrderIndex <= 1000; workOrderIndex++) {
+            long deadline = START_MILLIS + 1 + (long) (random.nextDouble() * 400000 * TICK_MILLIS);
+            deadlines.put(workOrderIndex, deadline);
+            assertTrue(mWheel.schedule(workOrderIndex, deadline));
+        }
+
+        long now = START_MILLIS;
+        while (!mWheel.isEmpty()) {
+            long nextDeadline = Long.MAX_VALUE;
+            for (long deadline : deadlines.values())
+                nextDeadline = Math.min(nextDeadline, (deadline + TICK_MILLIS - 1) / TICK_MILLIS * TICK_MILLIS);
+            assertEquals(nextDeadline, mWheel.getNextDeadline());
+
+            now += 1 + random.nextInt(2000) * TICK_MILLIS;
+            for (long workOrderIndex : mWheel.advance(now)) {
+                Long deadline = deadlines.remove(workOrderIndex);
+                assertNotNull(deadline);
+                assertTrue(deadline <= now);
+                assertTrue(deadline > now - 2000 * TICK_MILLIS - 1);
+            }
+            for (long deadline : deadlines.values())
+                assertTrue(deadline > now - TICK_MILLIS);
+        }
+        assertTrue(deadlines.isEmpty());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testClearRestartsTheWheel() {
+        mWheel.schedule(1, START_MILLIS + 10 * TICK_MILLIS);
+        mWheel.clear(START_MILLIS - 3600 * TICK_MILLIS);
+
+        assertTrue(mWheel.isEmpty());
+        assertTrue(mWheel.schedule(2, START_MILLIS - 3500 * TICK_MILLIS));
+        assertEquals(START_MILLIS - 3500 * TICK_MILLIS, mWheel.getNextDeadline());
+    }
+}
@@ -0,0 +1,119 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import junit.framework.TestCase;
+
+// the timing assertions leave a wide margin, so that a busy device does not fail them
+public class TokenBucketTest extends TestCase {
+    // ==================================================================================================================================
+    private TokenBucket mBucket;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBucket = new TokenBucket();
+    }
+
+    // the milliseconds that acquiring count bytes takes
+    private long timeAcquire(long count) throws InterruptedException {
+        long started = System.nanoTime();
+        mBucket.acquire(count);
+        return (System.nanoTime() - started) / 1000000;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testUnpacedBucketDoesNotWait() throws Exception {
+        assertEquals(0, mBucket.getRate());
+        assertTrue(timeAcquire(1L << 40) < 100);
+
+        mBucket.setRate(-1);
+        assertTrue(timeAcquire(1L << 40) < 100);
+    }
+
+    public void testAcquireIsPacedAtTheRate() throws Exception {
+        mBucket.setRate(1000000);
+        assertEquals(1000000, mBucket.getRate());
+
+        // the bucket starts empty, so half a second of tokens takes half a second
+        long elapsed = 0;
+        for (int i = 0; i < 10; i++)
+            elapsed += timeAcquire(50000);
+        assertTrue("took " + elapsed + " ms", elapsed >= 400 && elapsed < 2000);
+    }
+
+    public void testIdleTimeIsCreditedUpToTheBurst() throws Exception {
+        // the burst is a quarter of a second at this rate
+        mBucket.setRate(400000);
+        Thread.sleep(400);
+
+        assertTrue(timeAcquire(100000) < 100);
+        long elapsed = timeAcquire(100000);
+        assertTrue("took " + elapsed + " ms", elapsed >= 200 && elapsed < 2000);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testUnpacingReleasesWaitingThreads() throws Exception {
+        mBucket.setRate(1000);
+        final boolean[] acquired = new boolean[1];
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // ten thousand seconds at this rate
+                    mBucket.acquire(10000000);
+                    acquired[0] = true;
+                } catch (InterruptedException fault) {
+                }
+            }
+        };
+        waiter.start();
+        Thread.sleep(100);
+        assertTrue(waiter.isAlive());
+
+        mBucket.setRate(0);
+        waiter.join(2000);
+        assertFalse(waiter.isAlive());
+        assertTrue(acquired[0]);
+    }
+
+    public void testWaitingThreadCanBeInterrupted() throws Exception {
+        mBucket.setRate(1000);
+        final boolean[] interrupted = new boolean[1];
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mBucket.acquire(10000000);
+                } catch (InterruptedException fault) {
+                    interrupted[0] = true;
+                }
+            }
+        };
+        waiter.start();
+        Thread.sleep(100);
+
+        waiter.interrupt();
+        waiter.join(2000);
+        assertFalse(waiter.isAlive());
+        assertTrue(interrupted[0]);
+    }
+}
@@ -0,0 +1,240 @@
+/** 
+* This reference code is an implementation of the IEEE P2200 standard.  It is not
+* a contribution to the IEEE P2200 standard.
+* 
+* Copyright (c) 2011 SanDisk Corporation.  All rights reserved.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+* this file except in compliance with the License.  You may obtain a copy of the
+* License at
+* 
+*        http://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software distributed
+* under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied.
+* 
+* See the License for the specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.hqme.cm.core;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+public class WorkOrderQueueTest extends TestCase {
+    // ==================================================================================================================================
+    private WorkOrderQueue mQueue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mQueue = new WorkOrderQueue();
+    }
+
+    // a work order with the given database index and execution priority, 0 being the highest
+    private static WorkOrder newWorkOrder(long workOrderIndex, long executionPriority) {
+        WorkOrder workOrder = new WorkOrder(WorkOrder.State.PENDING);
+        workOrder.setDbIndex(workOrderIndex);
+        workOrder.executionPriority = executionPriority;
+        return workOrder;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testPollReturnsWorkOrdersInPriorityOrder() {
+        Random random = new Random(2200);
+        for (long i = 1; i <= 500; i++)
+            mQueue.put(newWorkOrder(i, random.nextInt(100)));
+        assertEquals(500, mQueue.size());
+
+        long previousPriority = Long.MIN_VALUE;
+        WorkOrder workOrder;
+        while ((workOrder = mQueue.poll()) != null) {
+            assertTrue(workOrder.executionPriority >= previousPriority);
+            previousPriority = workOrder.executionPriority;
+        }
+        assertEquals(0, mQueue.size());
+        assertNull(mQueue.peek());
+    }
+
+    public void testPeekDoesNotRemove() {
+        WorkOrder workOrder = newWorkOrder(1, 5);
+        mQueue.put(newWorkOrder(2, 7));
+        mQueue.put(workOrder);
+
+        assertSame(workOrder, mQueue.peek());
+        assertEquals(2, mQueue.size());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testGetAndRemoveByDatabaseIndex() {
+        WorkOrder first = newWorkOrder(1, 3);
+        WorkOrder second = newWorkOrder(2, 1);
+        WorkOrder third = newWorkOrder(3, 2);
+        mQueue.put(first);
+        mQueue.put(second);
+        mQueue.put(third);
+
+        assertSame(third, mQueue.get(3));
+        assertNull(mQueue.get(4));
+
+        assertSame(second, mQueue.remove(2));
+        assertNull(mQueue.remove(2));
+        assertNull(mQueue.get(2));
+        assertFalse(mQueue.contains(second));
+
+        assertSame(third, mQueue.poll());
+        assertSame(first, mQueue.poll());
+    }
+
+    public void testPutReplacesQueuedInstanceWithSameDatabaseIndex() {
+        WorkOrder queued = newWorkOrder(1, 1);
+        WorkOrder replacement = newWorkOrder(1, 9);
+        mQueue.put(queued);
+        mQueue.put(newWorkOrder(2, 5));
+        mQueue.put(replacement);
+
+        assertEquals(2, mQueue.size());
+        assertFalse(mQueue.contains(queued));
+        assertSame(replacement, mQueue.get(1));
+        assertEquals(2, mQueue.poll().getDbIndex());
+        assertSame(replacement, mQueue.poll());
+    }
+
+    public void testPutOfQueuedInstanceRekeysIt() {
+        WorkOrder workOrder = newWorkOrder(1, 1);
+        mQueue.put(workOrder);
+        mQueue.put(newWorkOrder(2, 5));
+
+        workOrder.executionPriority = 9L;
+        mQueue.put(workOrder);
+
+        assertEquals(2, mQueue.size());
+        assertEquals(2, mQueue.poll().getDbIndex());
+        assertSame(workOrder, mQueue.poll());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testUpdateRestoresOrderAfterPriorityChange() {
+        ArrayList<WorkOrder> workOrders = new ArrayList<WorkOrder>();
+        for (long i = 1; i <= 50; i++) {
+            WorkOrder workOrder = newWorkOrder(i, i);
+            workOrders.add(workOrder);
+            mQueue.put(workOrder);
+        }
+
+        // the lowest priority work order becomes the highest, and the highest the lowest
+        WorkOrder last = workOrders.get(49);
+        WorkOrder first = workOrders.get(0);
+        last.executionPriority = 0L;
+        first.executionPriority = 100L;
+        assertTrue(mQueue.update(last));
+        assertTrue(mQueue.update(first));
+
+        assertSame(last, mQueue.poll());
+        WorkOrder workOrder = null;
+        for (int i = 0; i < 49; i++)
+            workOrder = mQueue.poll();
+        assertSame(first, workOrder);
+    }
+
+    public void testUpdateOfUnqueuedInstanceFails() {
+        mQueue.put(newWorkOrder(1, 1));
+        assertFalse(mQueue.update(newWorkOrder(1, 1)));
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testWorkOrdersWithoutDatabaseIndexAreQueuedSeparately() {
+        // internal work orders, such as those that make a worker quit, have no database index
+        WorkOrder quit = newWorkOrder(-1, 0);
+        WorkOrder otherQuit = newWorkOrder(-1, 0);
+        mQueue.put(quit);
+        mQueue.put(otherQuit);
+        mQueue.put(newWorkOrder(1, 1));
+
+        assertEquals(3, mQueue.size());
+        assertTrue(mQueue.remove(quit));
+        assertFalse(mQueue.remove(quit));
+        assertTrue(mQueue.contains(otherQuit));
+        assertNull(mQueue.get(-1));
+    }
+
+    public void testRemoveFromTheMiddleKeepsHeapOrder() {
+        Random random = new Random(1);
+        ArrayList<WorkOrder> workOrders = new ArrayList<WorkOrder>();
+        for (long i = 1; i <= 200; i++) {
+            WorkOrder workOrder = newWorkOrder(i, random.nextInt(1000));
+            workOrders.add(workOrder);
+            mQueue.put(workOrder);
+        }
+        for (int i = 0; i < workOrders.size(); i += 3)
+            assertTrue(mQueue.remove(workOrders.get(i)));
+
+        long previousPriority = Long.MIN_VALUE;
+        int count = 0;
+        WorkOrder workOrder;
+        while ((workOrder = mQueue.poll()) != null) {
+            assertTrue(workOrder.executionPriority >= previousPriority);
+            previousPriority = workOrder.executionPriority;
+            count++;
+        }
+        assertEquals(200 - 67, count);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testIteratorRemove() {
+        for (long i = 1; i <= 10; i++)
+            mQueue.put(newWorkOrder(i, i));
+
+        Iterator<WorkOrder> iterator = mQueue.iterator();
+        while (iterator.hasNext())
+            if (iterator.next().getDbIndex() % 2 == 0)
+                iterator.remove();
+
+        assertEquals(5, mQueue.size());
+        for (long i = 1; i <= 10; i++)
+            assertEquals(i % 2 != 0, mQueue.get(i) != null);
+    }
+
+    public void testClear() {
+        for (long i = 1; i <= 10; i++)
+            mQueue.put(newWorkOrder(i, i));
+        mQueue.clear();
+
+        assertEquals(0, mQueue.size());
+        assertNull(mQueue.get(1));
+        assertNull(mQueue.poll());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------------------------
+    public void testTakeWaitsForPut() throws Exception {
+        final WorkOrder workOrder = newWorkOrder(1, 1);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException fault) {
+                    return;
+                }
+                mQueue.put(workOrder);
+            }
+        };
+        producer.start();
+
+        assertSame(workOrder, mQueue.take());
+        producer.join();
+    }
+
+    public void testPutOfNullFails() {
+        try {
+            mQueue.put(null);
+            fail();
+        } catch (NullPointerException fault) {
+        }
+    }
+}